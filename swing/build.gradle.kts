@@ -16,6 +16,8 @@ plugins {
 
 javaConvention {
   languageVersion = 21
+  // SIMD convolutions in com.jhlabs.image.VectorConvolve, skipped at runtime when the module is absent
+  addedModules = setOf("jdk.incubator.vector")
 }
 
 // repositories {
@@ -42,6 +44,9 @@ dependencies {
   implementation(libs.jsvg)
   implementation(libs.miglayout)
   implementation(libs.bundles.flatlaf)
+
+  testImplementation(libs.bundles.junit6.jupiter)
+  testRuntimeOnly(libs.junit6.platform.launcher)
 }
 
 val jnfLocation = layout.buildDirectory.map { "$it/jnf" }
@@ -34,6 +34,12 @@ public final class ExclusionComposite extends RGBComposite {
       super(alpha, srcColorModel, dstColorModel);
     }
 
+    protected void composeARGB(int[] src, int srcOffset, int[] dstIn, int dstInOffset, int[] dstOut, int dstOutOffset, int width, float alpha) {
+      int done = VectorComposite.compose(VectorComposite.EXCLUSION, src, srcOffset, dstIn, dstInOffset, dstOut, dstOutOffset, width, alpha);
+      if (done < width)
+        super.composeARGB(src, srcOffset + done, dstIn, dstInOffset + done, dstOut, dstOutOffset + done, width - done, alpha);
+    }
+
     public void composeRGB(int[] src, int[] dst, float alpha) {
       int w = src.length;
 
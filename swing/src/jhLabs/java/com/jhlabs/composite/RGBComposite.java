@@ -18,8 +18,12 @@ package com.jhlabs.composite;
 
 import java.awt.*;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 public abstract class RGBComposite implements Composite {
 
@@ -53,11 +57,21 @@ public abstract class RGBComposite implements Composite {
     return true;
   }
 
+  /**
+   * The base class for the contexts. Subclasses implement composeRGB, which works on rows unpacked into an int per
+   * channel. When all the rasters hold packed ARGB ints, as those of TYPE_INT_ARGB and TYPE_INT_ARGB_PRE images do,
+   * rows are read straight from the data arrays and handed to composeARGB instead, which subclasses can override to
+   * work on the packed pixels directly.
+   */
   public abstract static class RGBCompositeContext implements CompositeContext {
 
+    private final static int[] ARGB_MASKS = {0xff0000, 0xff00, 0xff, 0xff000000};
+
     private float alpha;
     private ColorModel srcColorModel;
     private ColorModel dstColorModel;
+    // Unpacked source and destination rows for composeARGB
+    private int[][] rows = new int[2][];
 
     public RGBCompositeContext(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
       this.alpha = alpha;
@@ -80,6 +94,57 @@ public abstract class RGBComposite implements Composite {
 
     public abstract void composeRGB(int[] src, int[] dst, float alpha);
 
+    /**
+     * Compose a row of packed ARGB pixels. Channel values outside 0..255 are wrapped into range, just as setPixels
+     * does on a packed raster. The default unpacks the row, calls composeRGB and packs the result.
+     *
+     * @param src          the source pixels
+     * @param srcOffset    the index of the first source pixel
+     * @param dstIn        the destination pixels
+     * @param dstInOffset  the index of the first destination pixel
+     * @param dstOut       the array for the result, which may be the same as dstIn
+     * @param dstOutOffset the index of the first result pixel
+     * @param width        the number of pixels
+     * @param alpha        the extra alpha
+     */
+    protected void composeARGB(int[] src, int srcOffset, int[] dstIn, int dstInOffset, int[] dstOut, int dstOutOffset, int width, float alpha) {
+      int[] srcPix = unpack(src, srcOffset, width, 0);
+      int[] dstPix = unpack(dstIn, dstInOffset, width, 1);
+      composeRGB(srcPix, dstPix, alpha);
+      for (int i = 0, j = 0; i < width; i++, j += 4)
+        dstOut[dstOutOffset + i] = (dstPix[j + 3] & 0xff) << 24 | (dstPix[j] & 0xff) << 16 | (dstPix[j + 1] & 0xff) << 8 | (dstPix[j + 2] & 0xff);
+    }
+
+    private int[] unpack(int[] pixels, int offset, int width, int row) {
+      // composeRGB works out the width from the length of the array
+      int[] pix = rows[row];
+      if (pix == null || pix.length != width * 4)
+        pix = rows[row] = new int[width * 4];
+      for (int i = 0, j = 0; i < width; i++, j += 4) {
+        int argb = pixels[offset + i];
+        pix[j] = (argb >> 16) & 0xff;
+        pix[j + 1] = (argb >> 8) & 0xff;
+        pix[j + 2] = argb & 0xff;
+        pix[j + 3] = argb >>> 24;
+      }
+      return pix;
+    }
+
+    private static boolean isPackedARGB(Raster raster) {
+      SampleModel sm = raster.getSampleModel();
+      return raster.getDataBuffer() instanceof DataBufferInt && raster.getDataBuffer().getNumBanks() == 1 &&
+             sm instanceof SinglePixelPackedSampleModel &&
+             Arrays.equals(((SinglePixelPackedSampleModel) sm).getBitMasks(), ARGB_MASKS);
+    }
+
+    /**
+     * Get the index of a pixel in the data array of a packed raster.
+     */
+    private static int indexOf(Raster raster, int x, int y) {
+      SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+      return raster.getDataBuffer().getOffset() + sm.getOffset(x - raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+    }
+
     public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
       float alpha = this.alpha;
 
@@ -91,6 +156,15 @@ public abstract class RGBComposite implements Composite {
       int y0 = dstOut.getMinY();
       int y1 = y0 + dstOut.getHeight();
 
+      if (isPackedARGB(src) && isPackedARGB(dstIn) && isPackedARGB(dstOut)) {
+        int[] srcData = ((DataBufferInt) src.getDataBuffer()).getData();
+        int[] dstInData = ((DataBufferInt) dstIn.getDataBuffer()).getData();
+        int[] dstOutData = ((DataBufferInt) dstOut.getDataBuffer()).getData();
+        for (int y = y0; y < y1; y++)
+          composeARGB(srcData, indexOf(src, x, y), dstInData, indexOf(dstIn, x, y), dstOutData, indexOf(dstOut, x, y), w, alpha);
+        return;
+      }
+
       for (int y = y0; y < y1; y++) {
         srcPix = src.getPixels(x, y, w, 1, srcPix);
         dstPix = dstIn.getPixels(x, y, w, 1, dstPix);
@@ -0,0 +1,225 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.composite;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the blend modes whose arithmetic is simple enough to do several pixels at a time, using the Vector
+ * API. Pixels are loaded packed, split into channels, blended, mixed with the destination by alpha in floats and
+ * packed again. The operations are the same as in each composite's composeRGB, so the results are the same.
+ * <p>
+ * The Vector API classes are only touched when {@link #isAvailable} is true, as the jdk.incubator.vector module may
+ * not be present at runtime.
+ */
+final class VectorComposite {
+
+  static final int MULTIPLY = 0;
+  static final int SCREEN = 1;
+  static final int ADD = 2;
+  static final int SUBTRACT = 3;
+  static final int DIFFERENCE = 4;
+  static final int DARKEN = 5;
+  static final int LIGHTEN = 6;
+  static final int AVERAGE = 7;
+  static final int EXCLUSION = 8;
+  static final int NEGATION = 9;
+  static final int OVERLAY = 10;
+  static final int HARD_LIGHT = 11;
+  static final int SOFT_LIGHT = 12;
+  static final int PIN_LIGHT = 13;
+
+  private static final boolean AVAILABLE = checkAvailable();
+
+  private VectorComposite() {
+  }
+
+  /**
+   * Whether the Vector API can be used. It is disabled when the jdk.incubator.vector module isn't resolved, when the
+   * platform doesn't have vectors of at least 4 ints, or when the com.jhlabs.image.vector system property is set to
+   * false.
+   *
+   * @return true if the SIMD blends can be used
+   */
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  private static boolean checkAvailable() {
+    if (!Boolean.parseBoolean(System.getProperty("com.jhlabs.image.vector", "true")))
+      return false;
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+      return false;
+    try {
+      return Kernels.INTS.length() >= 4 && Kernels.INTS.length() == Kernels.FLOATS.length();
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Compose as many pixels of a row as fit in whole vectors.
+   *
+   * @return the number of pixels composed, always a prefix of the row, and zero if the Vector API isn't available
+   */
+  static int compose(int mode, int[] src, int srcOffset, int[] dstIn, int dstInOffset, int[] dstOut, int dstOutOffset, int width, float alpha) {
+    if (!AVAILABLE)
+      return 0;
+    return Kernels.compose(mode, src, srcOffset, dstIn, dstInOffset, dstOut, dstOutOffset, width, alpha);
+  }
+
+  /**
+   * The vector loops. These are kept apart so that nothing touches the Vector API classes before
+   * we've checked that the module is there.
+   */
+  private static class Kernels {
+    static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    static int compose(int mode, int[] src, int srcOffset, int[] dstIn, int dstInOffset, int[] dstOut, int dstOutOffset, int width, float alpha) {
+      int bound = INTS.loopBound(width);
+      FloatVector one = FloatVector.broadcast(FLOATS, 1);
+      for (int x = 0; x < bound; x += INTS.length()) {
+        IntVector s = IntVector.fromArray(INTS, src, srcOffset + x);
+        IntVector d = IntVector.fromArray(INTS, dstIn, dstInOffset + x);
+        IntVector sr = s.lanewise(VectorOperators.LSHR, 16).and(0xff);
+        IntVector sg = s.lanewise(VectorOperators.LSHR, 8).and(0xff);
+        IntVector sb = s.and(0xff);
+        IntVector sa = s.lanewise(VectorOperators.LSHR, 24);
+        IntVector dr = d.lanewise(VectorOperators.LSHR, 16).and(0xff);
+        IntVector dg = d.lanewise(VectorOperators.LSHR, 8).and(0xff);
+        IntVector db = d.and(0xff);
+        IntVector da = d.lanewise(VectorOperators.LSHR, 24);
+
+        IntVector or = blend(mode, sr, dr);
+        IntVector og = blend(mode, sg, dg);
+        IntVector ob = blend(mode, sb, db);
+
+        FloatVector saAlpha = toFloat(sa).mul(alpha);
+        FloatVector a = saAlpha.div(255f);
+        FloatVector ac = one.sub(a);
+        IntVector rr = mix(a, ac, or, dr);
+        IntVector rg = mix(a, ac, og, dg);
+        IntVector rb = mix(a, ac, ob, db);
+        IntVector ra = toInt(saAlpha.add(toFloat(da).mul(ac)));
+
+        ra.and(0xff).lanewise(VectorOperators.LSHL, 24)
+          .or(rr.and(0xff).lanewise(VectorOperators.LSHL, 16))
+          .or(rg.and(0xff).lanewise(VectorOperators.LSHL, 8))
+          .or(rb.and(0xff))
+          .intoArray(dstOut, dstOutOffset + x);
+      }
+      return bound;
+    }
+
+    private static FloatVector toFloat(IntVector v) {
+      return (FloatVector) v.convert(VectorOperators.I2F, 0);
+    }
+
+    private static IntVector toInt(FloatVector v) {
+      return (IntVector) v.convert(VectorOperators.F2I, 0);
+    }
+
+    /**
+     * (int) (a * c + ac * d), as in composeRGB.
+     */
+    private static IntVector mix(FloatVector a, FloatVector ac, IntVector c, IntVector d) {
+      return toInt(a.mul(toFloat(c)).add(ac.mul(toFloat(d))));
+    }
+
+    /**
+     * Multiply two numbers in the range 0..255 such that 255*255=255, as RGBCompositeContext.multiply255 does.
+     */
+    private static IntVector multiply255(IntVector a, IntVector b) {
+      IntVector t = a.mul(b).add(0x80);
+      return t.lanewise(VectorOperators.ASHR, 8).add(t).lanewise(VectorOperators.ASHR, 8);
+    }
+
+    private static IntVector screen(IntVector s, IntVector d) {
+      return multiply255(d.neg().add(255), s.neg().add(255)).neg().add(255);
+    }
+
+    // The blend is kept small enough to be inlined into the loop, as vectors which escape a call are boxed
+    private static IntVector blend(int mode, IntVector s, IntVector d) {
+      switch (mode) {
+        case MULTIPLY:
+          return multiply255(d, s);
+        case SCREEN:
+          return screen(s, d);
+        case ADD:
+          return d.add(s).min(255);
+        case SUBTRACT:
+          return d.sub(s).max(0);
+        case DIFFERENCE:
+          return d.sub(s).abs();
+        case DARKEN:
+          return d.min(s);
+        case LIGHTEN:
+          return d.max(s);
+        case AVERAGE:
+          return d.add(s).lanewise(VectorOperators.ASHR, 1);
+        case EXCLUSION:
+          return exclusion(s, d);
+        case NEGATION:
+          return negation(s, d);
+        case OVERLAY:
+          return overlay(s, d);
+        case HARD_LIGHT:
+          return hardLight(s, d);
+        case SOFT_LIGHT:
+          return softLight(s, d);
+        case PIN_LIGHT:
+          return pinLight(s, d);
+        default:
+          throw new IllegalArgumentException("Unknown blend mode " + mode);
+      }
+    }
+
+    private static IntVector exclusion(IntVector s, IntVector d) {
+      return d.add(multiply255(s, d.mul(-2).add(255)));
+    }
+
+    private static IntVector negation(IntVector s, IntVector d) {
+      return s.neg().sub(d).add(255).abs().neg().add(255);
+    }
+
+    private static IntVector overlay(IntVector s, IntVector d) {
+      VectorMask<Integer> dark = d.lt(128);
+      return screen(s, d).blend(multiply255(d, s), dark).mul(2);
+    }
+
+    private static IntVector hardLight(IntVector s, IntVector d) {
+      VectorMask<Integer> light = s.compare(VectorOperators.GT, 127);
+      IntVector lit = multiply255(s.neg().add(255), d.neg().add(255)).mul(-2).add(255);
+      return multiply255(s, d).mul(2).blend(lit, light);
+    }
+
+    private static IntVector softLight(IntVector s, IntVector d) {
+      IntVector m = multiply255(s, d);
+      return m.add(multiply255(d, multiply255(d.neg().add(255), s.neg().add(255)).neg().add(255).sub(m)));
+    }
+
+    private static IntVector pinLight(IntVector s, IntVector d) {
+      VectorMask<Integer> light = s.compare(VectorOperators.GT, 127);
+      return s.min(d).blend(s.max(d), light);
+    }
+  }
+}
@@ -22,12 +22,126 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ColorModel;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A convenience class which implements those methods of BufferedImageOp which are rarely changed.
+ * <p>
+ * Filters may also be asked to filter only part of the destination with {@link #filter(BufferedImage, BufferedImage, Rectangle)},
+ * such as the area under a brush stroke in an editor. Filters which support this report which source pixels the
+ * region depends on with {@link #getSourceRegion}, and which destination pixels a change to the source affects with
+ * {@link #getDirtyRegion}, so that the work done is in proportion to the size of the change rather than the image.
  */
 public abstract class AbstractBufferedImageOp implements BufferedImageOp, Cloneable {
 
+  /**
+   * Whether to split the work across several threads, for filters which support it.
+   */
+  protected boolean parallel = false;
+
+  /**
+   * The pool used for parallel work, or null for the common pool.
+   */
+  protected ForkJoinPool forkJoinPool;
+
+  /**
+   * The part of the destination to filter, or null for all of it. This is only set during a call to
+   * {@link #filter(BufferedImage, BufferedImage, Rectangle)}, and filters which don't support regions ignore it.
+   */
+  protected Rectangle region;
+
+  /**
+   * Set whether the filter may split its work across several threads. This only has an effect
+   * on filters which support parallel execution, others ignore it.
+   *
+   * @param parallel true to run in parallel
+   * @see #getParallel
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Get whether the filter may split its work across several threads.
+   *
+   * @return true to run in parallel
+   * @see #setParallel
+   */
+  public boolean getParallel() {
+    return parallel;
+  }
+
+  /**
+   * Set the pool to use for parallel work.
+   *
+   * @param forkJoinPool the pool, or null to use the common pool
+   * @see #getForkJoinPool
+   */
+  public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+    this.forkJoinPool = forkJoinPool;
+  }
+
+  /**
+   * Get the pool to use for parallel work.
+   *
+   * @return the pool, or null if the common pool is used
+   * @see #setForkJoinPool
+   */
+  public ForkJoinPool getForkJoinPool() {
+    return forkJoinPool;
+  }
+
+  /**
+   * Filter part of an image. Only the pixels of the destination inside the region need be filtered, the rest are
+   * left as they are, or, for filters which can't restrict their work to a region, given the values
+   * filter(src, dst) would give them. If the source has only changed inside some region since the destination was
+   * last filtered, filtering the {@link #getDirtyRegion} of that region brings the whole destination up to date.
+   *
+   * @param src    the source image
+   * @param dst    the destination image, or null to create one
+   * @param region the part of the destination to filter, or null for all of it
+   * @return the destination image
+   * @see #getSourceRegion
+   * @see #getDirtyRegion
+   */
+  public BufferedImage filter(BufferedImage src, BufferedImage dst, Rectangle region) {
+    if (region == null)
+      return filter(src, dst);
+    Rectangle previous = this.region;
+    this.region = new Rectangle(region);
+    try {
+      return filter(src, dst);
+    } finally {
+      this.region = previous;
+    }
+  }
+
+  /**
+   * Get the part of the source which the pixels in a region of the destination depend on. By default this is the
+   * whole source, filters which look at a limited neighbourhood of each pixel override it.
+   *
+   * @param region the region of the destination
+   * @param src    the source image
+   * @return the region of the source, clipped to the image
+   * @see #filter(BufferedImage, BufferedImage, Rectangle)
+   */
+  public Rectangle getSourceRegion(Rectangle region, BufferedImage src) {
+    return new Rectangle(0, 0, src.getWidth(), src.getHeight());
+  }
+
+  /**
+   * Get the part of the destination which is affected by a change to a region of the source, and so needs filtering
+   * again. By default this is the whole destination.
+   *
+   * @param region the changed region of the source
+   * @param src    the source image
+   * @return the region of the destination, clipped to the image
+   * @see #filter(BufferedImage, BufferedImage, Rectangle)
+   */
+  public Rectangle getDirtyRegion(Rectangle region, BufferedImage src) {
+    return getBounds2D(src).getBounds();
+  }
+
   public BufferedImage createCompatibleDestImage(BufferedImage src, ColorModel dstCM) {
     if (dstCM == null)
       dstCM = src.getColorModel();
@@ -51,7 +165,7 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
 
   /**
    * A convenience method for getting ARGB pixels from an image. This tries to avoid the performance
-   * penalty of BufferedImage.getRGB unmanaging the image.
+   * penalty of BufferedImage.getRGB by reading the image data directly where possible.
    *
    * @param image  a BufferedImage object
    * @param x      the left edge of the pixel block
@@ -61,17 +175,15 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
    * @param pixels the array to hold the returned pixels. May be null.
    * @return the pixels
    * @see #setRGB
+   * @see ImageUtils#getRGB
    */
   public int[] getRGB(BufferedImage image, int x, int y, int width, int height, int[] pixels) {
-    int type = image.getType();
-    if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
-      return (int[]) image.getRaster().getDataElements(x, y, width, height, pixels);
-    return image.getRGB(x, y, width, height, pixels, 0, width);
+    return ImageUtils.getRGB(image, x, y, width, height, pixels);
   }
 
   /**
    * A convenience method for setting ARGB pixels in an image. This tries to avoid the performance
-   * penalty of BufferedImage.setRGB unmanaging the image.
+   * penalty of BufferedImage.setRGB by writing the image data directly where possible.
    *
    * @param image  a BufferedImage object
    * @param x      the left edge of the pixel block
@@ -80,13 +192,24 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
    * @param height the height of the pixel arry
    * @param pixels the array of pixels to set
    * @see #getRGB
+   * @see ImageUtils#setRGB
    */
   public void setRGB(BufferedImage image, int x, int y, int width, int height, int[] pixels) {
-    int type = image.getType();
-    if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
-      image.getRaster().setDataElements(x, y, width, height, pixels);
-    else
-      image.setRGB(x, y, width, height, pixels, 0, width);
+    ImageUtils.setRGB(image, x, y, width, height, pixels);
+  }
+
+  /**
+   * Get a copy of this filter for use on a copy of the image which has been scaled by some factor, such as a
+   * preview. Lengths in pixels, such as blur radii, are scaled too, so that the result looks like a scaled copy of
+   * what this filter gives on the full sized image. The default is a plain clone, which suits filters whose settings
+   * don't depend on the size of a pixel.
+   *
+   * @param scale the scale of the image, 0.5 for an image half the size
+   * @return the scaled copy
+   * @see ProgressivePreview
+   */
+  public AbstractBufferedImageOp getScaledInstance(float scale) {
+    return (AbstractBufferedImageOp) clone();
   }
 
   public Object clone() {
@@ -99,12 +99,13 @@ public class ApplyMaskFilter extends AbstractBufferedImageOp {
     int h = src.getHeight();
 
     int srcRGB[] = null;
-    int selRGB[] = null;
+    int selAlpha[] = null;
     int dstRGB[] = null;
 
     for (int i = 0; i < h; i++) {
       srcRGB = src.getPixels(x, y, w, 1, srcRGB);
-      selRGB = sel.getPixels(x, y, w, 1, selRGB);
+      // Only the alpha of the mask is used, so just read that band
+      selAlpha = sel.getSamples(x, y, w, 1, 3, selAlpha);
       dstRGB = dst.getPixels(x, y, w, 1, dstRGB);
 
       int k = x;
@@ -118,7 +119,7 @@ public class ApplyMaskFilter extends AbstractBufferedImageOp {
         int sa = srcRGB[k + 3];
         int dia = dstRGB[k + 3];
 
-        float a = selRGB[k + 3] / 255f;
+        float a = selAlpha[j] / 255f;
         float ac = 1 - a;
 
         dstRGB[k] = (int) (a * sr + ac * dir);
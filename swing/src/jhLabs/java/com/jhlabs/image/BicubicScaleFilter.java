@@ -16,17 +16,19 @@ limitations under the License.
 
 package com.jhlabs.image;
 
-import java.awt.*;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 
 /**
- * Scales an image using bi-cubic interpolation, which can't be done with AffineTransformOp.
+ * Scales an image using bi-cubic interpolation, which can't be done with AffineTransformOp. The Catmull-Rom cubic is
+ * used by default, the Mitchell cubic or the other filters of {@link Resampler} can be chosen with {@link #setFilter}.
  */
 public class BicubicScaleFilter extends AbstractBufferedImageOp {
 
   private int width;
   private int height;
+  private int filterType = Resampler.CATMULL_ROM;
 
   /**
    * Construct a BicubicScaleFilter which resizes to 32x32 pixels.
@@ -37,8 +39,6 @@ public class BicubicScaleFilter extends AbstractBufferedImageOp {
 
   /**
    * Constructor for a filter which scales the input image to the given width and height using bicubic interpolation.
-   * Unfortunately, it appears that bicubic actually looks worse than bilinear interpolation on most Java implementations,
-   * but you can be the judge.
    *
    * @param width  the width of the output image
    * @param height the height of the output image
@@ -48,20 +48,54 @@ public class BicubicScaleFilter extends AbstractBufferedImageOp {
     this.height = height;
   }
 
+  /**
+   * Set the filter used to scale the image.
+   *
+   * @param filterType the filter, one of the filters in Resampler
+   * @see #getFilter
+   */
+  public void setFilter(int filterType) {
+    if (filterType < Resampler.BOX || filterType > Resampler.LANCZOS3)
+      throw new IllegalArgumentException("Unknown filter " + filterType);
+    this.filterType = filterType;
+  }
+
+  /**
+   * Get the filter used to scale the image.
+   *
+   * @return the filter
+   * @see #setFilter
+   */
+  public int getFilter() {
+    return filterType;
+  }
+
+  /**
+   * Scale an image. If a destination image is given, the scaled image is drawn into its top left corner.
+   *
+   * @param src the image to scale
+   * @param dst the image to draw the result into, or null to create one of the scaled size
+   * @return the destination image
+   */
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     int w = src.getWidth();
     int h = src.getHeight();
 
-    if (dst == null) {
-      ColorModel dstCM = src.getColorModel();
-      dst = new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(width, height), dstCM.isAlphaPremultiplied(), null);
-    }
+    ColorModel dstCM = src.getColorModel();
+    BufferedImage image = new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(width, height), dstCM.isAlphaPremultiplied(), null);
+
+    Resampler resampler = new Resampler(filterType);
+    resampler.setParallel(parallel);
+    resampler.setForkJoinPool(forkJoinPool);
+    int[] outPixels = resampler.resample(getRGB(src, 0, 0, w, h, null), w, h, width, height);
+    setRGB(image, 0, 0, width, height, outPixels);
+    if (dst == null)
+      return image;
 
+    // Draw the result into the given image, clipped and composited over what's already there
     Graphics2D g = dst.createGraphics();
-    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-    g.drawImage(src, 0, 0, width, height, null);
+    g.drawImage(image, 0, 0, null);
     g.dispose();
-
     return dst;
   }
 
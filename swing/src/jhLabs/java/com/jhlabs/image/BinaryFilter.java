@@ -70,6 +70,59 @@ public abstract class BinaryFilter extends WholeImageFilter {
     return colormap;
   }
 
+  /**
+   * Grow or shrink the black areas of an image. At each iteration, each white pixel (black when eroding) with at
+   * least threshold black (white) neighbours is set to the new color, or to the colormap color for the iteration.
+   * Pixels off the edge of the image don't count as either.
+   * <p>
+   * The image is packed into a BitPlane and the neighbours are counted a word at a time. When the threshold is 1 and
+   * every change turns a pixel the other color, the edge moves a pixel per iteration, so all the iterations are done
+   * at once from the distance to the other color.
+   *
+   * @param width     the image width
+   * @param height    the image height
+   * @param inPixels  the image pixels
+   * @param dilate    true to grow the black areas, false to shrink them
+   * @param threshold the number of neighbours for a pixel to change
+   * @return the output pixels
+   */
+  protected int[] morph(int width, int height, int[] inPixels, boolean dilate, int threshold) {
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
+    System.arraycopy(inPixels, 0, outPixels, 0, width * height);
+    if (width == 0 || height == 0 || iterations <= 0)
+      return outPixels;
+
+    int[] colors = new int[iterations];
+    boolean allChange = true;
+    for (int i = 0; i < iterations; i++) {
+      colors[i] = colormap != null ? colormap.getColor((float) i / iterations) : newColor;
+      allChange &= blackFunction.isBlack(colors[i]) == dilate;
+    }
+
+    BitPlane black = BitPlane.fromPixels(inPixels, width, height, blackFunction);
+    if (threshold == 1 && allChange) {
+      int[] distance = (dilate ? black.not() : black).chessboardDistance(iterations);
+      for (int i = 0; i < distance.length; i++) {
+        int d = distance[i];
+        if (d > 0 && d <= iterations)
+          outPixels[i] = colors[d - 1];
+      }
+      return outPixels;
+    }
+
+    for (int i = 0; i < iterations; i++) {
+      BitPlane white = black.not();
+      BitPlane changed = BitPlane.atLeast((dilate ? black : white).neighbours(false), threshold).and(dilate ? white : black);
+      changed.fill(outPixels, colors[i]);
+      boolean nowBlack = blackFunction.isBlack(colors[i]);
+      if (dilate && nowBlack)
+        black.or(changed);
+      else if (!dilate && !nowBlack)
+        black.andNot(changed);
+    }
+    return outPixels;
+  }
+
   public void setNewColor(int newColor) {
     this.newColor = newColor;
   }
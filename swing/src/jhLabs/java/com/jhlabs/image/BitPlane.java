@@ -0,0 +1,462 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import com.jhlabs.math.BinaryFunction;
+
+/**
+ * A binary image packed 64 pixels to a long, for morphology done a word at a time. Each row starts on a new word,
+ * and pixel x of a row is bit x % 64 of word x / 64. Bits past the end of a row are always zero.
+ * <p>
+ * Most operations take a pad argument giving the value of pixels off the edge of the image.
+ */
+public class BitPlane {
+
+  private final int width;
+  private final int height;
+  private final int wordsPerRow;
+  private final long[] bits;
+  private final long lastWordMask;
+
+  /**
+   * Construct an empty BitPlane.
+   *
+   * @param width  the width
+   * @param height the height
+   */
+  public BitPlane(int width, int height) {
+    this.width = width;
+    this.height = height;
+    wordsPerRow = (width + 63) >>> 6;
+    bits = new long[wordsPerRow * height];
+    lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+  }
+
+  /**
+   * Make a BitPlane with the black pixels of an image set.
+   *
+   * @param pixels the image pixels
+   * @param width  the image width
+   * @param height the image height
+   * @param black  the function deciding which pixels are black
+   * @return the new plane
+   */
+  public static BitPlane fromPixels(int[] pixels, int width, int height, BinaryFunction black) {
+    BitPlane plane = new BitPlane(width, height);
+    long[] bits = plane.bits;
+    for (int y = 0; y < height; y++) {
+      int offset = y * width;
+      int word = y * plane.wordsPerRow;
+      for (int x0 = 0; x0 < width; x0 += 64, word++) {
+        long w = 0;
+        int n = Math.min(64, width - x0);
+        for (int b = 0; b < n; b++) {
+          if (black.isBlack(pixels[offset + x0 + b]))
+            w |= 1L << b;
+        }
+        bits[word] = w;
+      }
+    }
+    return plane;
+  }
+
+  /**
+   * Get the words holding the pixels, a row at a time.
+   *
+   * @return the words
+   */
+  public long[] getBits() {
+    return bits;
+  }
+
+  /**
+   * Get the number of words in each row.
+   *
+   * @return the number of words
+   */
+  public int getWordsPerRow() {
+    return wordsPerRow;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public boolean get(int x, int y) {
+    return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+  }
+
+  public void set(int x, int y, boolean value) {
+    int i = y * wordsPerRow + (x >>> 6);
+    if (value)
+      bits[i] |= 1L << x;
+    else
+      bits[i] &= ~(1L << x);
+  }
+
+  /**
+   * Make a copy of this plane.
+   *
+   * @return the copy
+   */
+  public BitPlane copy() {
+    BitPlane plane = new BitPlane(width, height);
+    System.arraycopy(bits, 0, plane.bits, 0, bits.length);
+    return plane;
+  }
+
+  /**
+   * Make the inverse of this plane.
+   *
+   * @return the inverse
+   */
+  public BitPlane not() {
+    BitPlane plane = new BitPlane(width, height);
+    for (int i = 0; i < bits.length; i++)
+      plane.bits[i] = ~bits[i];
+    plane.clearTail();
+    return plane;
+  }
+
+  /**
+   * Set this plane to the intersection of itself and another.
+   *
+   * @param plane the other plane
+   * @return this plane
+   */
+  public BitPlane and(BitPlane plane) {
+    for (int i = 0; i < bits.length; i++)
+      bits[i] &= plane.bits[i];
+    return this;
+  }
+
+  /**
+   * Set this plane to the union of itself and another.
+   *
+   * @param plane the other plane
+   * @return this plane
+   */
+  public BitPlane or(BitPlane plane) {
+    for (int i = 0; i < bits.length; i++)
+      bits[i] |= plane.bits[i];
+    return this;
+  }
+
+  /**
+   * Clear the pixels of this plane which are set in another.
+   *
+   * @param plane the other plane
+   * @return this plane
+   */
+  public BitPlane andNot(BitPlane plane) {
+    for (int i = 0; i < bits.length; i++)
+      bits[i] &= ~plane.bits[i];
+    return this;
+  }
+
+  /**
+   * Clear the pixels on the edges of the plane.
+   */
+  public void clearBorder() {
+    if (height == 0 || width == 0)
+      return;
+    for (int i = 0; i < wordsPerRow; i++) {
+      bits[i] = 0;
+      bits[(height - 1) * wordsPerRow + i] = 0;
+    }
+    long right = 1L << ((width - 1) & 63);
+    for (int y = 0; y < height; y++) {
+      int row = y * wordsPerRow;
+      bits[row] &= ~1L;
+      bits[row + wordsPerRow - 1] &= ~right;
+    }
+  }
+
+  /**
+   * Count the set pixels.
+   *
+   * @return the number of set pixels
+   */
+  public int cardinality() {
+    int count = 0;
+    for (long w : bits)
+      count += Long.bitCount(w);
+    return count;
+  }
+
+  /**
+   * Set the pixels of an image to a color wherever this plane is set.
+   *
+   * @param pixels the image pixels
+   * @param color  the color
+   */
+  public void fill(int[] pixels, int color) {
+    for (int y = 0; y < height; y++) {
+      int row = y * wordsPerRow;
+      int offset = y * width;
+      for (int i = 0; i < wordsPerRow; i++) {
+        long w = bits[row + i];
+        while (w != 0) {
+          pixels[offset + (i << 6) + Long.numberOfTrailingZeros(w)] = color;
+          w &= w - 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * Make a plane in which each pixel is the pixel at an offset from it in this one, so shift(1, 0, pad) gives each
+   * pixel's right hand neighbour.
+   *
+   * @param dx  the horizontal offset
+   * @param dy  the vertical offset
+   * @param pad the value of pixels off the edge of the image
+   * @return the shifted plane
+   */
+  public BitPlane shift(int dx, int dy, boolean pad) {
+    BitPlane plane = new BitPlane(width, height);
+    if (wordsPerRow == 0)
+      return plane;
+    long padWord = pad ? -1L : 0;
+    for (int y = 0; y < height; y++) {
+      int sy = y + dy;
+      int out = y * wordsPerRow;
+      if (sy < 0 || sy >= height) {
+        for (int i = 0; i < wordsPerRow; i++)
+          plane.bits[out + i] = padWord;
+      } else {
+        shiftRow(bits, sy * wordsPerRow, plane.bits, out, dx, padWord);
+      }
+      plane.bits[out + wordsPerRow - 1] &= lastWordMask;
+    }
+    return plane;
+  }
+
+  /**
+   * Shift one row, so that bit x of the output is bit x + dx of the input, with the padding beyond the row ends.
+   */
+  private void shiftRow(long[] in, int inOffset, long[] out, int outOffset, int dx, long padWord) {
+    int words = wordsPerRow;
+    int wordShift = dx >> 6;
+    int bitShift = dx & 63;
+    for (int i = 0; i < words; i++) {
+      long lo = word(in, inOffset, i + wordShift, padWord);
+      if (bitShift == 0) {
+        out[outOffset + i] = lo;
+      } else {
+        long hi = word(in, inOffset, i + wordShift + 1, padWord);
+        out[outOffset + i] = (lo >>> bitShift) | (hi << (64 - bitShift));
+      }
+    }
+  }
+
+  /**
+   * Get a word of a row, with the padding in place of the bits past either end.
+   */
+  private long word(long[] in, int offset, int i, long padWord) {
+    if (i < 0 || i >= wordsPerRow)
+      return padWord;
+    long w = in[offset + i];
+    if (i == wordsPerRow - 1)
+      w = (w & lastWordMask) | (padWord & ~lastWordMask);
+    return w;
+  }
+
+  /**
+   * Dilate the plane by a square, so that each pixel is set if any pixel within the radius is set.
+   * The cost is logarithmic in the radius.
+   *
+   * @param radius the radius of the square
+   * @param pad    the value of pixels off the edge of the image
+   * @return the dilated plane
+   */
+  public BitPlane dilate(int radius, boolean pad) {
+    return square(radius, pad, false);
+  }
+
+  /**
+   * Erode the plane by a square, so that each pixel is set only if all pixels within the radius are set.
+   * The cost is logarithmic in the radius.
+   *
+   * @param radius the radius of the square
+   * @param pad    the value of pixels off the edge of the image
+   * @return the eroded plane
+   */
+  public BitPlane erode(int radius, boolean pad) {
+    return square(radius, pad, true);
+  }
+
+  private BitPlane square(int radius, boolean pad, boolean and) {
+    if (radius <= 0)
+      return copy();
+    int size = 2 * radius + 1;
+    // Combine runs of doubling length, then shift the run so it's centred
+    BitPlane h = copy();
+    int span = 1;
+    while (span < size) {
+      int step = Math.min(span, size - span);
+      BitPlane s = h.shift(step, 0, pad);
+      if (and)
+        h.and(s);
+      else
+        h.or(s);
+      span += step;
+    }
+    h = h.shift(-radius, 0, pad);
+    BitPlane v = h;
+    span = 1;
+    while (span < size) {
+      int step = Math.min(span, size - span);
+      BitPlane s = v.shift(0, step, pad);
+      if (and)
+        v.and(s);
+      else
+        v.or(s);
+      span += step;
+    }
+    return v.shift(0, -radius, pad);
+  }
+
+  /**
+   * Make a plane of the pixels for which at least a given number of the planes are set. The planes are added
+   * together a word at a time with bit-sliced adders.
+   *
+   * @param planes    up to 15 planes of the same size
+   * @param threshold the number of planes which must be set
+   * @return the new plane
+   */
+  public static BitPlane atLeast(BitPlane[] planes, int threshold) {
+    BitPlane first = planes[0];
+    BitPlane result = new BitPlane(first.width, first.height);
+    int n = first.bits.length;
+    for (int i = 0; i < n; i++) {
+      long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+      for (BitPlane plane : planes) {
+        long c = plane.bits[i];
+        long t = s0 & c;
+        s0 ^= c;
+        c = t;
+        t = s1 & c;
+        s1 ^= c;
+        c = t;
+        t = s2 & c;
+        s2 ^= c;
+        s3 |= t;
+      }
+      long gt = 0, eq = -1L;
+      long[] s = {s0, s1, s2, s3};
+      for (int k = 3; k >= 0; k--) {
+        if (((threshold >> k) & 1) == 0) {
+          gt |= eq & s[k];
+          eq &= ~s[k];
+        } else {
+          eq &= s[k];
+        }
+      }
+      result.bits[i] = threshold <= 0 ? -1L : threshold > 15 ? 0 : gt | eq;
+    }
+    result.clearTail();
+    return result;
+  }
+
+  /**
+   * Get the eight neighbour planes, in the order NW, N, NE, E, SE, S, SW, W.
+   *
+   * @param pad the value of pixels off the edge of the image
+   * @return the neighbour planes
+   */
+  public BitPlane[] neighbours(boolean pad) {
+    return neighbours(pad, pad);
+  }
+
+  /**
+   * Get the eight neighbour planes, in the order NW, N, NE, E, SE, S, SW, W.
+   *
+   * @param hpad the value of pixels off the left and right edges
+   * @param vpad the value of pixels off the top and bottom edges
+   * @return the neighbour planes
+   */
+  public BitPlane[] neighbours(boolean hpad, boolean vpad) {
+    BitPlane north = shift(0, -1, vpad);
+    BitPlane south = shift(0, 1, vpad);
+    return new BitPlane[]{
+            north.shift(-1, 0, hpad), north, north.shift(1, 0, hpad), shift(1, 0, hpad),
+            south.shift(1, 0, hpad), south, south.shift(-1, 0, hpad), shift(-1, 0, hpad)
+    };
+  }
+
+  /**
+   * Find the chessboard distance from each set pixel to the nearest clear one, with pixels off the edge of the image
+   * counting as set. This is the number of rounds of 3x3 erosion it takes to clear the pixel.
+   *
+   * @param max the largest distance of interest, anything further is given as max + 1
+   * @return the distances, zero for clear pixels
+   */
+  public int[] chessboardDistance(int max) {
+    int far = max + 1;
+    int[] d = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      int index = y * width;
+      for (int x = 0; x < width; x++, index++) {
+        if (!get(x, y)) {
+          d[index] = 0;
+          continue;
+        }
+        int m = far;
+        if (y > 0) {
+          m = Math.min(m, d[index - width] + 1);
+          if (x > 0)
+            m = Math.min(m, d[index - width - 1] + 1);
+          if (x < width - 1)
+            m = Math.min(m, d[index - width + 1] + 1);
+        }
+        if (x > 0)
+          m = Math.min(m, d[index - 1] + 1);
+        d[index] = Math.min(m, far);
+      }
+    }
+    for (int y = height - 1; y >= 0; y--) {
+      int index = y * width + width - 1;
+      for (int x = width - 1; x >= 0; x--, index--) {
+        int m = d[index];
+        if (m == 0)
+          continue;
+        if (y < height - 1) {
+          m = Math.min(m, d[index + width] + 1);
+          if (x > 0)
+            m = Math.min(m, d[index + width - 1] + 1);
+          if (x < width - 1)
+            m = Math.min(m, d[index + width + 1] + 1);
+        }
+        if (x < width - 1)
+          m = Math.min(m, d[index + 1] + 1);
+        d[index] = m;
+      }
+    }
+    return d;
+  }
+
+  private void clearTail() {
+    for (int y = 0; y < height; y++)
+      bits[y * wordsPerRow + wordsPerRow - 1] &= lastWordMask;
+  }
+
+}
@@ -75,8 +75,9 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
     if (dst == null)
       dst = createCompatibleDestImage(src, null);
 
-    int[] inPixels = new int[width * height];
-    int[] outPixels = new int[width * height];
+    ScratchBuffers buffers = ScratchBuffers.getDefault();
+    int[] inPixels = buffers.getInts(width * height);
+    int[] outPixels = buffers.getInts(width * height);
     getRGB(src, 0, 0, width, height, inPixels);
 
     if (premultiplyAlpha)
@@ -91,6 +92,8 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
       ImageMath.unpremultiply(inPixels, 0, inPixels.length);
 
     setRGB(dst, 0, 0, width, height, inPixels);
+    buffers.release(inPixels);
+    buffers.release(outPixels);
     return dst;
   }
 
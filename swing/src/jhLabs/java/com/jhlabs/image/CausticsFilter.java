@@ -373,6 +373,12 @@ public class CausticsFilter extends WholeImageFilter {
     return f;
   }
 
+  public AbstractBufferedImageOp getScaledInstance(float scale) {
+    CausticsFilter f = (CausticsFilter) super.getScaledInstance(scale);
+    f.scale = this.scale * scale;
+    return f;
+  }
+
   public String toString() {
     return "Texture/Caustics...";
   }
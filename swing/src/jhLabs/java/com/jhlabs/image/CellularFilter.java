@@ -17,10 +17,8 @@ limitations under the License.
 package com.jhlabs.image;
 
 import com.jhlabs.math.Function2D;
-import com.jhlabs.math.Noise;
 
 import java.awt.*;
-import java.util.Random;
 
 /**
  * A filter which produces an image with a cellular texture.
@@ -37,9 +35,10 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
   public float distancePower = 2;
   public boolean useColor = false;
   protected Colormap colormap = new Gradient();
+  // The colormap compiled for quick lookups, for the image being filtered
+  private Colormap lookupColormap;
   protected float[] coefficients = {1, 0, 0, 0};
   protected float angleCoefficient;
-  protected Random random = new Random();
   protected float m00 = 1.0f;
   protected float m01 = 0.0f;
   protected float m10 = 0.0f;
@@ -49,8 +48,9 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
   protected int gridType = HEXAGONAL;
   private float min;
   private float max;
-  private static byte[] probabilities;
   private float gradientCoefficient;
+  // The feature points for the image being filtered, shared by all the bands
+  private CellularGrid grid;
 
   public final static int RANDOM = 0;
   public final static int SQUARE = 1;
@@ -59,25 +59,7 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
   public final static int TRIANGULAR = 4;
 
   public CellularFilter() {
-    results = new Point[3];
-    for (int j = 0; j < results.length; j++)
-      results[j] = new Point();
-    if (probabilities == null) {
-      probabilities = new byte[8192];
-      float factorial = 1;
-      float total = 0;
-      float mean = 2.5f;
-      for (int i = 0; i < 10; i++) {
-        if (i > 1)
-          factorial *= i;
-        float probability = (float) Math.pow(mean, i) * (float) Math.exp(-mean) / factorial;
-        int start = (int) (total * 8192);
-        total += probability;
-        int end = (int) (total * 8192);
-        for (int j = start; j < end; j++)
-          probabilities[j] = (byte) i;
-      }
-    }
+    results = createResults();
   }
 
   /**
@@ -215,6 +197,7 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
    */
   public void setColormap(Colormap colormap) {
     this.colormap = colormap;
+    lookupColormap = null;
   }
 
   /**
@@ -301,98 +284,48 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
     public float dx, dy;
     public float cubeX, cubeY;
     public float distance;
+    // Room for the points of a cell off the grid, shared by the points of one results array
+    float[] cellPoints;
   }
 
-  private float checkCube(float x, float y, int cubeX, int cubeY, Point[] results) {
-    int numPoints;
-    random.setSeed(571 * cubeX + 23 * cubeY);
-    switch (gridType) {
-      case RANDOM:
-      default:
-        numPoints = probabilities[random.nextInt() & 0x1fff];
-        break;
-      case SQUARE:
-        numPoints = 1;
-        break;
-      case HEXAGONAL:
-        numPoints = 1;
-        break;
-      case OCTAGONAL:
-        numPoints = 2;
-        break;
-      case TRIANGULAR:
-        numPoints = 2;
-        break;
+  /**
+   * Create an array to hold the three nearest feature points found by {@link #evaluate(float, float, Point[])}.
+   * Each thread evaluating the texture needs its own.
+   *
+   * @return the array
+   */
+  protected Point[] createResults() {
+    Point[] results = new Point[3];
+    float[] cellPoints = new float[CellularGrid.MAX_POINTS * CellularGrid.POINT_SIZE];
+    for (int j = 0; j < results.length; j++) {
+      results[j] = new Point();
+      results[j].cellPoints = cellPoints;
     }
-    for (int i = 0; i < numPoints; i++) {
-      float px = 0, py = 0;
-      float weight = 1.0f;
-      switch (gridType) {
-        case RANDOM:
-          px = random.nextFloat();
-          py = random.nextFloat();
-          break;
-        case SQUARE:
-          px = py = 0.5f;
-          if (randomness != 0) {
-            px += randomness * (random.nextFloat() - 0.5);
-            py += randomness * (random.nextFloat() - 0.5);
-          }
-          break;
-        case HEXAGONAL:
-          if ((cubeX & 1) == 0) {
-            px = 0.75f;
-            py = 0;
-          } else {
-            px = 0.75f;
-            py = 0.5f;
-          }
-          if (randomness != 0) {
-            px += randomness * Noise.noise2(271 * (cubeX + px), 271 * (cubeY + py));
-            py += randomness * Noise.noise2(271 * (cubeX + px) + 89, 271 * (cubeY + py) + 137);
-          }
-          break;
-        case OCTAGONAL:
-          switch (i) {
-            case 0:
-              px = 0.207f;
-              py = 0.207f;
-              break;
-            case 1:
-              px = 0.707f;
-              py = 0.707f;
-              weight = 1.6f;
-              break;
-          }
-          if (randomness != 0) {
-            px += randomness * Noise.noise2(271 * (cubeX + px), 271 * (cubeY + py));
-            py += randomness * Noise.noise2(271 * (cubeX + px) + 89, 271 * (cubeY + py) + 137);
-          }
-          break;
-        case TRIANGULAR:
-          if ((cubeY & 1) == 0) {
-            if (i == 0) {
-              px = 0.25f;
-              py = 0.35f;
-            } else {
-              px = 0.75f;
-              py = 0.65f;
-            }
-          } else {
-            if (i == 0) {
-              px = 0.75f;
-              py = 0.35f;
-            } else {
-              px = 0.25f;
-              py = 0.65f;
-            }
-          }
-          if (randomness != 0) {
-            px += randomness * Noise.noise2(271 * (cubeX + px), 271 * (cubeY + py));
-            py += randomness * Noise.noise2(271 * (cubeX + px) + 89, 271 * (cubeY + py) + 137);
-          }
-          break;
+    return results;
+  }
+
+  private float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, CellularGrid grid) {
+    float[] points;
+    int start, end;
+    int cell = grid != null ? grid.getCell(cubeX, cubeY) : -1;
+    if (cell >= 0) {
+      points = grid.getPoints();
+      start = grid.getStart(cell);
+      end = grid.getStart(cell + 1);
+    } else {
+      points = results[0].cellPoints;
+      if (points == null) {
+        points = new float[CellularGrid.MAX_POINTS * CellularGrid.POINT_SIZE];
+        for (int j = 0; j < results.length; j++)
+          results[j].cellPoints = points;
       }
+      start = 0;
+      end = CellularGrid.generate(gridType, randomness, cubeX, cubeY, points, 0);
+    }
+    for (int i = start; i < end; i += CellularGrid.POINT_SIZE) {
+      float px = points[i];
+      float py = points[i + 1];
+      float weight = points[i + 2];
       float dx = (float) Math.abs(x - px);
       float dy = (float) Math.abs(y - py);
       float d;
@@ -438,6 +371,22 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
   }
 
   public float evaluate(float x, float y) {
+    return evaluate(x, y, results);
+  }
+
+  /**
+   * Evaluate the texture at a point, leaving the three nearest feature points in the given array rather than in
+   * {@link #results}, so that several threads can evaluate the texture at once.
+   *
+   * @param x       the x coordinate
+   * @param y       the y coordinate
+   * @param results the array for the nearest points, from {@link #createResults}
+   * @return the value of the texture
+   */
+  public float evaluate(float x, float y, Point[] results) {
+    CellularGrid grid = this.grid;
+    if (grid != null && !grid.matches(gridType, randomness))
+      grid = null;
     for (int j = 0; j < results.length; j++)
       results[j].distance = Float.POSITIVE_INFINITY;
 
@@ -446,24 +395,24 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
     float fx = x - ix;
     float fy = y - iy;
 
-    float d = checkCube(fx, fy, ix, iy, results);
+    float d = checkCube(fx, fy, ix, iy, results, grid);
     if (d > fy)
-      d = checkCube(fx, fy + 1, ix, iy - 1, results);
+      d = checkCube(fx, fy + 1, ix, iy - 1, results, grid);
     if (d > 1 - fy)
-      d = checkCube(fx, fy - 1, ix, iy + 1, results);
+      d = checkCube(fx, fy - 1, ix, iy + 1, results, grid);
     if (d > fx) {
-      checkCube(fx + 1, fy, ix - 1, iy, results);
+      checkCube(fx + 1, fy, ix - 1, iy, results, grid);
       if (d > fy)
-        d = checkCube(fx + 1, fy + 1, ix - 1, iy - 1, results);
+        d = checkCube(fx + 1, fy + 1, ix - 1, iy - 1, results, grid);
       if (d > 1 - fy)
-        d = checkCube(fx + 1, fy - 1, ix - 1, iy + 1, results);
+        d = checkCube(fx + 1, fy - 1, ix - 1, iy + 1, results, grid);
     }
     if (d > 1 - fx) {
-      d = checkCube(fx - 1, fy, ix + 1, iy, results);
+      d = checkCube(fx - 1, fy, ix + 1, iy, results, grid);
       if (d > fy)
-        d = checkCube(fx - 1, fy + 1, ix + 1, iy - 1, results);
+        d = checkCube(fx - 1, fy + 1, ix + 1, iy - 1, results, grid);
       if (d > 1 - fy)
-        d = checkCube(fx - 1, fy - 1, ix + 1, iy + 1, results);
+        d = checkCube(fx - 1, fy - 1, ix + 1, iy + 1, results, grid);
     }
 
     float t = 0;
@@ -491,20 +440,51 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
     return t;
   }
 
+  /**
+   * Evaluate the turbulence at a point, as {@link #turbulence2(float, float, float)} does, using the given array
+   * for the nearest feature points.
+   */
+  public float turbulence2(float x, float y, float freq, Point[] results) {
+    float t = 0.0f;
+
+    for (float f = 1.0f; f <= freq; f *= 2)
+      t += evaluate(f * x, f * y, results) / f;
+    return t;
+  }
+
   public int getPixel(int x, int y, int[] inPixels, int width, int height) {
+    return getPixel(x, y, inPixels, width, height, results);
+  }
+
+  /**
+   * Get the filtered value of a pixel. When filtering in parallel this is called from several threads at once, so
+   * subclasses should override this rather than {@link #getPixel(int, int, int[], int, int)}, and use the given
+   * results rather than {@link #results}. A subclass which does override that method has it called instead, one
+   * pixel at a time.
+   *
+   * @param x        the x coordinate of the pixel
+   * @param y        the y coordinate of the pixel
+   * @param inPixels the input pixels
+   * @param width    the width of the image
+   * @param height   the height of the image
+   * @param results  the array for the nearest feature points, one per thread
+   * @return the pixel
+   */
+  protected int getPixel(int x, int y, int[] inPixels, int width, int height, Point[] results) {
     float nx = m00 * x + m01 * y;
     float ny = m10 * x + m11 * y;
     nx /= scale;
     ny /= scale * stretch;
     nx += 1000;
     ny += 1000;  // Reduce artifacts around 0,0
-    float f = turbulence == 1.0f ? evaluate(nx, ny) : turbulence2(nx, ny, turbulence);
+    float f = turbulence == 1.0f ? evaluate(nx, ny, results) : turbulence2(nx, ny, turbulence, results);
     // Normalize to 0..1
 //		f = (f-min)/(max-min);
     f *= 2;
     f *= amount;
     int a = 0xff000000;
     int v;
+    Colormap colormap = lookupColormap != null ? lookupColormap : this.colormap;
     if (colormap != null) {
       v = colormap.getColor(f);
       if (useColor) {
@@ -530,22 +510,69 @@ public class CellularFilter extends WholeImageFilter implements Function2D, Clon
 //		min = minmax[0];
 //		max = minmax[1];
 
-    int index = 0;
+    lookupColormap = LookupColormap.compile(colormap);
+    grid = getGrid(width, height);
     int[] outPixels = new int[width * height];
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        outPixels[index++] = getPixel(x, y, inPixels, width, height);
+    boolean overridden = overridesGetPixel();
+    if (parallel && !overridden) {
+      RowBands.process(forkJoinPool, width, height, (y0, y1) -> {
+        Point[] bandResults = createResults();
+        for (int y = y0; y < y1; y++) {
+          int index = y * width;
+          for (int x = 0; x < width; x++)
+            outPixels[index++] = getPixel(x, y, inPixels, width, height, bandResults);
+        }
+      });
+    } else {
+      int index = 0;
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          if (overridden)
+            outPixels[index++] = getPixel(x, y, inPixels, width, height);
+          else
+            outPixels[index++] = getPixel(x, y, inPixels, width, height, results);
+        }
       }
     }
     return outPixels;
   }
 
+  /**
+   * Check whether a subclass overrides the five argument getPixel. Such an override may use the shared results, so
+   * it is called one pixel at a time rather than in parallel.
+   */
+  private boolean overridesGetPixel() {
+    try {
+      return getClass().getMethod("getPixel", int.class, int.class, int[].class, int.class, int.class).getDeclaringClass() != CellularFilter.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Get the feature points for all the cells an image touches, from the corners of the image in texture space.
+   */
+  private CellularGrid getGrid(int width, int height) {
+    float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < 4; i++) {
+      int x = (i & 1) == 0 ? 0 : width;
+      int y = (i & 2) == 0 ? 0 : height;
+      float nx = (m00 * x + m01 * y) / scale + 1000;
+      float ny = (m10 * x + m11 * y) / (scale * stretch) + 1000;
+      minX = Math.min(minX, nx);
+      minY = Math.min(minY, ny);
+      maxX = Math.max(maxX, nx);
+      maxY = Math.max(maxY, ny);
+    }
+    // The search looks at the neighbouring cells too
+    return CellularGrid.getGrid(gridType, randomness, (int) minX - 1, (int) minY - 1, (int) maxX + 1, (int) maxY + 1);
+  }
+
   public Object clone() {
     CellularFilter f = (CellularFilter) super.clone();
     f.coefficients = (float[]) coefficients.clone();
-    f.results = (Point[]) results.clone();
-    f.random = new Random();
+    f.results = f.createResults();
 //		if (colormap != null)
 //			f.colormap = (Colormap)colormap.clone();
     return f;
@@ -0,0 +1,353 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import com.jhlabs.math.Noise;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The feature points of a cellular texture over a rectangle of grid cells. The points in a cell depend only on the
+ * cell's coordinates, the grid type and the randomness, so they can be generated once and shared by every pixel,
+ * thread and filter which looks at that part of the grid. Grids are immutable once built.
+ * <p>
+ * Grids are memoized by {@link #getGrid}, so that CellularFilter and its subclasses, and successive frames of an
+ * animated texture, reuse the same geometry rather than generating it again. The cache holds a few grids and at most
+ * CACHE_BYTES of them, apart from the most recently used grid, which is always kept.
+ */
+public class CellularGrid {
+
+  /**
+   * The most points any one cell can have.
+   */
+  public final static int MAX_POINTS = 9;
+
+  /**
+   * The number of floats stored for each point: x and y within the cell, and the distance weight.
+   */
+  public final static int POINT_SIZE = 3;
+
+  /**
+   * The largest number of cells a grid will cover. Beyond this, points are cheaper to generate as they are needed.
+   */
+  public final static int MAX_CELLS = 1 << 20;
+
+  /**
+   * The most memory the cached grids may use, in bytes, not counting the most recently used grid.
+   */
+  public final static long CACHE_BYTES = 32L << 20;
+
+  private final static int CACHE_SIZE = 8;
+  private final static List<CellularGrid> cache = new ArrayList<CellularGrid>();
+  private static long cacheBytes;
+
+  // The Poisson distributed number of points in a random cell, indexed by 13 random bits
+  private final static byte[] probabilities = new byte[8192];
+
+  static {
+    float factorial = 1;
+    float total = 0;
+    float mean = 2.5f;
+    for (int i = 0; i < 10; i++) {
+      if (i > 1)
+        factorial *= i;
+      float probability = (float) Math.pow(mean, i) * (float) Math.exp(-mean) / factorial;
+      int start = (int) (total * 8192);
+      total += probability;
+      int end = (int) (total * 8192);
+      for (int j = start; j < end; j++)
+        probabilities[j] = (byte) i;
+    }
+  }
+
+  private final int gridType;
+  private final float randomness;
+  private final int x0, y0;
+  private final int columns, rows;
+  // The points of cell i are at starts[i] to starts[i+1] in points
+  private final int[] starts;
+  private final float[] points;
+
+  /**
+   * Construct a CellularGrid covering a rectangle of cells.
+   *
+   * @param gridType   the grid type, as in CellularFilter
+   * @param randomness the randomness, as in CellularFilter
+   * @param x0         the first column of cells, inclusive
+   * @param y0         the first row of cells, inclusive
+   * @param x1         the last column of cells, inclusive
+   * @param y1         the last row of cells, inclusive
+   */
+  public CellularGrid(int gridType, float randomness, int x0, int y0, int x1, int y1) {
+    this.gridType = gridType;
+    this.randomness = randomness;
+    this.x0 = x0;
+    this.y0 = y0;
+    columns = x1 - x0 + 1;
+    rows = y1 - y0 + 1;
+    if (columns <= 0 || rows <= 0 || (long) columns * rows > MAX_CELLS)
+      throw new IllegalArgumentException("Grid must have between 1 and " + MAX_CELLS + " cells");
+
+    starts = new int[columns * rows + 1];
+    float[] cell = new float[MAX_POINTS * POINT_SIZE];
+    float[] p = new float[columns * rows * POINT_SIZE * (gridType == CellularFilter.RANDOM ? 3 : 2)];
+    int count = 0;
+    int index = 0;
+    for (int y = 0; y < rows; y++) {
+      for (int x = 0; x < columns; x++) {
+        int n = generate(gridType, randomness, x0 + x, y0 + y, cell, 0);
+        if (count + n > p.length) {
+          float[] q = new float[Math.max(p.length * 2, count + n)];
+          System.arraycopy(p, 0, q, 0, count);
+          p = q;
+        }
+        System.arraycopy(cell, 0, p, count, n);
+        count += n;
+        starts[++index] = count;
+      }
+    }
+    if (count < p.length) {
+      float[] q = new float[count];
+      System.arraycopy(p, 0, q, 0, count);
+      p = q;
+    }
+    points = p;
+  }
+
+  /**
+   * Get a grid covering at least the given rectangle of cells, reusing a recently built one if possible.
+   *
+   * @param gridType   the grid type, as in CellularFilter
+   * @param randomness the randomness, as in CellularFilter
+   * @param x0         the first column of cells, inclusive
+   * @param y0         the first row of cells, inclusive
+   * @param x1         the last column of cells, inclusive
+   * @param y1         the last row of cells, inclusive
+   * @return the grid, or null if the rectangle has more than MAX_CELLS cells
+   */
+  public static CellularGrid getGrid(int gridType, float randomness, int x0, int y0, int x1, int y1) {
+    if (x1 < x0 || y1 < y0 || (long) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_CELLS)
+      return null;
+    synchronized (cache) {
+      for (int i = 0; i < cache.size(); i++) {
+        CellularGrid grid = cache.get(i);
+        if (grid.matches(gridType, randomness) && grid.contains(x0, y0) && grid.contains(x1, y1)) {
+          cache.remove(i);
+          cache.add(0, grid);
+          return grid;
+        }
+      }
+    }
+    CellularGrid grid = new CellularGrid(gridType, randomness, x0, y0, x1, y1);
+    synchronized (cache) {
+      cache.add(0, grid);
+      cacheBytes += grid.getBytes();
+      while (cache.size() > 1 && (cache.size() > CACHE_SIZE || cacheBytes - grid.getBytes() > CACHE_BYTES))
+        cacheBytes -= cache.remove(cache.size() - 1).getBytes();
+    }
+    return grid;
+  }
+
+  /**
+   * Forget all the memoized grids.
+   */
+  public static void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+      cacheBytes = 0;
+    }
+  }
+
+  /**
+   * Generate the feature points of a cell. Each point is stored as POINT_SIZE floats: its x and y within the cell,
+   * and the weight its distance is scaled by.
+   *
+   * @param gridType   the grid type, as in CellularFilter
+   * @param randomness the randomness, as in CellularFilter
+   * @param cellX      the column of the cell
+   * @param cellY      the row of the cell
+   * @param points     the array to store the points in, with room for MAX_POINTS points
+   * @param offset     the index of the first point in the array
+   * @return the number of floats stored
+   */
+  public static int generate(int gridType, float randomness, int cellX, int cellY, float[] points, int offset) {
+    // The same sequence as java.util.Random, without needing an instance per thread
+    long seed = ((571 * cellX + 23 * cellY) ^ 0x5DEECE66DL) & ((1L << 48) - 1);
+    int numPoints;
+    switch (gridType) {
+      case CellularFilter.RANDOM:
+      default:
+        seed = nextSeed(seed);
+        numPoints = probabilities[(int) (seed >>> 16) & 0x1fff];
+        break;
+      case CellularFilter.SQUARE:
+      case CellularFilter.HEXAGONAL:
+        numPoints = 1;
+        break;
+      case CellularFilter.OCTAGONAL:
+      case CellularFilter.TRIANGULAR:
+        numPoints = 2;
+        break;
+    }
+    int index = offset;
+    for (int i = 0; i < numPoints; i++) {
+      float px = 0, py = 0;
+      float weight = 1.0f;
+      switch (gridType) {
+        case CellularFilter.RANDOM:
+          seed = nextSeed(seed);
+          px = nextFloat(seed);
+          seed = nextSeed(seed);
+          py = nextFloat(seed);
+          break;
+        case CellularFilter.SQUARE:
+          px = py = 0.5f;
+          if (randomness != 0) {
+            seed = nextSeed(seed);
+            px += randomness * (nextFloat(seed) - 0.5);
+            seed = nextSeed(seed);
+            py += randomness * (nextFloat(seed) - 0.5);
+          }
+          break;
+        case CellularFilter.HEXAGONAL:
+          if ((cellX & 1) == 0) {
+            px = 0.75f;
+            py = 0;
+          } else {
+            px = 0.75f;
+            py = 0.5f;
+          }
+          if (randomness != 0) {
+            px += randomness * Noise.noise2(271 * (cellX + px), 271 * (cellY + py));
+            py += randomness * Noise.noise2(271 * (cellX + px) + 89, 271 * (cellY + py) + 137);
+          }
+          break;
+        case CellularFilter.OCTAGONAL:
+          switch (i) {
+            case 0:
+              px = 0.207f;
+              py = 0.207f;
+              break;
+            case 1:
+              px = 0.707f;
+              py = 0.707f;
+              weight = 1.6f;
+              break;
+          }
+          if (randomness != 0) {
+            px += randomness * Noise.noise2(271 * (cellX + px), 271 * (cellY + py));
+            py += randomness * Noise.noise2(271 * (cellX + px) + 89, 271 * (cellY + py) + 137);
+          }
+          break;
+        case CellularFilter.TRIANGULAR:
+          if ((cellY & 1) == 0) {
+            if (i == 0) {
+              px = 0.25f;
+              py = 0.35f;
+            } else {
+              px = 0.75f;
+              py = 0.65f;
+            }
+          } else {
+            if (i == 0) {
+              px = 0.75f;
+              py = 0.35f;
+            } else {
+              px = 0.25f;
+              py = 0.65f;
+            }
+          }
+          if (randomness != 0) {
+            px += randomness * Noise.noise2(271 * (cellX + px), 271 * (cellY + py));
+            py += randomness * Noise.noise2(271 * (cellX + px) + 89, 271 * (cellY + py) + 137);
+          }
+          break;
+      }
+      points[index++] = px;
+      points[index++] = py;
+      points[index++] = weight;
+    }
+    return index - offset;
+  }
+
+  private static long nextSeed(long seed) {
+    return (seed * 0x5DEECE66DL + 0xBL) & ((1L << 48) - 1);
+  }
+
+  private static float nextFloat(long seed) {
+    return (int) (seed >>> 24) / ((float) (1 << 24));
+  }
+
+  /**
+   * Get the memory used by the grid's arrays, in bytes.
+   */
+  public long getBytes() {
+    return 4L * (starts.length + points.length);
+  }
+
+  public int getGridType() {
+    return gridType;
+  }
+
+  public float getRandomness() {
+    return randomness;
+  }
+
+  /**
+   * Whether this grid was built for the given grid type and randomness.
+   */
+  public boolean matches(int gridType, float randomness) {
+    return this.gridType == gridType && Float.compare(this.randomness, randomness) == 0;
+  }
+
+  /**
+   * Whether this grid covers a cell.
+   */
+  public boolean contains(int cellX, int cellY) {
+    return cellX >= x0 && cellY >= y0 && cellX - x0 < columns && cellY - y0 < rows;
+  }
+
+  /**
+   * Get the index of a cell.
+   *
+   * @return the index, or -1 if the cell isn't covered by this grid
+   */
+  public int getCell(int cellX, int cellY) {
+    int x = cellX - x0;
+    int y = cellY - y0;
+    if (x < 0 || y < 0 || x >= columns || y >= rows)
+      return -1;
+    return y * columns + x;
+  }
+
+  /**
+   * Get the index in the points array of the first point of a cell. The cell's points end where those of the next
+   * cell start.
+   */
+  public int getStart(int cell) {
+    return starts[cell];
+  }
+
+  /**
+   * Get the points of all the cells, stored as for {@link #generate}. The array must not be modified.
+   */
+  public float[] getPoints() {
+    return points;
+  }
+
+}
@@ -25,6 +25,7 @@ public class ChannelMixFilter extends PointFilter {
   private int intoR, intoG, intoB;
 
   public ChannelMixFilter() {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
   }
 
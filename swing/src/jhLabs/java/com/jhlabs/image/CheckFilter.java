@@ -33,6 +33,7 @@ public class CheckFilter extends PointFilter {
   private float m11 = 1.0f;
 
   public CheckFilter() {
+    canFilterInParallel = true;
   }
 
   /**
@@ -41,6 +41,7 @@ public class CircleFilter extends TransformFilter {
    */
   public CircleFilter() {
     setEdgeAction(ZERO);
+    canFilterInParallel = true;
   }
 
   /**
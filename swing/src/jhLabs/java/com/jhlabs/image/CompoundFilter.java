@@ -21,6 +21,9 @@ import java.awt.image.BufferedImageOp;
 
 /**
  * A BufferedImageOp which combines two other BufferedImageOps, one after the other.
+ * For longer chains, FilterPipeline avoids building an intermediate image after each filter.
+ *
+ * @see FilterPipeline
  */
 public class CompoundFilter extends AbstractBufferedImageOp {
   private BufferedImageOp filter1;
@@ -0,0 +1,141 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A filter which combines a sequence of TransferFilters into a single set of lookup tables, so that the
+ * whole sequence costs one table lookup per channel. LookupFilters and Colormaps can also be part of the
+ * sequence: they map the pixel brightness to a color, and are combined into a 256 entry color table
+ * indexed by the brightness, which any following transfer filters are folded into.
+ * <p>
+ * The tables are rebuilt on each call to filter, so changes to the parameters of the combined filters
+ * are picked up.
+ */
+public class CompoundTransferFilter extends TransferFilter {
+
+  private List<Object> stages = new ArrayList<Object>();
+  private int[] colorTable;
+
+  /**
+   * Construct an empty CompoundTransferFilter.
+   */
+  public CompoundTransferFilter() {
+  }
+
+  /**
+   * Construct a CompoundTransferFilter.
+   *
+   * @param filters the filters to combine, in order. These must be TransferFilters or LookupFilters.
+   */
+  public CompoundTransferFilter(PointFilter... filters) {
+    for (PointFilter filter : filters)
+      addFilter(filter);
+  }
+
+  /**
+   * Add a filter to the end of the sequence.
+   *
+   * @param filter a TransferFilter or LookupFilter
+   * @throws IllegalArgumentException if the filter can't be combined
+   */
+  public void addFilter(PointFilter filter) {
+    if (!(filter instanceof TransferFilter) && !(filter instanceof LookupFilter))
+      throw new IllegalArgumentException("Only TransferFilters and LookupFilters can be combined");
+    if (filter instanceof CompoundTransferFilter)
+      stages.addAll(((CompoundTransferFilter) filter).stages);
+    else
+      stages.add(filter);
+    initialized = false;
+  }
+
+  /**
+   * Add a colormap lookup to the end of the sequence. This does the same as a LookupFilter with this colormap.
+   *
+   * @param colormap the colormap
+   */
+  public void addColormap(Colormap colormap) {
+    stages.add(colormap);
+    initialized = false;
+  }
+
+  public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+    initialized = false;
+    return super.filter(src, dst);
+  }
+
+  public int filterRGB(int x, int y, int rgb) {
+    if (colorTable == null)
+      return super.filterRGB(x, y, rgb);
+    int r = rTable[(rgb >> 16) & 0xff];
+    int g = gTable[(rgb >> 8) & 0xff];
+    int b = bTable[rgb & 0xff];
+    return colorTable[(r + g + b) / 3];
+  }
+
+  protected void initialize() {
+    initialized = true;
+    int[] r = new int[256];
+    int[] g = new int[256];
+    int[] b = new int[256];
+    for (int i = 0; i < 256; i++)
+      r[i] = g[i] = b[i] = i;
+    int[] color = null;
+
+    for (Object stage : stages) {
+      if (stage instanceof TransferFilter) {
+        int[] lut = ((TransferFilter) stage).getLUT();
+        if (color == null) {
+          for (int i = 0; i < 256; i++) {
+            r[i] = (lut[r[i]] >> 16) & 0xff;
+            g[i] = (lut[g[i]] >> 8) & 0xff;
+            b[i] = lut[b[i]] & 0xff;
+          }
+        } else {
+          for (int i = 0; i < 256; i++) {
+            int rgb = color[i];
+            color[i] = (rgb & 0xff000000) | (lut[(rgb >> 16) & 0xff] & 0xff0000) | (lut[(rgb >> 8) & 0xff] & 0xff00) | (lut[rgb & 0xff] & 0xff);
+          }
+        }
+      } else {
+        Colormap colormap = stage instanceof LookupFilter ? ((LookupFilter) stage).getColormap() : (Colormap) stage;
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+          int v = i;
+          if (color != null) {
+            int rgb = color[i];
+            v = (((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3;
+          }
+          table[i] = colormap.getColor(v / 255.0f);
+        }
+        color = table;
+      }
+    }
+
+    rTable = r;
+    gTable = g;
+    bTable = b;
+    colorTable = color;
+  }
+
+  public String toString() {
+    return "Colors/Compound Transfer...";
+  }
+}
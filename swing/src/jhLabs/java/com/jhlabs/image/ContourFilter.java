@@ -80,7 +80,7 @@ public class ContourFilter extends WholeImageFilter {
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
     int index = 0;
     short[][] r = new short[3][width];
-    int[] outPixels = new int[width * height];
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
 
     short[] table = new short[256];
     int offsetl = (int) (offset * 256 / levels);
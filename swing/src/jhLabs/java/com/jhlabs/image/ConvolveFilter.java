@@ -25,6 +25,11 @@ import java.awt.image.Kernel;
 
 /**
  * A filter which applies a convolution kernel to an image.
+ * When the Vector API is available, kernels of odd size with clamped (or, for 2D kernels, zero) edges
+ * are applied with SIMD code which gives the same results as the scalar code.
+ * <p>
+ * A region of the image can be filtered on its own, at the cost of filtering it and a border the size of the
+ * kernel. With edges other than clamped, regions whose border would cross the image edge filter the whole image.
  *
  * @author Jerry Huxtable
  */
@@ -188,20 +193,81 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
     if (dst == null)
       dst = createCompatibleDestImage(src, null);
 
-    int[] inPixels = new int[width * height];
-    int[] outPixels = new int[width * height];
-    getRGB(src, 0, 0, width, height, inPixels);
+    Rectangle target = getTargetRegion(width, height);
+    if (target.isEmpty())
+      return dst;
+    Rectangle block = getSourceRegion(target, width, height);
+
+    int[] inPixels = new int[block.width * block.height];
+    int[] outPixels = new int[block.width * block.height];
+    getRGB(src, block.x, block.y, block.width, block.height, inPixels);
 
     if (premultiplyAlpha)
       ImageMath.premultiply(inPixels, 0, inPixels.length);
-    convolve(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
+    convolve(kernel, inPixels, outPixels, block.width, block.height, alpha, edgeAction);
+    outPixels = crop(outPixels, block, target);
     if (premultiplyAlpha)
-      ImageMath.unpremultiply(outPixels, 0, outPixels.length);
+      ImageMath.unpremultiply(outPixels, 0, target.width * target.height);
 
-    setRGB(dst, 0, 0, width, height, outPixels);
+    setRGB(dst, target.x, target.y, target.width, target.height, outPixels);
     return dst;
   }
 
+  public Rectangle getSourceRegion(Rectangle region, BufferedImage src) {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    return getSourceRegion(region.intersection(new Rectangle(0, 0, width, height)), width, height);
+  }
+
+  public Rectangle getDirtyRegion(Rectangle region, BufferedImage src) {
+    // The kernel reaches as far each way, so a change spreads as far as the pixels a region depends on
+    return getSourceRegion(region, src);
+  }
+
+  /**
+   * Get the part of the destination to filter, which is the current region clipped to the image, or the whole
+   * image if there is no region.
+   */
+  Rectangle getTargetRegion(int width, int height) {
+    Rectangle bounds = new Rectangle(0, 0, width, height);
+    return region != null ? region.intersection(bounds) : bounds;
+  }
+
+  /**
+   * Get the block of source pixels which a region of the destination depends on.
+   *
+   * @param region the region of the destination, inside the image
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @return the block of the source
+   */
+  protected Rectangle getSourceRegion(Rectangle region, int width, int height) {
+    Rectangle bounds = new Rectangle(0, 0, width, height);
+    Rectangle r = new Rectangle(region);
+    r.grow(kernel.getWidth() / 2, kernel.getHeight() / 2);
+    // Only clamped edges look the same at the edge of a block as at the edge of the image
+    if (edgeAction != CLAMP_EDGES && !bounds.contains(r))
+      return bounds;
+    return r.intersection(bounds);
+  }
+
+  /**
+   * Cut a region out of a block of pixels which contains it.
+   *
+   * @param pixels the pixels of the block
+   * @param block  the block
+   * @param region the region
+   * @return the pixels of the region, which is the same array if the region is the whole block
+   */
+  static int[] crop(int[] pixels, Rectangle block, Rectangle region) {
+    if (block.equals(region))
+      return pixels;
+    int[] cropped = new int[region.width * region.height];
+    for (int y = 0; y < region.height; y++)
+      System.arraycopy(pixels, (region.y - block.y + y) * block.width + region.x - block.x, cropped, y * region.width, region.width);
+    return cropped;
+  }
+
   public BufferedImage createCompatibleDestImage(BufferedImage src, ColorModel dstCM) {
     if (dstCM == null)
       dstCM = src.getColorModel();
@@ -269,6 +335,10 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
    * @param edgeAction what to do at the edges
    */
   public static void convolveHV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, int edgeAction) {
+    if ((edgeAction == CLAMP_EDGES || edgeAction == ZERO_EDGES) && (kernel.getWidth() & 1) == 1 && (kernel.getHeight() & 1) == 1 && VectorConvolve.isAvailable()) {
+      VectorConvolve.convolveHV(kernel, inPixels, outPixels, width, height, alpha, edgeAction == CLAMP_EDGES);
+      return;
+    }
     int index = 0;
     float[] matrix = kernel.getKernelData(null);
     int rows = kernel.getHeight();
@@ -334,6 +404,10 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
    * @param edgeAction what to do at the edges
    */
   public static void convolveH(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, int edgeAction) {
+    if (edgeAction == CLAMP_EDGES && (kernel.getWidth() & 1) == 1 && VectorConvolve.isAvailable()) {
+      VectorConvolve.convolveH(kernel, inPixels, outPixels, width, height, alpha);
+      return;
+    }
     int index = 0;
     float[] matrix = kernel.getKernelData(null);
     int cols = kernel.getWidth();
@@ -388,6 +462,10 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
    * @param edgeAction what to do at the edges
    */
   public static void convolveV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, int edgeAction) {
+    if (edgeAction == CLAMP_EDGES && (kernel.getHeight() & 1) == 1 && VectorConvolve.isAvailable()) {
+      VectorConvolve.convolveV(kernel, inPixels, outPixels, width, height, alpha);
+      return;
+    }
     int index = 0;
     float[] matrix = kernel.getKernelData(null);
     int rows = kernel.getHeight();
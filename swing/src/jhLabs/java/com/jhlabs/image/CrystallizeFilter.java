@@ -54,14 +54,14 @@ public class CrystallizeFilter extends CellularFilter {
     return edgeColor;
   }
 
-  public int getPixel(int x, int y, int[] inPixels, int width, int height) {
+  protected int getPixel(int x, int y, int[] inPixels, int width, int height, Point[] results) {
     float nx = m00 * x + m01 * y;
     float ny = m10 * x + m11 * y;
     nx /= scale;
     ny /= scale * stretch;
     nx += 1000;
     ny += 1000;  // Reduce artifacts around 0,0
-    float f = evaluate(nx, ny);
+    float f = evaluate(nx, ny, results);
 
     float f1 = results[0].distance;
     float f2 = results[1].distance;
@@ -43,7 +43,7 @@ public class DespeckleFilter extends WholeImageFilter {
     short[][] r = new short[3][width];
     short[][] g = new short[3][width];
     short[][] b = new short[3][width];
-    int[] outPixels = new int[width * height];
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
 
     for (int x = 0; x < width; x++) {
       int rgb = inPixels[x];
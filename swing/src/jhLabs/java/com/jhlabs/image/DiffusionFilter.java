@@ -20,6 +20,13 @@ import java.awt.*;
 
 /**
  * A filter which uses Floyd-Steinberg error diffusion dithering to halftone an image.
+ * <p>
+ * When parallel execution is enabled with {@link #setParallel}, the result is the same as dithering the rows in
+ * order. By default each pixel's error is spread along its own row, so bands of rows are dithered concurrently. When
+ * {@link #setDiffuseDownwards} spreads it to the row below and the scan isn't serpentine, rows are dithered as a
+ * wavefront instead, each row following a matrix width behind the one above so that the error it receives has
+ * already arrived. A serpentine scan starts each row where the row above finishes, so it can't be overlapped and is
+ * then always done in order.
  */
 public class DiffusionFilter extends WholeImageFilter {
 
@@ -33,6 +40,7 @@ public class DiffusionFilter extends WholeImageFilter {
   private int sum = 3 + 5 + 7 + 1;
   private boolean serpentine = true;
   private boolean colorDither = true;
+  private boolean diffuseDownwards;
   private int levels = 6;
 
   /**
@@ -62,6 +70,28 @@ public class DiffusionFilter extends WholeImageFilter {
     return serpentine;
   }
 
+  /**
+   * Set whether the error is spread to the row below, as in Floyd and Steinberg's algorithm. By default every row
+   * of the matrix is spread along the pixel's own row, as this filter always has, which is faster in parallel as
+   * the rows don't depend on each other.
+   *
+   * @param diffuseDownwards true to spread the error to the row below
+   * @see #getDiffuseDownwards
+   */
+  public void setDiffuseDownwards(boolean diffuseDownwards) {
+    this.diffuseDownwards = diffuseDownwards;
+  }
+
+  /**
+   * Get whether the error is spread to the row below.
+   *
+   * @return true if the error is spread to the row below
+   * @see #setDiffuseDownwards
+   */
+  public boolean getDiffuseDownwards() {
+    return diffuseDownwards;
+  }
+
   /**
    * Set whether to use a color dither.
    *
@@ -128,7 +158,6 @@ public class DiffusionFilter extends WholeImageFilter {
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
     int[] outPixels = new int[width * height];
 
-    int index = 0;
     int[] map = new int[levels];
     for (int i = 0; i < levels; i++) {
       int v = 255 * i / (levels - 1);
@@ -138,67 +167,106 @@ public class DiffusionFilter extends WholeImageFilter {
     for (int i = 0; i < 256; i++)
       div[i] = levels * i / 256;
 
-    for (int y = 0; y < height; y++) {
-      boolean reverse = serpentine && (y & 1) == 1;
-      int direction;
-      if (reverse) {
-        index = y * width + width - 1;
-        direction = -1;
-      } else {
-        index = y * width;
-        direction = 1;
-      }
-      for (int x = 0; x < width; x++) {
-        int rgb1 = inPixels[index];
+    if (!diffuseDownwards) {
+      // The error only ever moves along the row, so rows can be dithered independently
+      RowBands.Task task = (y0, y1) -> {
+        for (int y = y0; y < y1; y++)
+          diffuse(inPixels, outPixels, width, height, y, map, div, null);
+      };
+      if (parallel)
+        RowBands.process(forkJoinPool, width, height, task);
+      else
+        task.run(0, height);
+    } else if (parallel && !serpentine)
+      RowBands.processWavefront(forkJoinPool, width, height, 3, (y, wavefront) -> diffuse(inPixels, outPixels, width, height, y, map, div, wavefront));
+    else {
+      for (int y = 0; y < height; y++)
+        diffuse(inPixels, outPixels, width, height, y, map, div, null);
+    }
 
-        int r1 = (rgb1 >> 16) & 0xff;
-        int g1 = (rgb1 >> 8) & 0xff;
-        int b1 = rgb1 & 0xff;
+    return outPixels;
+  }
 
-        if (!colorDither)
-          r1 = g1 = b1 = (r1 + g1 + b1) / 3;
+  /**
+   * Dither a row, spreading the error to the rest of the row, and the row below if diffuseDownwards is set.
+   *
+   * @param wavefront the wavefront the row is part of, or null if the rows are being done in order
+   */
+  private void diffuse(int[] inPixels, int[] outPixels, int width, int height, int y, int[] map, int[] div, RowBands.Wavefront wavefront) {
+    boolean reverse = serpentine && (y & 1) == 1;
+    int index;
+    int direction;
+    if (reverse) {
+      index = y * width + width - 1;
+      direction = -1;
+    } else {
+      index = y * width;
+      direction = 1;
+    }
+    int ready = wavefront != null ? 0 : width;
+    for (int x = 0; x < width; x++) {
+      if (x >= ready)
+        ready = wavefront.await(y, x);
+      int rgb1 = inPixels[index];
 
-        int r2 = map[div[r1]];
-        int g2 = map[div[g1]];
-        int b2 = map[div[b1]];
+      int r1 = (rgb1 >> 16) & 0xff;
+      int g1 = (rgb1 >> 8) & 0xff;
+      int b1 = rgb1 & 0xff;
 
-        outPixels[index] = (rgb1 & 0xff000000) | (r2 << 16) | (g2 << 8) | b2;
+      if (!colorDither)
+        r1 = g1 = b1 = (r1 + g1 + b1) / 3;
 
-        int er = r1 - r2;
-        int eg = g1 - g2;
-        int eb = b1 - b2;
+      int r2 = map[div[r1]];
+      int g2 = map[div[g1]];
+      int b2 = map[div[b1]];
 
-        for (int i = -1; i <= 1; i++) {
-          int iy = i + y;
-          if (0 <= iy && iy < height) {
-            for (int j = -1; j <= 1; j++) {
-              int jx = j + x;
-              if (0 <= jx && jx < width) {
-                int w;
+      outPixels[index] = (rgb1 & 0xff000000) | (r2 << 16) | (g2 << 8) | b2;
+
+      int er = r1 - r2;
+      int eg = g1 - g2;
+      int eb = b1 - b2;
+
+      // Spread downwards, error for the row above would land on pixels which have already been output, so it is dropped
+      for (int i = diffuseDownwards ? 0 : -1; i <= 1; i++) {
+        int iy = i + y;
+        if (0 <= iy && iy < height) {
+          for (int j = -1; j <= 1; j++) {
+            int jx = j + x;
+            if (0 <= jx && jx < width) {
+              int w;
+              int k;
+              if (diffuseDownwards) {
+                // The matrix is laid out in the direction of the scan, so it's mirrored on reversed rows
+                w = matrix[(i + 1) * 3 + j + 1];
+                k = index + i * width + j * direction;
+              } else {
+                // The original kernel, which spreads every row of the matrix along the pixel's own row
                 if (reverse)
                   w = matrix[(i + 1) * 3 - j + 1];
                 else
                   w = matrix[(i + 1) * 3 + j + 1];
-                if (w != 0) {
-                  int k = reverse ? index - j : index + j;
-                  rgb1 = inPixels[k];
-                  r1 = (rgb1 >> 16) & 0xff;
-                  g1 = (rgb1 >> 8) & 0xff;
-                  b1 = rgb1 & 0xff;
-                  r1 += er * w / sum;
-                  g1 += eg * w / sum;
-                  b1 += eb * w / sum;
-                  inPixels[k] = (inPixels[k] & 0xff000000) | (PixelUtils.clamp(r1) << 16) | (PixelUtils.clamp(g1) << 8) | PixelUtils.clamp(b1);
-                }
+                k = reverse ? index - j : index + j;
+              }
+              if (w != 0) {
+                rgb1 = inPixels[k];
+                r1 = (rgb1 >> 16) & 0xff;
+                g1 = (rgb1 >> 8) & 0xff;
+                b1 = rgb1 & 0xff;
+                r1 += er * w / sum;
+                g1 += eg * w / sum;
+                b1 += eb * w / sum;
+                inPixels[k] = (inPixels[k] & 0xff000000) | (PixelUtils.clamp(r1) << 16) | (PixelUtils.clamp(g1) << 8) | PixelUtils.clamp(b1);
               }
             }
           }
         }
-        index += direction;
       }
+      index += direction;
+      if (wavefront != null && (x & 31) == 31)
+        wavefront.advance(y, x + 1);
     }
-
-    return outPixels;
+    if (wavefront != null)
+      wavefront.advance(y, width);
   }
 
   public String toString() {
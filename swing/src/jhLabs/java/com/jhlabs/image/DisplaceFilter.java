@@ -30,6 +30,7 @@ public class DisplaceFilter extends TransformFilter {
   private int dw, dh;
 
   public DisplaceFilter() {
+    canFilterInParallel = true;
   }
 
   /**
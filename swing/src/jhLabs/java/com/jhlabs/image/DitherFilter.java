@@ -16,6 +16,8 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import java.awt.image.BufferedImage;
+
 /**
  * A filter which performs ordered dithering on an image.
  */
@@ -173,6 +175,7 @@ public class DitherFilter extends PointFilter {
     matrix = ditherMagic4x4Matrix;
     levels = 6;
     colorDither = true;
+    canFilterInParallel = true;
   }
 
   /**
@@ -254,6 +257,13 @@ public class DitherFilter extends PointFilter {
     }
   }
 
+  public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+    // Set up the tables before any rows are filtered, as rows may be filtered concurrently
+    initialize();
+    initialized = true;
+    return super.filter(src, dst);
+  }
+
   public int filterRGB(int x, int y, int rgb) {
     if (!initialized) {
       initialized = true;
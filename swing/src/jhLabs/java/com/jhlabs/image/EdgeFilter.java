@@ -90,7 +90,7 @@ public class EdgeFilter extends WholeImageFilter {
 
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
     int index = 0;
-    int[] outPixels = new int[width * height];
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
 
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
@@ -20,16 +20,46 @@ import java.awt.*;
 
 /**
  * A filter to perform auto-equalization on an image.
+ * <p>
+ * By default the image's own histogram is used. A histogram which is kept up to date as the image is edited can be
+ * given with {@link #setHistogram} instead, to save counting the whole image on every call.
  */
 public class EqualizeFilter extends WholeImageFilter {
 
   private int[][] lut;
+  private Histogram histogram;
 
   public EqualizeFilter() {
   }
 
+  /**
+   * Set the histogram to equalize with.
+   *
+   * @param histogram the histogram, or null to use the histogram of the image being filtered
+   * @see #getHistogram
+   */
+  public void setHistogram(Histogram histogram) {
+    this.histogram = histogram;
+  }
+
+  /**
+   * Get the histogram to equalize with.
+   *
+   * @return the histogram, or null to use the histogram of the image being filtered
+   * @see #setHistogram
+   */
+  public Histogram getHistogram() {
+    return histogram;
+  }
+
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-    Histogram histogram = new Histogram(inPixels, width, height, 0, width);
+    Histogram histogram = this.histogram;
+    if (histogram == null) {
+      if (parallel)
+        histogram = new Histogram(inPixels, width, height, 0, width, forkJoinPool);
+      else
+        histogram = new Histogram(inPixels, width, height, 0, width);
+    }
 
     int i, j;
 
@@ -46,12 +76,18 @@ public class EqualizeFilter extends WholeImageFilter {
     } else
       lut = null;
 
-    i = 0;
-    for (int y = 0; y < height; y++)
-      for (int x = 0; x < width; x++) {
-        inPixels[i] = filterRGB(x, y, inPixels[i]);
-        i++;
-      }
+    RowBands.Task task = (y0, y1) -> {
+      int index = y0 * width;
+      for (int y = y0; y < y1; y++)
+        for (int x = 0; x < width; x++) {
+          inPixels[index] = filterRGB(x, y, inPixels[index]);
+          index++;
+        }
+    };
+    if (parallel)
+      RowBands.process(forkJoinPool, width, height, task);
+    else
+      task.run(0, height);
     lut = null;
 
     return inPixels;
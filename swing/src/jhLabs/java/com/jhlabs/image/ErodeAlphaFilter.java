@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
 
 public class ErodeAlphaFilter extends PointFilter {
@@ -31,6 +32,7 @@ public class ErodeAlphaFilter extends PointFilter {
   }
 
   public ErodeAlphaFilter(float radius, float threshold, float softness) {
+    canFilterInParallel = true;
     this.radius = radius;
     this.threshold = threshold;
     this.softness = softness;
@@ -61,10 +63,43 @@ public class ErodeAlphaFilter extends PointFilter {
   }
 
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
-    dst = new GaussianFilter((int) radius).filter(src, null);
+    int width = src.getWidth();
+    int height = src.getHeight();
+
+    if (dst == null)
+      dst = createCompatibleDestImage(src, null);
+
+    Rectangle target = new Rectangle(0, 0, width, height);
+    if (region != null)
+      target = target.intersection(region);
+    if (target.isEmpty())
+      return dst;
+
+    // The output only depends on the alpha, so blur and threshold that on its own
+    GaussianFilter blur = new GaussianFilter((int) radius);
+    Rectangle block = blur.getSourceRegion(target, width, height);
+    byte[] alpha = ImageUtils.getAlpha(src, block.x, block.y, block.width, block.height, null, 0, block.width);
+    blur.blurPlane(alpha, block.width, block.height);
+
     lowerThreshold = 255 * (threshold - softness * 0.5f);
     upperThreshold = 255 * (threshold + softness * 0.5f);
-    return super.filter(dst, dst);
+    byte[] table = new byte[256];
+    for (int i = 0; i < 256; i++)
+      table[i] = (byte) (filterRGB(0, 0, i << 24) >>> 24);
+    for (int i = 0; i < alpha.length; i++)
+      alpha[i] = table[alpha[i] & 0xff];
+
+    ImageUtils.setAlpha(dst, target.x, target.y, target.width, target.height, alpha,
+      (target.y - block.y) * block.width + target.x - block.x, block.width, 0xffffffff);
+    return dst;
+  }
+
+  public Rectangle getSourceRegion(Rectangle region, BufferedImage src) {
+    return new GaussianFilter((int) radius).getSourceRegion(region, src);
+  }
+
+  public Rectangle getDirtyRegion(Rectangle region, BufferedImage src) {
+    return new GaussianFilter((int) radius).getDirtyRegion(region, src);
   }
 
   public int filterRGB(int x, int y, int rgb) {
@@ -55,6 +55,8 @@ public class FBMFilter extends PointFilter implements Cloneable {
   private float min;
   private float max;
   private Colormap colormap = new Gradient();
+  // The colormap compiled for quick lookups, for the image being filtered
+  private Colormap lookupColormap;
   private boolean ridged;
   private FBM fBm;
   protected Random random = new Random();
@@ -214,6 +216,7 @@ public class FBMFilter extends PointFilter implements Cloneable {
    */
   public void setColormap(Colormap colormap) {
     this.colormap = colormap;
+    lookupColormap = null;
   }
 
   /**
@@ -273,12 +276,35 @@ public class FBMFilter extends PointFilter implements Cloneable {
     return super.filter(src, dst);
   }
 
+  public void setDimensions(int width, int height) {
+    lookupColormap = LookupColormap.compile(colormap);
+  }
+
   public int filterRGB(int x, int y, int rgb) {
     float nx = m00 * x + m01 * y;
     float ny = m10 * x + m11 * y;
     nx /= scale;
     ny /= scale * stretch;
     float f = fBm.evaluate(nx, ny);
+    return getColor(f, rgb);
+  }
+
+  protected void filterRow(int x0, int y, int[] pixels, int offset, int width) {
+    // Evaluate the fBm for the whole row at once
+    float[] nx = new float[width];
+    float[] ny = new float[width];
+    float[] f = new float[width];
+    for (int i = 0; i < width; i++) {
+      int x = x0 + i;
+      nx[i] = (m00 * x + m01 * y) / scale;
+      ny[i] = (m10 * x + m11 * y) / (scale * stretch);
+    }
+    fBm.evaluate(nx, ny, f, width);
+    for (int x = 0; x < width; x++)
+      pixels[offset + x] = getColor(f[x], pixels[offset + x]);
+  }
+
+  private int getColor(float f, int rgb) {
     // Normalize to 0..1
     f = (f - min) / (max - min);
     f = ImageMath.gain(f, gain);
@@ -286,6 +312,7 @@ public class FBMFilter extends PointFilter implements Cloneable {
     f *= amount;
     int a = rgb & 0xff000000;
     int v;
+    Colormap colormap = lookupColormap != null ? lookupColormap : this.colormap;
     if (colormap != null)
       v = colormap.getColor(f);
     else {
@@ -29,6 +29,10 @@ public class FadeFilter extends PointFilter {
   private float m10 = 0.0f;
   private float m11 = 1.0f;
 
+  public FadeFilter() {
+    canFilterInParallel = true;
+  }
+
   /**
    * Specifies the angle of the texture.
    *
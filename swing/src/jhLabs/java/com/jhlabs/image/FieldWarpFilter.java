@@ -53,6 +53,7 @@ public class FieldWarpFilter extends TransformFilter {
   private float width, height;
 
   public FieldWarpFilter() {
+    canFilterInParallel = true;
   }
 
   /**
@@ -37,6 +37,7 @@ public class FillFilter extends PointFilter {
    * @param color the fill color
    */
   public FillFilter(int color) {
+    canFilterInParallel = true;
     this.fillColor = color;
   }
 
@@ -0,0 +1,659 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.awt.image.Kernel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A BufferedImageOp which runs a chain of filters. Unlike nesting CompoundFilters, the image isn't copied
+ * into a full intermediate image between each filter. Consecutive PointFilters are fused so that each pixel
+ * goes through all of them in one go, and ConvolveFilters and GaussianFilters stream rows through small ring
+ * buffers holding just the rows their kernel covers. Any other filter is run as usual on a complete image,
+ * splitting the chain in two.
+ * <p>
+ * The result is the same as running the filters one after the other. Where that would store an intermediate image
+ * whose colour model can't hold every ARGB value, such as a premultiplied one, the rows are put through the same
+ * rounding between the filters.
+ * <p>
+ * The time spent in each stage of the last run can be read with {@link #getTimings}.
+ */
+public class FilterPipeline extends AbstractBufferedImageOp {
+
+  private List<BufferedImageOp> filters = new ArrayList<BufferedImageOp>();
+  private Timing[] timings = new Timing[0];
+
+  /**
+   * Construct an empty FilterPipeline.
+   */
+  public FilterPipeline() {
+  }
+
+  /**
+   * Construct a FilterPipeline.
+   *
+   * @param filters the filters to apply, in order
+   */
+  public FilterPipeline(BufferedImageOp... filters) {
+    for (BufferedImageOp filter : filters)
+      addFilter(filter);
+  }
+
+  /**
+   * Add a filter to the end of the pipeline.
+   *
+   * @param filter the filter
+   */
+  public void addFilter(BufferedImageOp filter) {
+    filters.add(filter);
+  }
+
+  /**
+   * Get the filters in the pipeline.
+   *
+   * @return the filters, in order
+   */
+  public BufferedImageOp[] getFilters() {
+    return filters.toArray(new BufferedImageOp[0]);
+  }
+
+  /**
+   * Get the time spent in each stage during the last call to filter. Fused point filters
+   * are reported as a single stage.
+   *
+   * @return the timings, in pipeline order
+   */
+  public Timing[] getTimings() {
+    return timings.clone();
+  }
+
+  public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+    if (filters.isEmpty()) {
+      if (dst == null)
+        dst = createCompatibleDestImage(src, null);
+      int width = src.getWidth();
+      int height = src.getHeight();
+      setRGB(dst, 0, 0, width, height, getRGB(src, 0, 0, width, height, null));
+      return dst;
+    }
+
+    List<Timing> runTimings = new ArrayList<Timing>();
+    List<StageFactory> segment = new ArrayList<StageFactory>();
+    BufferedImage image = src;
+    int count = filters.size();
+    for (int i = 0; i < count; i++) {
+      BufferedImageOp filter = filters.get(i);
+      boolean last = i == count - 1;
+      StageFactory factory = createStageFactory(filter, segment.isEmpty() ? null : segment.get(segment.size() - 1));
+      if (factory != null) {
+        if (segment.isEmpty() || segment.get(segment.size() - 1) != factory) {
+          segment.add(factory);
+          runTimings.add(factory.timing);
+        }
+        if (last)
+          image = runSegment(image, segment, dst != null ? dst : createCompatibleDestImage(image, null));
+      } else {
+        if (!segment.isEmpty()) {
+          image = runSegment(image, segment, createCompatibleDestImage(image, null));
+          segment.clear();
+        }
+        Timing timing = new Timing(getName(filter));
+        runTimings.add(timing);
+        long start = System.nanoTime();
+        image = filter.filter(image, last ? dst : null);
+        timing.nanos.add(System.nanoTime() - start);
+      }
+    }
+    timings = runTimings.toArray(new Timing[0]);
+    return image;
+  }
+
+  /**
+   * Stream an image through a segment of the pipeline.
+   */
+  private BufferedImage runSegment(final BufferedImage src, final List<StageFactory> segment, final BufferedImage dst) {
+    final int width = src.getWidth();
+    final int height = src.getHeight();
+
+    boolean canRunInParallel = true;
+    for (StageFactory factory : segment) {
+      factory.setDimensions(width, height);
+      canRunInParallel &= factory.canRunInParallel();
+    }
+
+    final LongAdder sourceNanos = new LongAdder();
+    final ColorModel colorModel = src.getColorModel();
+    RowBands.Task band = new RowBands.Task() {
+      public void run(int y0, int y1) {
+        // Running the filters one after the other would store each result in an image like the source
+        final RowFilter store = createStore(colorModel, width);
+        Stage stage = new SourceStage(src, width, sourceNanos);
+        for (int i = 0; i < segment.size(); i++) {
+          stage = segment.get(i).createStage(stage, width, height, store);
+          if (store != null && i < segment.size() - 1)
+            stage = new StoreStage(stage, store);
+        }
+        int[] row = new int[width];
+        for (int y = y0; y < y1; y++) {
+          stage.getRow(y, row);
+          setRGB(dst, 0, y, width, 1, row);
+        }
+      }
+    };
+    if (parallel && canRunInParallel)
+      RowBands.process(forkJoinPool, width, height, band);
+    else
+      band.run(0, height);
+
+    // Each stage measured the time including the stages it pulled rows from, so subtract those
+    long upstream = sourceNanos.sum();
+    for (StageFactory factory : segment) {
+      long inclusive = factory.inclusiveNanos.sum();
+      factory.timing.nanos.add(inclusive - upstream);
+      upstream = inclusive;
+    }
+    return dst;
+  }
+
+  /**
+   * Get something which does to a row what storing it in an image with the given colour model and reading it back
+   * would do.
+   *
+   * @return the row filter, or null if the colour model holds every ARGB value
+   */
+  private static RowFilter createStore(ColorModel colorModel, final int width) {
+    BufferedImage image = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, 1), colorModel.isAlphaPremultiplied(), null);
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        return null;
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_3BYTE_BGR:
+        return new RowFilter() {
+          public void filterRow(int[] row) {
+            for (int x = 0; x < width; x++)
+              row[x] |= 0xff000000;
+          }
+        };
+      default:
+        final BufferedImage row = image;
+        return new RowFilter() {
+          public void filterRow(int[] pixels) {
+            ImageUtils.setRGB(row, 0, 0, width, 1, pixels);
+            ImageUtils.getRGB(row, 0, 0, width, 1, pixels);
+          }
+        };
+    }
+  }
+
+  /**
+   * Work out how a filter can be streamed. Returns the previous factory if the filter can be fused into it,
+   * or null if the filter needs the whole image.
+   */
+  private StageFactory createStageFactory(BufferedImageOp filter, StageFactory previous) {
+    if (filter instanceof PointFilter && overridesFilter(filter, PointFilter.class, TransferFilter.class)) {
+      PointFilter pointFilter = (PointFilter) filter;
+      if (previous instanceof PointStageFactory) {
+        ((PointStageFactory) previous).add(pointFilter);
+        return previous;
+      }
+      return new PointStageFactory(pointFilter);
+    }
+    if (filter instanceof GaussianFilter && overridesFilter(filter, GaussianFilter.class) && !((GaussianFilter) filter).isRecursive()) {
+      return new GaussianStageFactory((GaussianFilter) filter);
+    }
+    if (filter instanceof ConvolveFilter && overridesFilter(filter, ConvolveFilter.class)) {
+      ConvolveFilter convolveFilter = (ConvolveFilter) filter;
+      Kernel kernel = convolveFilter.getKernel();
+      int edgeAction = convolveFilter.getEdgeAction();
+      if (kernel.getHeight() == 1 || edgeAction == ConvolveFilter.CLAMP_EDGES
+        || (kernel.getWidth() == 1 && edgeAction == ConvolveFilter.WRAP_EDGES)
+        || (kernel.getWidth() > 1 && edgeAction == ConvolveFilter.ZERO_EDGES))
+        return new ConvolveStageFactory(convolveFilter);
+    }
+    return null;
+  }
+
+  /**
+   * Check that the filter method of a filter is the one from one of the given classes, so that we know what it does.
+   */
+  static boolean overridesFilter(BufferedImageOp filter, Class<?>... classes) {
+    try {
+      Class<?> declaringClass = filter.getClass().getMethod("filter", BufferedImage.class, BufferedImage.class).getDeclaringClass();
+      for (Class<?> c : classes) {
+        if (declaringClass == c)
+          return true;
+      }
+      return false;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static String getName(Object filter) {
+    return filter.getClass().getSimpleName();
+  }
+
+  public String toString() {
+    return "Pipeline";
+  }
+
+  /**
+   * The time spent in one stage of the pipeline.
+   */
+  public static class Timing {
+    private String name;
+    private final LongAdder nanos = new LongAdder();
+
+    Timing(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Get the name of the stage.
+     *
+     * @return the names of the filters in the stage
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the time spent in the stage. For parallel runs this is the sum over all threads.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getNanos() {
+      return nanos.sum();
+    }
+
+    public String toString() {
+      return name + ": " + (nanos.sum() / 1000) + "us";
+    }
+  }
+
+  /**
+   * Produces the rows of an image. Rows are always asked for in increasing order.
+   */
+  private static abstract class Stage {
+    abstract void getRow(int y, int[] out);
+  }
+
+  private static class SourceStage extends Stage {
+    private final BufferedImage src;
+    private final int width;
+    private final LongAdder nanos;
+
+    SourceStage(BufferedImage src, int width, LongAdder nanos) {
+      this.src = src;
+      this.width = width;
+      this.nanos = nanos;
+    }
+
+    void getRow(int y, int[] out) {
+      long start = System.nanoTime();
+      ImageUtils.getRGB(src, 0, y, width, 1, out);
+      nanos.add(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Stores each row pulled from upstream in an intermediate image and reads it back.
+   */
+  private static class StoreStage extends Stage {
+    private final Stage upstream;
+    private final RowFilter store;
+
+    StoreStage(Stage upstream, RowFilter store) {
+      this.upstream = upstream;
+      this.store = store;
+    }
+
+    void getRow(int y, int[] out) {
+      upstream.getRow(y, out);
+      store.filterRow(out);
+    }
+  }
+
+  /**
+   * Creates the stages for one step of the pipeline, one for each band of rows, and collects their timings.
+   */
+  private static abstract class StageFactory {
+    final Timing timing;
+    final LongAdder inclusiveNanos = new LongAdder();
+
+    StageFactory(String name) {
+      this.timing = new Timing(name);
+    }
+
+    void setDimensions(int width, int height) {
+    }
+
+    boolean canRunInParallel() {
+      return true;
+    }
+
+    /**
+     * Create the stage for a band of rows.
+     *
+     * @param store what storing a row in an intermediate image does to it, or null if nothing, for stages which run
+     *              several filters
+     */
+    abstract Stage createStage(Stage upstream, int width, int height, RowFilter store);
+
+    /**
+     * A stage which records the time spent producing its rows, including the time spent pulling rows from upstream.
+     */
+    abstract class TimedStage extends Stage {
+      final Stage upstream;
+
+      TimedStage(Stage upstream) {
+        this.upstream = upstream;
+      }
+
+      final void getRow(int y, int[] out) {
+        long start = System.nanoTime();
+        computeRow(y, out);
+        inclusiveNanos.add(System.nanoTime() - start);
+      }
+
+      abstract void computeRow(int y, int[] out);
+    }
+  }
+
+  /**
+   * Runs a sequence of point filters on each pixel in turn.
+   */
+  private static class PointStageFactory extends StageFactory {
+    private PointFilter[] filters;
+
+    PointStageFactory(PointFilter filter) {
+      super(FilterPipeline.getName(filter));
+      filters = new PointFilter[]{filter};
+    }
+
+    void add(PointFilter filter) {
+      PointFilter[] f = new PointFilter[filters.length + 1];
+      System.arraycopy(filters, 0, f, 0, filters.length);
+      f[filters.length] = filter;
+      filters = f;
+      timing.name = getName();
+    }
+
+    String getName() {
+      StringBuilder sb = new StringBuilder();
+      for (PointFilter filter : filters) {
+        if (sb.length() > 0)
+          sb.append('+');
+        sb.append(FilterPipeline.getName(filter));
+      }
+      return sb.toString();
+    }
+
+    void setDimensions(int width, int height) {
+      for (PointFilter filter : filters) {
+        if (filter instanceof TransferFilter) {
+          TransferFilter transferFilter = (TransferFilter) filter;
+          if (!transferFilter.initialized)
+            transferFilter.initialize();
+        }
+        filter.setDimensions(width, height);
+      }
+    }
+
+    boolean canRunInParallel() {
+      for (PointFilter filter : filters) {
+        if (!filter.canFilterInParallel)
+          return false;
+      }
+      return true;
+    }
+
+    Stage createStage(Stage upstream, final int width, int height, final RowFilter store) {
+      return new TimedStage(upstream) {
+        void computeRow(int y, int[] out) {
+          upstream.getRow(y, out);
+          PointFilter[] filters = PointStageFactory.this.filters;
+          if (store != null) {
+            for (int i = 0; i < filters.length; i++) {
+              if (i > 0)
+                store.filterRow(out);
+              PointFilter filter = filters[i];
+              for (int x = 0; x < width; x++)
+                out[x] = filter.filterRGB(x, y, out[x]);
+            }
+            return;
+          }
+          for (int x = 0; x < width; x++) {
+            int rgb = out[x];
+            for (PointFilter filter : filters)
+              rgb = filter.filterRGB(x, y, rgb);
+            out[x] = rgb;
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * Keeps the last few rows pulled from upstream, enough to cover a kernel.
+   */
+  private static class RowWindow {
+    private final Stage upstream;
+    private final int height;
+    private final int radius;
+    private final int[][] rows;
+    private int next = -1;
+
+    RowWindow(Stage upstream, int width, int height, int radius) {
+      this.upstream = upstream;
+      this.height = height;
+      this.radius = radius;
+      rows = new int[2 * radius + 1][width];
+    }
+
+    /**
+     * Make sure all the rows within the radius of row y have been pulled, passing each new row through the given filter.
+     */
+    void advanceTo(int y, RowFilter filter) {
+      if (next < 0)
+        next = Math.max(0, y - radius);
+      int last = Math.min(height - 1, y + radius);
+      while (next <= last) {
+        int[] row = rows[next % rows.length];
+        upstream.getRow(next, row);
+        filter.filterRow(row);
+        next++;
+      }
+    }
+
+    /**
+     * Get a row, which must be within the radius of the last row advanced to.
+     */
+    int[] getRow(int y) {
+      return rows[y % rows.length];
+    }
+  }
+
+  /**
+   * Something done to each row as it enters a window.
+   */
+  private interface RowFilter {
+    void filterRow(int[] row);
+  }
+
+  /**
+   * Streams rows through the two passes of a GaussianFilter. This gives the same result as GaussianFilter itself.
+   */
+  private static class GaussianStageFactory extends StageFactory {
+    private final GaussianFilter filter;
+
+    GaussianStageFactory(GaussianFilter filter) {
+      super(getName(filter));
+      this.filter = filter;
+    }
+
+    Stage createStage(Stage upstream, final int width, final int height, RowFilter store) {
+      final Kernel kernel = filter.kernel;
+      final float[] matrix = kernel.getKernelData(null);
+      final int cols2 = kernel.getWidth() / 2;
+      final boolean alpha = filter.getUseAlpha();
+      final boolean premultiply = alpha && filter.getPremultiplyAlpha();
+      if (filter.getRadius() <= 0) {
+        return new TimedStage(upstream) {
+          void computeRow(int y, int[] out) {
+            upstream.getRow(y, out);
+          }
+        };
+      }
+      final int[] tmp = new int[width];
+      final RowWindow window = new RowWindow(upstream, width, height, cols2);
+      final RowFilter horizontal = new RowFilter() {
+        public void filterRow(int[] row) {
+          GaussianFilter.convolveAndTranspose(kernel, row, tmp, width, 1, alpha, premultiply, false, ConvolveFilter.CLAMP_EDGES);
+          System.arraycopy(tmp, 0, row, 0, width);
+        }
+      };
+      return new TimedStage(upstream) {
+        void computeRow(int y, int[] out) {
+          window.advanceTo(y, horizontal);
+          for (int x = 0; x < width; x++) {
+            float r = 0, g = 0, b = 0, a = 0;
+            for (int row = -cols2; row <= cols2; row++) {
+              float f = matrix[cols2 + row];
+              if (f != 0) {
+                int iy = y + row;
+                if (iy < 0)
+                  iy = 0;
+                else if (iy >= height)
+                  iy = height - 1;
+                int rgb = window.getRow(iy)[x];
+                a += f * ((rgb >> 24) & 0xff);
+                r += f * ((rgb >> 16) & 0xff);
+                g += f * ((rgb >> 8) & 0xff);
+                b += f * (rgb & 0xff);
+              }
+            }
+            if (premultiply && a != 0 && a != 255) {
+              float f = 255.0f / a;
+              r *= f;
+              g *= f;
+              b *= f;
+            }
+            int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
+            int ir = PixelUtils.clamp((int) (r + 0.5));
+            int ig = PixelUtils.clamp((int) (g + 0.5));
+            int ib = PixelUtils.clamp((int) (b + 0.5));
+            out[x] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * Streams rows through a ConvolveFilter. This gives the same result as ConvolveFilter itself.
+   */
+  private static class ConvolveStageFactory extends StageFactory {
+    private final ConvolveFilter filter;
+
+    ConvolveStageFactory(ConvolveFilter filter) {
+      super(getName(filter));
+      this.filter = filter;
+    }
+
+    Stage createStage(Stage upstream, final int width, final int height, RowFilter store) {
+      final Kernel kernel = filter.getKernel();
+      final float[] matrix = kernel.getKernelData(null);
+      final int rows = kernel.getHeight();
+      final int cols = kernel.getWidth();
+      final int rows2 = rows / 2;
+      final int cols2 = cols / 2;
+      final boolean alpha = filter.getUseAlpha();
+      final boolean premultiply = filter.getPremultiplyAlpha();
+      final int edgeAction = filter.getEdgeAction();
+      final RowFilter premultiplier = new RowFilter() {
+        public void filterRow(int[] row) {
+          if (premultiply)
+            ImageMath.premultiply(row, 0, width);
+        }
+      };
+      if (rows == 1) {
+        final int[] tmp = new int[width];
+        return new TimedStage(upstream) {
+          void computeRow(int y, int[] out) {
+            upstream.getRow(y, tmp);
+            premultiplier.filterRow(tmp);
+            ConvolveFilter.convolveH(kernel, tmp, out, width, 1, alpha, edgeAction);
+            if (premultiply)
+              ImageMath.unpremultiply(out, 0, width);
+          }
+        };
+      }
+      final RowWindow window = new RowWindow(upstream, width, height, rows2);
+      return new TimedStage(upstream) {
+        void computeRow(int y, int[] out) {
+          window.advanceTo(y, premultiplier);
+          for (int x = 0; x < width; x++) {
+            float r = 0, g = 0, b = 0, a = 0;
+            for (int row = -rows2; row <= rows2; row++) {
+              int iy = y + row;
+              int[] in;
+              if (0 <= iy && iy < height)
+                in = window.getRow(iy);
+              else if (edgeAction == ConvolveFilter.ZERO_EDGES)
+                continue;
+              else if (cols == 1 && edgeAction == ConvolveFilter.CLAMP_EDGES)
+                in = window.getRow(iy < 0 ? 0 : height - 1);
+              else
+                in = window.getRow(y);
+              int moffset = cols * (row + rows2) + cols2;
+              for (int col = -cols2; col <= cols2; col++) {
+                float f = matrix[moffset + col];
+                if (f != 0) {
+                  int ix = x + col;
+                  if (!(0 <= ix && ix < width)) {
+                    if (edgeAction == ConvolveFilter.ZERO_EDGES)
+                      continue;
+                    ix = x;
+                  }
+                  int rgb = in[ix];
+                  a += f * ((rgb >> 24) & 0xff);
+                  r += f * ((rgb >> 16) & 0xff);
+                  g += f * ((rgb >> 8) & 0xff);
+                  b += f * (rgb & 0xff);
+                }
+              }
+            }
+            int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
+            int ir = PixelUtils.clamp((int) (r + 0.5));
+            int ig = PixelUtils.clamp((int) (g + 0.5));
+            int ib = PixelUtils.clamp((int) (b + 0.5));
+            out[x] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+          }
+          if (premultiply)
+            ImageMath.unpremultiply(out, 0, width);
+        }
+      };
+    }
+  }
+}
@@ -33,6 +33,7 @@ public class FourColorFilter extends PointFilter {
   private int rSE, gSE, bSE;
 
   public FourColorFilter() {
+    canFilterInParallel = true;
     setColorNW(0xffff0000);
     setColorNE(0xffff00ff);
     setColorSW(0xff0000ff);
@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.Kernel;
 
@@ -27,6 +28,9 @@ import java.awt.image.Kernel;
  */
 public class GaussianFilter extends ConvolveFilter {
 
+  // How many radii around a region the recursive blur looks when filtering just that region
+  private final static int RECURSIVE_HALO = 2;
+
   /**
    * The blur radius.
    */
@@ -37,6 +41,11 @@ public class GaussianFilter extends ConvolveFilter {
    */
   protected Kernel kernel;
 
+  /**
+   * The radius from which the recursive blur is used instead of the kernel.
+   */
+  protected float recursiveRadius = 40;
+
   /**
    * Construct a Gaussian filter.
    */
@@ -76,6 +85,35 @@ public class GaussianFilter extends ConvolveFilter {
     return radius;
   }
 
+  /**
+   * Set the radius from which the blur is done with a recursive filter rather than by convolving with a kernel.
+   * The recursive filter takes the same time whatever the radius, but is only an approximation of the kernel.
+   *
+   * @param recursiveRadius the radius from which to use the recursive filter, Float.MAX_VALUE to never use it
+   * @see #getRecursiveRadius
+   * @see #recursiveBlurAndTranspose
+   */
+  public void setRecursiveRadius(float recursiveRadius) {
+    this.recursiveRadius = recursiveRadius;
+  }
+
+  /**
+   * Get the radius from which the blur is done with a recursive filter.
+   *
+   * @return the radius
+   * @see #setRecursiveRadius
+   */
+  public float getRecursiveRadius() {
+    return recursiveRadius;
+  }
+
+  /**
+   * Whether the blur is done with the recursive filter at the current radius.
+   */
+  boolean isRecursive() {
+    return radius >= recursiveRadius;
+  }
+
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     int width = src.getWidth();
     int height = src.getHeight();
@@ -83,19 +121,81 @@ public class GaussianFilter extends ConvolveFilter {
     if (dst == null)
       dst = createCompatibleDestImage(src, null);
 
-    int[] inPixels = new int[width * height];
-    int[] outPixels = new int[width * height];
-    src.getRGB(0, 0, width, height, inPixels, 0, width);
+    Rectangle target = getTargetRegion(width, height);
+    if (target.isEmpty())
+      return dst;
+    Rectangle block = getSourceRegion(target, width, height);
+
+    ScratchBuffers buffers = ScratchBuffers.getDefault();
+    int[] inPixels = buffers.getInts(block.width * block.height);
+    int[] outPixels = buffers.getInts(block.width * block.height);
+    getRGB(src, block.x, block.y, block.width, block.height, inPixels);
 
     if (radius > 0) {
-      convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES);
-      convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES);
+      blurAndTranspose(inPixels, outPixels, block.width, block.height, alpha && premultiplyAlpha, false);
+      blurAndTranspose(outPixels, inPixels, block.height, block.width, false, alpha && premultiplyAlpha);
     }
 
-    dst.setRGB(0, 0, width, height, inPixels, 0, width);
+    setRGB(dst, target.x, target.y, target.width, target.height, crop(inPixels, block, target));
+    buffers.release(inPixels);
+    buffers.release(outPixels);
     return dst;
   }
 
+  protected Rectangle getSourceRegion(Rectangle region, int width, int height) {
+    int halo = 0;
+    if (radius > 0) {
+      // The recursive blur never quite dies away, but beyond this it is lost in the rounding
+      halo = isRecursive() ? RECURSIVE_HALO * (int) Math.ceil(radius) : kernel.getWidth() / 2;
+    }
+    Rectangle r = new Rectangle(region);
+    r.grow(halo, halo);
+    return r.intersection(new Rectangle(0, 0, width, height));
+  }
+
+  /**
+   * Blur and transpose a block of ARGB pixels with the current radius, using either the kernel or, for
+   * large radii, the recursive filter.
+   *
+   * @param inPixels      the input pixels
+   * @param outPixels     the output pixels
+   * @param width         the width of the pixel array
+   * @param height        the height of the pixel array
+   * @param premultiply   whether to premultiply the alpha before blurring
+   * @param unpremultiply whether to unpremultiply the alpha after blurring
+   */
+  protected void blurAndTranspose(int[] inPixels, int[] outPixels, int width, int height, boolean premultiply, boolean unpremultiply) {
+    if (isRecursive())
+      recursiveBlurAndTranspose(radius / 3, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply);
+    else
+      convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, CLAMP_EDGES);
+  }
+
+  /**
+   * Blur a single channel stored a byte per pixel, such as an alpha channel or a gray mask, with the current radius.
+   * When the alpha is used, this gives the same result as the alpha channel of an image passed to filter, without
+   * packing and unpacking the other three channels. The channel is blurred even if {@link #setUseAlpha} turned the
+   * alpha off, which makes filter leave it opaque.
+   *
+   * @param plane  the channel, which is blurred in place
+   * @param width  the width of the channel
+   * @param height the height of the channel
+   */
+  public void blurPlane(byte[] plane, int width, int height) {
+    if (radius <= 0)
+      return;
+    ScratchBuffers buffers = ScratchBuffers.getDefault();
+    byte[] transposed = buffers.getBytes(width * height);
+    if (isRecursive()) {
+      recursiveBlurAndTranspose(radius / 3, plane, transposed, width, height);
+      recursiveBlurAndTranspose(radius / 3, transposed, plane, height, width);
+    } else {
+      convolveAndTranspose(kernel, plane, transposed, width, height);
+      convolveAndTranspose(kernel, transposed, plane, height, width);
+    }
+    buffers.release(transposed);
+  }
+
   /**
    * Blur and transpose a block of ARGB pixels.
    *
@@ -108,6 +208,10 @@ public class GaussianFilter extends ConvolveFilter {
    * @param edgeAction what to do at the edges
    */
   public static void convolveAndTranspose(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply, int edgeAction) {
+    if (edgeAction == CLAMP_EDGES && (kernel.getWidth() & 1) == 1 && VectorConvolve.isAvailable()) {
+      VectorConvolve.convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply);
+      return;
+    }
     float[] matrix = kernel.getKernelData(null);
     int cols = kernel.getWidth();
     int cols2 = cols / 2;
@@ -167,6 +271,218 @@ public class GaussianFilter extends ConvolveFilter {
     }
   }
 
+  /**
+   * Blur and transpose a single channel stored a byte per pixel, such as an alpha channel or a gray mask. Pixels off
+   * the edges are taken to be the same as the edge pixels. The result is the same as for the alpha channel in
+   * convolveAndTranspose, for a quarter of the memory traffic.
+   *
+   * @param kernel the blur kernel
+   * @param in     the input channel
+   * @param out    the output channel
+   * @param width  the width of the channel
+   * @param height the height of the channel
+   */
+  public static void convolveAndTranspose(Kernel kernel, byte[] in, byte[] out, int width, int height) {
+    float[] matrix = kernel.getKernelData(null);
+    int cols = kernel.getWidth();
+    int cols2 = cols / 2;
+
+    for (int y = 0; y < height; y++) {
+      int index = y;
+      int ioffset = y * width;
+      for (int x = 0; x < width; x++) {
+        float a = 0;
+        int ix = x - cols2;
+        if (ix >= 0 && ix + cols <= width) {
+          int i = ioffset + ix;
+          for (int col = 0; col < cols; col++)
+            a += matrix[col] * (in[i + col] & 0xff);
+        } else {
+          for (int col = 0; col < cols; col++)
+            a += matrix[col] * (in[ioffset + ImageMath.clamp(ix + col, 0, width - 1)] & 0xff);
+        }
+        out[index] = (byte) PixelUtils.clamp((int) (a + 0.5));
+        index += height;
+      }
+    }
+  }
+
+  /**
+   * Blur and transpose a block of ARGB pixels with a recursive approximation of the Gaussian, as described in
+   * "Recursive implementation of the Gaussian filter" by Young and van Vliet. A third order filter is run
+   * forwards then backwards along each row, so the cost per pixel doesn't depend on the radius. Pixels off the
+   * edges are taken to be the same as the edge pixels.
+   *
+   * @param sigma         the standard deviation of the Gaussian, a third of the blur radius
+   * @param inPixels      the input pixels
+   * @param outPixels     the output pixels
+   * @param width         the width of the pixel array
+   * @param height        the height of the pixel array
+   * @param alpha         whether to blur the alpha channel
+   * @param premultiply   whether to premultiply the alpha before blurring
+   * @param unpremultiply whether to unpremultiply the alpha after blurring
+   */
+  public static void recursiveBlurAndTranspose(float sigma, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply) {
+    float[] c = makeRecursiveCoefficients(sigma);
+    float bb = c[0], b1 = c[1], b2 = c[2], b3 = c[3];
+    float[] m = makeBoundaryMatrix(sigma, bb, b1, b2, b3);
+
+    float[] ap = new float[width];
+    float[] rp = new float[width];
+    float[] gp = new float[width];
+    float[] bp = new float[width];
+    for (int y = 0; y < height; y++) {
+      int ioffset = y * width;
+      for (int x = 0; x < width; x++) {
+        int rgb = inPixels[ioffset + x];
+        int pa = (rgb >> 24) & 0xff;
+        int pr = (rgb >> 16) & 0xff;
+        int pg = (rgb >> 8) & 0xff;
+        int pb = rgb & 0xff;
+        if (premultiply) {
+          float a255 = pa * (1.0f / 255.0f);
+          pr *= a255;
+          pg *= a255;
+          pb *= a255;
+        }
+        ap[x] = pa;
+        rp[x] = pr;
+        gp[x] = pg;
+        bp[x] = pb;
+      }
+      if (alpha)
+        recursiveBlur(ap, width, bb, b1, b2, b3, m);
+      recursiveBlur(rp, width, bb, b1, b2, b3, m);
+      recursiveBlur(gp, width, bb, b1, b2, b3, m);
+      recursiveBlur(bp, width, bb, b1, b2, b3, m);
+
+      int index = y;
+      for (int x = 0; x < width; x++) {
+        float a = ap[x], r = rp[x], g = gp[x], b = bp[x];
+        if (unpremultiply && a < 0.5f) {
+          // The recursive filter has an infinite tail, don't let it blow up colors which will be invisible
+          r = g = b = 0;
+        } else if (unpremultiply && a != 0 && a != 255) {
+          float f = 255.0f / a;
+          r *= f;
+          g *= f;
+          b *= f;
+        }
+        int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
+        int ir = PixelUtils.clamp((int) (r + 0.5));
+        int ig = PixelUtils.clamp((int) (g + 0.5));
+        int ib = PixelUtils.clamp((int) (b + 0.5));
+        outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+        index += height;
+      }
+    }
+  }
+
+  /**
+   * Blur and transpose a single channel stored a byte per pixel, such as an alpha channel or a gray mask, with a
+   * recursive approximation of the Gaussian. The result is the same as for the alpha channel in
+   * recursiveBlurAndTranspose.
+   *
+   * @param sigma  the standard deviation of the Gaussian, a third of the blur radius
+   * @param in     the input channel
+   * @param out    the output channel
+   * @param width  the width of the channel
+   * @param height the height of the channel
+   */
+  public static void recursiveBlurAndTranspose(float sigma, byte[] in, byte[] out, int width, int height) {
+    float[] c = makeRecursiveCoefficients(sigma);
+    float bb = c[0], b1 = c[1], b2 = c[2], b3 = c[3];
+    float[] m = makeBoundaryMatrix(sigma, bb, b1, b2, b3);
+
+    float[] p = new float[width];
+    for (int y = 0; y < height; y++) {
+      int ioffset = y * width;
+      for (int x = 0; x < width; x++)
+        p[x] = in[ioffset + x] & 0xff;
+      recursiveBlur(p, width, bb, b1, b2, b3, m);
+      int index = y;
+      for (int x = 0; x < width; x++) {
+        out[index] = (byte) PixelUtils.clamp((int) (p[x] + 0.5));
+        index += height;
+      }
+    }
+  }
+
+  /**
+   * Work out the coefficients of the recursive filter for a standard deviation, returned as bb, b1, b2 and b3.
+   */
+  private static float[] makeRecursiveCoefficients(float sigma) {
+    float q = sigma >= 2.5f ? 0.98711f * sigma - 0.96330f : 3.97156f - 4.14554f * (float) Math.sqrt(1 - 0.26891f * sigma);
+    float q2 = q * q;
+    float q3 = q2 * q;
+    float b0 = 1.57825f + 2.44413f * q + 1.4281f * q2 + 0.422205f * q3;
+    float b1 = (2.44413f * q + 2.85619f * q2 + 1.26661f * q3) / b0;
+    float b2 = -(1.4281f * q2 + 1.26661f * q3) / b0;
+    float b3 = 0.422205f * q3 / b0;
+    return new float[]{1 - (b1 + b2 + b3), b1, b2, b3};
+  }
+
+  private static void recursiveBlur(float[] p, int length, float bb, float b1, float b2, float b3, float[] m) {
+    float u = p[length - 1];
+    float w1 = p[0], w2 = w1, w3 = w1;
+    for (int i = 0; i < length; i++) {
+      float w = bb * p[i] + b1 * w1 + b2 * w2 + b3 * w3;
+      p[i] = w;
+      w3 = w2;
+      w2 = w1;
+      w1 = w;
+    }
+
+    // Start the backward pass as if the last pixel carried on forever
+    float d1 = p[length - 1] - u;
+    float d2 = p[Math.max(0, length - 2)] - u;
+    float d3 = p[Math.max(0, length - 3)] - u;
+    w1 = u + m[0] * d1 + m[1] * d2 + m[2] * d3;
+    w2 = u + m[3] * d1 + m[4] * d2 + m[5] * d3;
+    w3 = u + m[6] * d1 + m[7] * d2 + m[8] * d3;
+    for (int i = length - 1; i >= 0; i--) {
+      float w = bb * p[i] + b1 * w1 + b2 * w2 + b3 * w3;
+      p[i] = w;
+      w3 = w2;
+      w2 = w1;
+      w1 = w;
+    }
+  }
+
+  /**
+   * Work out how the state at the end of the forward pass determines the start of the backward pass when
+   * the last pixel is repeated forever, as in Triggs and Sdika, "Boundary conditions for Young - van Vliet
+   * recursive filtering". Rather than use their closed form, the three basis states are run through the
+   * filters past the edge until they have died away, which only costs a few times the radius.
+   */
+  private static float[] makeBoundaryMatrix(float sigma, float bb, float b1, float b2, float b3) {
+    int length = (int) (10 * sigma) + 10;
+    float[] m = new float[9];
+    float[] tail = new float[length];
+    for (int j = 0; j < 3; j++) {
+      float w1 = j == 0 ? 1 : 0, w2 = j == 1 ? 1 : 0, w3 = j == 2 ? 1 : 0;
+      for (int i = 0; i < length; i++) {
+        float w = b1 * w1 + b2 * w2 + b3 * w3;
+        tail[i] = w;
+        w3 = w2;
+        w2 = w1;
+        w1 = w;
+      }
+      w1 = w2 = w3 = 0;
+      for (int i = length - 1; i >= 0; i--) {
+        float w = bb * tail[i] + b1 * w1 + b2 * w2 + b3 * w3;
+        tail[i] = w;
+        w3 = w2;
+        w2 = w1;
+        w1 = w;
+      }
+      m[j] = tail[0];
+      m[3 + j] = tail[1];
+      m[6 + j] = tail[2];
+    }
+    return m;
+  }
+
   /**
    * Make a Gaussian blur kernel.
    *
@@ -199,6 +515,12 @@ public class GaussianFilter extends ConvolveFilter {
     return new Kernel(rows, 1, matrix);
   }
 
+  public AbstractBufferedImageOp getScaledInstance(float scale) {
+    GaussianFilter f = (GaussianFilter) super.getScaledInstance(scale);
+    f.setRadius(radius * scale);
+    return f;
+  }
+
   public String toString() {
     return "Blur/Gaussian Blur...";
   }
@@ -395,61 +395,59 @@ public class Gradient extends ArrayColormap implements Cloneable {
     yKnots[0] = yKnots[1];
     yKnots[numKnots - 1] = yKnots[numKnots - 2];
 
-    int knot = 0;
     for (int i = 1; i < numKnots - 1; i++) {
       float spanLength = xKnots[i + 1] - xKnots[i];
       int end = xKnots[i + 1];
       if (i == numKnots - 2)
         end++;
-      for (int j = xKnots[i]; j < end; j++) {
-        int rgb1 = yKnots[i];
-        int rgb2 = yKnots[i + 1];
-        float hsb1[] = Color.RGBtoHSB((rgb1 >> 16) & 0xff, (rgb1 >> 8) & 0xff, rgb1 & 0xff, null);
-        float hsb2[] = Color.RGBtoHSB((rgb2 >> 16) & 0xff, (rgb2 >> 8) & 0xff, rgb2 & 0xff, null);
+      // Everything but t is the same along a span, so only the map entries are worked out per position
+      int rgb1 = yKnots[i];
+      int rgb2 = yKnots[i + 1];
+      int type = getKnotType(i);
+      int blend = getKnotBlend(i);
+      float hsb1[] = Color.RGBtoHSB((rgb1 >> 16) & 0xff, (rgb1 >> 8) & 0xff, rgb1 & 0xff, null);
+      float hsb2[] = Color.RGBtoHSB((rgb2 >> 16) & 0xff, (rgb2 >> 8) & 0xff, rgb2 & 0xff, null);
+      for (int j = Math.max(xKnots[i], 0); j < end && j <= 255; j++) {
         float t = (float) (j - xKnots[i]) / spanLength;
-        int type = getKnotType(i);
-        int blend = getKnotBlend(i);
-
-        if (j >= 0 && j <= 255) {
-          switch (blend) {
-            case CONSTANT:
-              t = 0;
-              break;
-            case LINEAR:
-              break;
-            case SPLINE:
-//						map[i] = ImageMath.colorSpline(j, numKnots, xKnots, yKnots);
-              t = ImageMath.smoothStep(0.15f, 0.85f, t);
-              break;
-            case CIRCLE_UP:
-              t = t - 1;
-              t = (float) Math.sqrt(1 - t * t);
-              break;
-            case CIRCLE_DOWN:
-              t = 1 - (float) Math.sqrt(1 - t * t);
-              break;
-          }
-//					if (blend != SPLINE) {
-          switch (type) {
-            case RGB:
-              map[j] = ImageMath.mixColors(t, rgb1, rgb2);
-              break;
-            case HUE_CW:
-            case HUE_CCW:
-              if (type == HUE_CW) {
-                if (hsb2[0] <= hsb1[0])
-                  hsb2[0] += 1.0f;
-              } else {
-                if (hsb1[0] <= hsb2[1])
-                  hsb1[0] += 1.0f;
-              }
-              float h = ImageMath.lerp(t, hsb1[0], hsb2[0]) % (ImageMath.TWO_PI);
-              float s = ImageMath.lerp(t, hsb1[1], hsb2[1]);
-              float b = ImageMath.lerp(t, hsb1[2], hsb2[2]);
-              map[j] = 0xff000000 | Color.HSBtoRGB((float) h, (float) s, (float) b);//FIXME-alpha
-              break;
-          }
-//					}
+
+        switch (blend) {
+          case CONSTANT:
+            t = 0;
+            break;
+          case LINEAR:
+            break;
+          case SPLINE:
+//					map[i] = ImageMath.colorSpline(j, numKnots, xKnots, yKnots);
+            t = ImageMath.smoothStep(0.15f, 0.85f, t);
+            break;
+          case CIRCLE_UP:
+            t = t - 1;
+            t = (float) Math.sqrt(1 - t * t);
+            break;
+          case CIRCLE_DOWN:
+            t = 1 - (float) Math.sqrt(1 - t * t);
+            break;
+        }
+        switch (type) {
+          case RGB:
+            map[j] = ImageMath.mixColors(t, rgb1, rgb2);
+            break;
+          case HUE_CW:
+          case HUE_CCW:
+            float h1 = hsb1[0];
+            float h2 = hsb2[0];
+            if (type == HUE_CW) {
+              if (h2 <= h1)
+                h2 += 1.0f;
+            } else {
+              if (h1 <= hsb2[1])
+                h1 += 1.0f;
+            }
+            float h = ImageMath.lerp(t, h1, h2) % (ImageMath.TWO_PI);
+            float s = ImageMath.lerp(t, hsb1[1], hsb2[1]);
+            float b = ImageMath.lerp(t, hsb1[2], hsb2[2]);
+            map[j] = 0xff000000 | Color.HSBtoRGB((float) h, (float) s, (float) b);//FIXME-alpha
+            break;
         }
       }
     }
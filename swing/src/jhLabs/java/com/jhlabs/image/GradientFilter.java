@@ -47,6 +47,8 @@ public class GradientFilter extends AbstractBufferedImageOp {
   private float dx;
   private float dy;
   private Colormap colormap = null;
+  // The colormap compiled for quick lookups, for the image being filtered
+  private Colormap lookupColormap;
   private int type;
   private int interpolation = INT_LINEAR;
   private int paintMode = PixelUtils.NORMAL;
@@ -189,6 +191,7 @@ public class GradientFilter extends AbstractBufferedImageOp {
     this.dx = dx;
     this.dy = dy;
 
+    lookupColormap = LookupColormap.compile(colormap);
     int[] pixels = new int[width];
     for (int y = 0; y < height; y++) {
       getRGB(src, 0, y, width, 1, pixels);
@@ -221,9 +224,9 @@ public class GradientFilter extends AbstractBufferedImageOp {
       int rgb;
       while (--j >= 0) {
         if (type == BILINEAR)
-          rgb = colormap.getColor(map(ImageMath.triangle(colrel)));
+          rgb = lookupColormap.getColor(map(ImageMath.triangle(colrel)));
         else
-          rgb = colormap.getColor(map(ImageMath.mod(colrel, 1.0f)));
+          rgb = lookupColormap.getColor(map(ImageMath.mod(colrel, 1.0f)));
         pixels[off] = PixelUtils.combinePixels(rgb, pixels[off], paintMode);
         off++;
         colrel += dx;
@@ -239,7 +242,7 @@ public class GradientFilter extends AbstractBufferedImageOp {
       int j = w;
       int rgb;
       if (colrel <= 0.0) {
-        rgb = colormap.getColor(0);
+        rgb = lookupColormap.getColor(0);
         do {
           pixels[off] = PixelUtils.combinePixels(rgb, pixels[off], paintMode);
           off++;
@@ -248,18 +251,18 @@ public class GradientFilter extends AbstractBufferedImageOp {
       }
       while (colrel < 1.0 && --j >= 0) {
         if (type == BILINEAR)
-          rgb = colormap.getColor(map(ImageMath.triangle(colrel)));
+          rgb = lookupColormap.getColor(map(ImageMath.triangle(colrel)));
         else
-          rgb = colormap.getColor(map(colrel));
+          rgb = lookupColormap.getColor(map(colrel));
         pixels[off] = PixelUtils.combinePixels(rgb, pixels[off], paintMode);
         off++;
         colrel += dx;
       }
       if (j > 0) {
         if (type == BILINEAR)
-          rgb = colormap.getColor(0.0f);
+          rgb = lookupColormap.getColor(0.0f);
         else
-          rgb = colormap.getColor(1.0f);
+          rgb = lookupColormap.getColor(1.0f);
         do {
           pixels[off] = PixelUtils.combinePixels(rgb, pixels[off], paintMode);
           off++;
@@ -288,7 +291,7 @@ public class GradientFilter extends AbstractBufferedImageOp {
         ratio = ratio % 2;
       else if (ratio > 1.0)
         ratio = 1.0f;
-      int rgb = colormap.getColor(map(ratio));
+      int rgb = lookupColormap.getColor(map(ratio));
       pixels[off] = PixelUtils.combinePixels(rgb, pixels[off], paintMode);
       off++;
     }
@@ -304,7 +307,7 @@ public class GradientFilter extends AbstractBufferedImageOp {
         ratio = ratio % 2;
       else if (ratio > 1.0)
         ratio = 1.0f;
-      int rgb = colormap.getColor(map(ratio));
+      int rgb = lookupColormap.getColor(map(ratio));
       pixels[off] = PixelUtils.combinePixels(rgb, pixels[off], paintMode);
       off++;
     }
@@ -319,7 +322,7 @@ public class GradientFilter extends AbstractBufferedImageOp {
       angle %= 1.0f;
       if (type == BICONICAL)
         angle = ImageMath.triangle(angle);
-      int rgb = colormap.getColor(map(angle));
+      int rgb = lookupColormap.getColor(map(angle));
       pixels[off] = PixelUtils.combinePixels(rgb, pixels[off], paintMode);
       off++;
     }
@@ -22,6 +22,7 @@ package com.jhlabs.image;
 public class GrayFilter extends PointFilter {
 
   public GrayFilter() {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
   }
 
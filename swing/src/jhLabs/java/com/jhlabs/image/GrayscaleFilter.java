@@ -22,6 +22,7 @@ package com.jhlabs.image;
 public class GrayscaleFilter extends PointFilter {
 
   public GrayscaleFilter() {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
   }
 
@@ -21,13 +21,13 @@ import java.awt.*;
 public class HSBAdjustFilter extends PointFilter {
 
   public float hFactor, sFactor, bFactor;
-  private float[] hsb = new float[3];
 
   public HSBAdjustFilter() {
     this(0, 0, 0);
   }
 
   public HSBAdjustFilter(float r, float g, float b) {
+    canFilterInParallel = true;
     hFactor = r;
     sFactor = g;
     bFactor = b;
@@ -63,7 +63,7 @@ public class HSBAdjustFilter extends PointFilter {
     int r = (rgb >> 16) & 0xff;
     int g = (rgb >> 8) & 0xff;
     int b = rgb & 0xff;
-    Color.RGBtoHSB(r, g, b, hsb);
+    float[] hsb = Color.RGBtoHSB(r, g, b, null);
     hsb[0] += hFactor;
     while (hsb[0] < 0)
       hsb[0] += Math.PI * 2;
@@ -38,14 +38,14 @@ public class HighPassFilter extends GaussianFilter {
 
     int[] inPixels = new int[width * height];
     int[] outPixels = new int[width * height];
-    src.getRGB(0, 0, width, height, inPixels, 0, width);
+    getRGB(src, 0, 0, width, height, inPixels);
 
     if (radius > 0) {
-      convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES);
-      convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES);
+      blurAndTranspose(inPixels, outPixels, width, height, alpha && premultiplyAlpha, false);
+      blurAndTranspose(outPixels, inPixels, height, width, false, alpha && premultiplyAlpha);
     }
 
-    src.getRGB(0, 0, width, height, outPixels, 0, width);
+    getRGB(src, 0, 0, width, height, outPixels);
 
     int index = 0;
     for (int y = 0; y < height; y++) {
@@ -69,7 +69,7 @@ public class HighPassFilter extends GaussianFilter {
       }
     }
 
-    dst.setRGB(0, 0, width, height, inPixels, 0, width);
+    setRGB(dst, 0, 0, width, height, inPixels);
     return dst;
   }
 
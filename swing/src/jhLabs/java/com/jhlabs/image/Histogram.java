@@ -16,8 +16,15 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * An image histogram.
+ * <p>
+ * A histogram can be kept up to date as an image changes: {@link #removePixels} the old contents of a changed region
+ * and {@link #addPixels} the new ones, and the statistics are brought up to date from the histogram itself, which
+ * costs the same however large the image is. Large images can be counted in parallel, with each band of rows counted
+ * into its own histogram and the results added together.
  */
 public class Histogram {
 
@@ -47,30 +54,102 @@ public class Histogram {
   }
 
   public Histogram(int[] pixels, int w, int h, int offset, int stride) {
+    allocate();
+    count(histogram, pixels, 0, h, w, offset, stride, 1);
+    numSamples = w * h;
+    updateStatistics();
+  }
+
+  /**
+   * Construct a Histogram, counting bands of rows in parallel.
+   *
+   * @param pixels the pixels
+   * @param w      the width of the region to count
+   * @param h      the height of the region to count
+   * @param offset the index of the first pixel of the region
+   * @param stride the distance between rows in the pixel array
+   * @param pool   the pool to use, or null for the common pool
+   */
+  public Histogram(int[] pixels, int w, int h, int offset, int stride, ForkJoinPool pool) {
+    allocate();
+    RowBands.process(pool, w, h, (y0, y1) -> {
+      int[][] partial = new int[3][256];
+      count(partial, pixels, y0, y1, w, offset, stride, 1);
+      synchronized (histogram) {
+        for (int i = 0; i < 3; i++)
+          for (int j = 0; j < 256; j++)
+            histogram[i][j] += partial[i][j];
+      }
+    });
+    numSamples = w * h;
+    updateStatistics();
+  }
+
+  private void allocate() {
     histogram = new int[3][256];
     minValue = new int[4];
     maxValue = new int[4];
     minFrequency = new int[3];
     maxFrequency = new int[3];
     mean = new float[3];
+  }
 
-    numSamples = w * h;
-    isGray = true;
-
-    int index = 0;
-    for (int y = 0; y < h; y++) {
-      index = offset + y * stride;
+  private static void count(int[][] histogram, int[] pixels, int y0, int y1, int w, int offset, int stride, int delta) {
+    int[] red = histogram[RED];
+    int[] green = histogram[GREEN];
+    int[] blue = histogram[BLUE];
+    for (int y = y0; y < y1; y++) {
+      int index = offset + y * stride;
       for (int x = 0; x < w; x++) {
         int rgb = pixels[index++];
-        int r = (rgb >> 16) & 0xff;
-        int g = (rgb >> 8) & 0xff;
-        int b = rgb & 0xff;
-        histogram[RED][r]++;
-        histogram[GREEN][g]++;
-        histogram[BLUE][b]++;
+        red[(rgb >> 16) & 0xff] += delta;
+        green[(rgb >> 8) & 0xff] += delta;
+        blue[rgb & 0xff] += delta;
       }
     }
+  }
+
+  /**
+   * Add a region of pixels to the histogram.
+   *
+   * @param pixels the pixels
+   * @param w      the width of the region
+   * @param h      the height of the region
+   * @param offset the index of the first pixel of the region
+   * @param stride the distance between rows in the pixel array
+   * @see #removePixels
+   */
+  public void addPixels(int[] pixels, int w, int h, int offset, int stride) {
+    if (histogram == null)
+      allocate();
+    count(histogram, pixels, 0, h, w, offset, stride, 1);
+    numSamples += w * h;
+    updateStatistics();
+  }
 
+  /**
+   * Remove a region of pixels from the histogram. The pixels must be ones which were added before.
+   *
+   * @param pixels the pixels
+   * @param w      the width of the region
+   * @param h      the height of the region
+   * @param offset the index of the first pixel of the region
+   * @param stride the distance between rows in the pixel array
+   * @see #addPixels
+   */
+  public void removePixels(int[] pixels, int w, int h, int offset, int stride) {
+    if (histogram == null)
+      return;
+    count(histogram, pixels, 0, h, w, offset, stride, -1);
+    numSamples -= w * h;
+    updateStatistics();
+  }
+
+  /**
+   * Bring the statistics up to date with the counts.
+   */
+  private void updateStatistics() {
+    isGray = true;
     for (int i = 0; i < 256; i++) {
       if (histogram[RED][i] != histogram[GREEN][i] || histogram[GREEN][i] != histogram[BLUE][i]) {
         isGray = false;
@@ -79,6 +158,7 @@ public class Histogram {
     }
 
     for (int i = 0; i < 3; i++) {
+      minValue[i] = maxValue[i] = 0;
       for (int j = 0; j < 256; j++) {
         if (histogram[i][j] > 0) {
           minValue[i] = j;
@@ -95,6 +175,7 @@ public class Histogram {
 
       minFrequency[i] = Integer.MAX_VALUE;
       maxFrequency[i] = 0;
+      mean[i] = 0;
       for (int j = 0; j < 256; j++) {
         minFrequency[i] = Math.min(minFrequency[i], histogram[i][j]);
         maxFrequency[i] = Math.max(maxFrequency[i], histogram[i][j]);
@@ -106,6 +187,26 @@ public class Histogram {
     maxValue[GRAY] = Math.max(Math.max(maxValue[RED], maxValue[GREEN]), maxValue[BLUE]);
   }
 
+  /**
+   * Get the value below which a given percentage of the samples of a channel lie.
+   *
+   * @param channel the channel
+   * @param percent the percentage, from 0 to 100
+   * @return the smallest value with at least that percentage of samples at or below it, or -1 if there are no samples
+   */
+  public int getPercentile(int channel, float percent) {
+    if (numSamples < 1 || channel < 0 || channel > 2)
+      return -1;
+    long target = (long) Math.ceil(numSamples * (double) percent / 100);
+    long sum = 0;
+    for (int j = 0; j < 255; j++) {
+      sum += histogram[channel][j];
+      if (sum >= target && sum > 0)
+        return j;
+    }
+    return 255;
+  }
+
   public boolean isGray() {
     return isGray;
   }
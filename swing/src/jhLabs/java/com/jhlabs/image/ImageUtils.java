@@ -19,11 +19,19 @@ package com.jhlabs.image;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.awt.image.ImageObserver;
 import java.awt.image.ImageProducer;
 import java.awt.image.PixelGrabber;
 import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 /**
  * A class containing some static utility methods for dealing with BufferedImages.
@@ -224,12 +232,13 @@ public abstract class ImageUtils {
     int h = src.getHeight();
 
     int srcRGB[] = null;
-    int selRGB[] = null;
+    int selAlpha[] = null;
     int dstRGB[] = null;
 
     for (int i = 0; i < h; i++) {
       srcRGB = src.getPixels(x, y, w, 1, srcRGB);
-      selRGB = sel.getPixels(x, y, w, 1, selRGB);
+      // Only the alpha of the mask is used, so just read that band
+      selAlpha = sel.getSamples(x, y, w, 1, 3, selAlpha);
       dstRGB = dst.getPixels(x, y, w, 1, dstRGB);
 
       int k = x;
@@ -243,7 +252,7 @@ public abstract class ImageUtils {
         int sa = srcRGB[k + 3];
         int dia = dstRGB[k + 3];
 
-        float a = selRGB[k + 3] / 255f;
+        float a = selAlpha[j] / 255f;
         float ac = 1 - a;
 
         dstRGB[k] = (int) (a * sr + ac * dir);
@@ -258,9 +267,39 @@ public abstract class ImageUtils {
     }
   }
 
+  /**
+   * Get the array backing an image, for filters which want to work on the pixels in place without
+   * copying them. This is only possible for TYPE_INT_ARGB and TYPE_INT_RGB images whose raster
+   * covers the whole of its DataBufferInt, so that pixel (x, y) is at index y * width + x. Note that
+   * the top byte of TYPE_INT_RGB pixels is undefined, and that grabbing the array stops Java2D from
+   * accelerating the image.
+   *
+   * @param image a BufferedImage object
+   * @return the pixels, or null if the image doesn't allow direct access
+   */
+  public static int[] getPixelData(BufferedImage image) {
+    int type = image.getType();
+    if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB)
+      return null;
+    WritableRaster raster = image.getRaster();
+    DataBuffer db = raster.getDataBuffer();
+    SampleModel sm = raster.getSampleModel();
+    if (!(db instanceof DataBufferInt) || !(sm instanceof SinglePixelPackedSampleModel))
+      return null;
+    if (raster.getParent() != null || db.getOffset() != 0 || db.getNumBanks() != 1)
+      return null;
+    if (((SinglePixelPackedSampleModel) sm).getScanlineStride() != image.getWidth())
+      return null;
+    int[] data = ((DataBufferInt) db).getData();
+    if (data.length < image.getWidth() * image.getHeight())
+      return null;
+    return data;
+  }
+
   /**
    * A convenience method for getting ARGB pixels from an image. This tries to avoid the performance
-   * penalty of BufferedImage.getRGB unmanaging the image.
+   * penalty of BufferedImage.getRGB by reading the backing data buffer directly for the common
+   * int and byte image types, converting to ARGB in bulk.
    *
    * @param image  a BufferedImage object
    * @param x      the left edge of the pixel block
@@ -272,15 +311,82 @@ public abstract class ImageUtils {
    * @see #setRGB
    */
   public static int[] getRGB(BufferedImage image, int x, int y, int width, int height, int[] pixels) {
-    int type = image.getType();
-    if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
-      return (int[]) image.getRaster().getDataElements(x, y, width, height, pixels);
+    if (pixels == null)
+      pixels = new int[width * height];
+    WritableRaster raster = image.getRaster();
+    DataBuffer db = raster.getDataBuffer();
+    SampleModel sm = raster.getSampleModel();
+    int sx = x - raster.getSampleModelTranslateX();
+    int sy = y - raster.getSampleModelTranslateY();
+
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB_PRE:
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+          SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+          int[] data = ((DataBufferInt) db).getData();
+          int stride = sppsm.getScanlineStride();
+          int offset = db.getOffset() + sppsm.getOffset(sx, sy);
+          for (int row = 0; row < height; row++)
+            System.arraycopy(data, offset + row * stride, pixels, row * width, width);
+          if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            for (int i = 0; i < width * height; i++)
+              pixels[i] |= 0xff000000;
+          } else if (image.getType() == BufferedImage.TYPE_INT_ARGB_PRE)
+            unpremultiply(pixels, width * height);
+          return pixels;
+        }
+        break;
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+          ComponentSampleModel csm = (ComponentSampleModel) sm;
+          byte[] data = ((DataBufferByte) db).getData();
+          int stride = csm.getScanlineStride();
+          int pixelStride = csm.getPixelStride();
+          int[] bandOffsets = csm.getBandOffsets();
+          int ro = bandOffsets[0], go = bandOffsets[1], bo = bandOffsets[2];
+          boolean hasAlpha = bandOffsets.length > 3;
+          int ao = hasAlpha ? bandOffsets[3] : 0;
+          int index = 0;
+          for (int row = 0; row < height; row++) {
+            int offset = db.getOffset() + (sy + row) * stride + sx * pixelStride;
+            for (int col = 0; col < width; col++) {
+              int a = hasAlpha ? data[offset + ao] & 0xff : 0xff;
+              pixels[index++] = (a << 24) | ((data[offset + ro] & 0xff) << 16) | ((data[offset + go] & 0xff) << 8) | (data[offset + bo] & 0xff);
+              offset += pixelStride;
+            }
+          }
+          return pixels;
+        }
+        break;
+      case BufferedImage.TYPE_BYTE_GRAY:
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+          ComponentSampleModel csm = (ComponentSampleModel) sm;
+          byte[] data = ((DataBufferByte) db).getData();
+          int stride = csm.getScanlineStride();
+          int pixelStride = csm.getPixelStride();
+          int[] lut = getGrayLUT(image.getColorModel());
+          int index = 0;
+          for (int row = 0; row < height; row++) {
+            int offset = db.getOffset() + csm.getOffset(sx, sy + row);
+            for (int col = 0; col < width; col++) {
+              pixels[index++] = lut[data[offset] & 0xff];
+              offset += pixelStride;
+            }
+          }
+          return pixels;
+        }
+        break;
+    }
     return image.getRGB(x, y, width, height, pixels, 0, width);
   }
 
   /**
    * A convenience method for setting ARGB pixels in an image. This tries to avoid the performance
-   * penalty of BufferedImage.setRGB unmanaging the image.
+   * penalty of BufferedImage.setRGB by writing the backing data buffer directly for the common
+   * int and byte image types.
    *
    * @param image  a BufferedImage object
    * @param x      the left edge of the pixel block
@@ -291,11 +397,242 @@ public abstract class ImageUtils {
    * @see #getRGB
    */
   public static void setRGB(BufferedImage image, int x, int y, int width, int height, int[] pixels) {
+    WritableRaster raster = image.getRaster();
+    DataBuffer db = raster.getDataBuffer();
+    SampleModel sm = raster.getSampleModel();
+    int sx = x - raster.getSampleModelTranslateX();
+    int sy = y - raster.getSampleModelTranslateY();
+
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB_PRE:
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+          SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+          int[] data = ((DataBufferInt) db).getData();
+          int stride = sppsm.getScanlineStride();
+          int offset = db.getOffset() + sppsm.getOffset(sx, sy);
+          boolean premultiply = image.getType() == BufferedImage.TYPE_INT_ARGB_PRE;
+          for (int row = 0; row < height; row++) {
+            int rowOffset = offset + row * stride;
+            System.arraycopy(pixels, row * width, data, rowOffset, width);
+            if (premultiply)
+              premultiply(data, rowOffset, width);
+          }
+          return;
+        }
+        break;
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+          ComponentSampleModel csm = (ComponentSampleModel) sm;
+          byte[] data = ((DataBufferByte) db).getData();
+          int stride = csm.getScanlineStride();
+          int pixelStride = csm.getPixelStride();
+          int[] bandOffsets = csm.getBandOffsets();
+          int ro = bandOffsets[0], go = bandOffsets[1], bo = bandOffsets[2];
+          boolean hasAlpha = bandOffsets.length > 3;
+          int ao = hasAlpha ? bandOffsets[3] : 0;
+          int index = 0;
+          for (int row = 0; row < height; row++) {
+            int offset = db.getOffset() + (sy + row) * stride + sx * pixelStride;
+            for (int col = 0; col < width; col++) {
+              int rgb = pixels[index++];
+              if (hasAlpha)
+                data[offset + ao] = (byte) (rgb >> 24);
+              data[offset + ro] = (byte) (rgb >> 16);
+              data[offset + go] = (byte) (rgb >> 8);
+              data[offset + bo] = (byte) rgb;
+              offset += pixelStride;
+            }
+          }
+          return;
+        }
+        break;
+    }
+    image.setRGB(x, y, width, height, pixels, 0, width);
+  }
+
+  /**
+   * Get the alpha channel of a block of pixels, a byte per pixel, for filters which only look at the alpha. This reads
+   * the backing data buffer directly for the common int and byte image types, without unpacking the colors. Images
+   * without alpha are opaque.
+   *
+   * @param image    a BufferedImage object
+   * @param x        the left edge of the pixel block
+   * @param y        the top edge of the pixel block
+   * @param width    the width of the pixel block
+   * @param height   the height of the pixel block
+   * @param alpha    the array to hold the returned alpha. May be null.
+   * @param offset   the index in the array of the top left pixel
+   * @param scansize the distance between rows in the array
+   * @return the alpha
+   * @see #setAlpha
+   */
+  public static byte[] getAlpha(BufferedImage image, int x, int y, int width, int height, byte[] alpha, int offset, int scansize) {
+    if (alpha == null)
+      alpha = new byte[offset + (height - 1) * scansize + width];
+    if (!image.getColorModel().hasAlpha()) {
+      for (int row = 0; row < height; row++)
+        Arrays.fill(alpha, offset + row * scansize, offset + row * scansize + width, (byte) 0xff);
+      return alpha;
+    }
+    WritableRaster raster = image.getRaster();
+    DataBuffer db = raster.getDataBuffer();
+    SampleModel sm = raster.getSampleModel();
+    int sx = x - raster.getSampleModelTranslateX();
+    int sy = y - raster.getSampleModelTranslateY();
+
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_INT_ARGB_PRE:
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+          SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+          int[] data = ((DataBufferInt) db).getData();
+          for (int row = 0; row < height; row++) {
+            int index = db.getOffset() + sppsm.getOffset(sx, sy + row);
+            int aoffset = offset + row * scansize;
+            for (int col = 0; col < width; col++)
+              alpha[aoffset + col] = (byte) (data[index + col] >>> 24);
+          }
+          return alpha;
+        }
+        break;
+      case BufferedImage.TYPE_4BYTE_ABGR:
+      case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+          ComponentSampleModel csm = (ComponentSampleModel) sm;
+          byte[] data = ((DataBufferByte) db).getData();
+          int stride = csm.getScanlineStride();
+          int pixelStride = csm.getPixelStride();
+          int ao = csm.getBandOffsets()[3];
+          for (int row = 0; row < height; row++) {
+            int index = db.getOffset() + (sy + row) * stride + sx * pixelStride + ao;
+            int aoffset = offset + row * scansize;
+            for (int col = 0; col < width; col++) {
+              alpha[aoffset + col] = data[index];
+              index += pixelStride;
+            }
+          }
+          return alpha;
+        }
+        break;
+    }
+    int[] pixels = new int[width];
+    for (int row = 0; row < height; row++) {
+      getRGB(image, x, y + row, width, 1, pixels);
+      int aoffset = offset + row * scansize;
+      for (int col = 0; col < width; col++)
+        alpha[aoffset + col] = (byte) (pixels[col] >>> 24);
+    }
+    return alpha;
+  }
+
+  /**
+   * Fill a block of pixels with a color whose alpha is multiplied by an alpha channel stored a byte per pixel. This
+   * is how a blurred or thresholded alpha channel becomes a shadow or a mask again. Pixels are written straight to the
+   * backing data buffer for TYPE_INT_ARGB and TYPE_INT_ARGB_PRE images.
+   *
+   * @param image    a BufferedImage object
+   * @param x        the left edge of the pixel block
+   * @param y        the top edge of the pixel block
+   * @param width    the width of the pixel block
+   * @param height   the height of the pixel block
+   * @param alpha    the alpha channel
+   * @param offset   the index in the array of the top left pixel
+   * @param scansize the distance between rows in the array
+   * @param color    the ARGB color
+   * @see #getAlpha
+   */
+  public static void setAlpha(BufferedImage image, int x, int y, int width, int height, byte[] alpha, int offset, int scansize, int color) {
+    // Every pixel is one of 256 values, so work them out up front
+    int[] table = new int[256];
+    int ca = color >>> 24;
+    for (int i = 0; i < 256; i++)
+      table[i] = ((i * ca + 127) / 255 << 24) | (color & 0xffffff);
+
+    WritableRaster raster = image.getRaster();
+    DataBuffer db = raster.getDataBuffer();
+    SampleModel sm = raster.getSampleModel();
     int type = image.getType();
-    if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
-      image.getRaster().setDataElements(x, y, width, height, pixels);
-    else
-      image.setRGB(x, y, width, height, pixels, 0, width);
+    if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE)
+      && db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+      if (type == BufferedImage.TYPE_INT_ARGB_PRE)
+        premultiply(table, 0, 256);
+      SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+      int[] data = ((DataBufferInt) db).getData();
+      int sx = x - raster.getSampleModelTranslateX();
+      int sy = y - raster.getSampleModelTranslateY();
+      for (int row = 0; row < height; row++) {
+        int index = db.getOffset() + sppsm.getOffset(sx, sy + row);
+        int aoffset = offset + row * scansize;
+        for (int col = 0; col < width; col++)
+          data[index + col] = table[alpha[aoffset + col] & 0xff];
+      }
+      return;
+    }
+    int[] pixels = new int[width];
+    for (int row = 0; row < height; row++) {
+      int aoffset = offset + row * scansize;
+      for (int col = 0; col < width; col++)
+        pixels[col] = table[alpha[aoffset + col] & 0xff];
+      setRGB(image, x, y + row, width, 1, pixels);
+    }
   }
-}
 
+  private static int[] grayLUT;
+
+  /**
+   * Get the ARGB values of the 256 levels of a TYPE_BYTE_GRAY image. The gray color space is linear,
+   * so this isn't the identity.
+   */
+  private static int[] getGrayLUT(ColorModel cm) {
+    int[] lut = grayLUT;
+    if (lut == null) {
+      lut = new int[256];
+      byte[] pixel = new byte[1];
+      for (int i = 0; i < 256; i++) {
+        pixel[0] = (byte) i;
+        lut[i] = cm.getRGB(pixel);
+      }
+      grayLUT = lut;
+    }
+    return lut;
+  }
+
+  /**
+   * Unpremultiply pixels the same way DirectColorModel does, so that the result matches BufferedImage.getRGB.
+   */
+  private static void unpremultiply(int[] p, int length) {
+    for (int i = 0; i < length; i++) {
+      int rgb = p[i];
+      int a = (rgb >> 24) & 0xff;
+      if (a == 0)
+        p[i] = 0;
+      else if (a != 255) {
+        int r = Math.min(255, (int) (((rgb >> 16) & 0xff) * 255.0f / a + 0.5f));
+        int g = Math.min(255, (int) (((rgb >> 8) & 0xff) * 255.0f / a + 0.5f));
+        int b = Math.min(255, (int) ((rgb & 0xff) * 255.0f / a + 0.5f));
+        p[i] = (a << 24) | (r << 16) | (g << 8) | b;
+      }
+    }
+  }
+
+  /**
+   * Premultiply pixels the same way DirectColorModel does, so that the result matches BufferedImage.setRGB.
+   */
+  private static void premultiply(int[] p, int offset, int length) {
+    length += offset;
+    for (int i = offset; i < length; i++) {
+      int rgb = p[i];
+      int a = (rgb >> 24) & 0xff;
+      if (a != 255) {
+        float f = a / 255.0f;
+        int r = (int) (((rgb >> 16) & 0xff) * f + 0.5f);
+        int g = (int) (((rgb >> 8) & 0xff) * f + 0.5f);
+        int b = (int) ((rgb & 0xff) * f + 0.5f);
+        p[i] = (a << 24) | (r << 16) | (g << 8) | b;
+      }
+    }
+  }
+}
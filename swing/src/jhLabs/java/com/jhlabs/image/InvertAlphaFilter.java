@@ -22,6 +22,7 @@ package com.jhlabs.image;
 public class InvertAlphaFilter extends PointFilter {
 
   public InvertAlphaFilter() {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
   }
 
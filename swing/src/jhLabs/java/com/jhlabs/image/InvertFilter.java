@@ -22,6 +22,7 @@ package com.jhlabs.image;
 public class InvertFilter extends PointFilter {
 
   public InvertFilter() {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
   }
 
@@ -22,6 +22,7 @@ package com.jhlabs.image;
 public class JavaLnFFilter extends PointFilter {
 
   public JavaLnFFilter() {
+    canFilterInParallel = true;
   }
 
   public int filterRGB(int x, int y, int rgb) {
@@ -39,6 +39,7 @@ public class KaleidoscopeFilter extends TransformFilter {
    */
   public KaleidoscopeFilter() {
     setEdgeAction(CLAMP);
+    canFilterInParallel = true;
   }
 
   /**
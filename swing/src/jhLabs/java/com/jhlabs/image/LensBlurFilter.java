@@ -19,6 +19,12 @@ package com.jhlabs.image;
 import com.jhlabs.math.FFT;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * A filter which use FFTs to simulate lens blur on an image.
@@ -146,10 +152,8 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
 
     FFT fft = new FFT(Math.max(log2rows, log2cols));
 
-    int[] rgb = new int[w * h];
-    float[][] mask = new float[2][w * h];
-    float[][] gb = new float[2][w * h];
-    float[][] ar = new float[2][w * h];
+    ScratchBuffers buffers = ScratchBuffers.getDefault();
+    float[][] mask = {buffers.getFloats(w * h), buffers.getFloats(w * h)};
 
     // Create the kernel
     double polyAngle = Math.PI / sides;
@@ -191,12 +195,71 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
       }
     }
 
-    fft.transform2D(mask[0], mask[1], w, h, true);
+    if (parallel)
+      fft.transform2D(mask[0], mask[1], w, h, true, RowBands.getPool(forkJoinPool));
+    else
+      fft.transform2D(mask[0], mask[1], w, h, true);
+
+    // Each row of tiles is independent, so rows of tiles can be filtered concurrently
+    Tiles tiles = new Tiles(src, dst, width, height, iradius, tileWidth, tileHeight, w, h, fft, mask);
+    int tileStep = tileHeight - 2 * iradius;
+    if (parallel && !(dst.getColorModel() instanceof IndexColorModel)) {
+      ForkJoinPool pool = RowBands.getPool(forkJoinPool);
+      List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      for (int tileY = -iradius; tileY < height; tileY += tileStep) {
+        final int ty = tileY;
+        tasks.add(pool.submit(() -> tiles.filterRow(ty)));
+      }
+      for (ForkJoinTask<?> task : tasks)
+        task.join();
+    } else {
+      for (int tileY = -iradius; tileY < height; tileY += tileStep)
+        tiles.filterRow(tileY);
+    }
 
-    for (int tileY = -iradius; tileY < height; tileY += tileHeight - 2 * iradius) {
-      for (int tileX = -iradius; tileX < width; tileX += tileWidth - 2 * iradius) {
-//                System.out.println("Tile: "+tileX+" "+tileY+" "+tileWidth+" "+tileHeight);
+    buffers.release(mask[0]);
+    buffers.release(mask[1]);
+    return dst;
+  }
+
+  /**
+   * The tiling of an image, and the transformed kernel.
+   */
+  private class Tiles {
+    private final BufferedImage src, dst;
+    private final int width, height, iradius, tileWidth, tileHeight, w, h;
+    private final FFT fft;
+    private final float[][] mask;
+
+    Tiles(BufferedImage src, BufferedImage dst, int width, int height, int iradius, int tileWidth, int tileHeight, int w, int h, FFT fft, float[][] mask) {
+      this.src = src;
+      this.dst = dst;
+      this.width = width;
+      this.height = height;
+      this.iradius = iradius;
+      this.tileWidth = tileWidth;
+      this.tileHeight = tileHeight;
+      this.w = w;
+      this.h = h;
+      this.fft = fft;
+      this.mask = mask;
+    }
+
+    /**
+     * Filter one row of tiles. Each call has its own pixel and FFT buffers.
+     *
+     * @param tileY the top of the row of tiles, including the overlap
+     */
+    void filterRow(int tileY) {
+      int cols = w, rows = h;
+      ScratchBuffers buffers = ScratchBuffers.getDefault();
+      int[] rgb = buffers.getInts(w * h);
+      Arrays.fill(rgb, 0);
+      float[][] gb = {buffers.getFloats(w * h), buffers.getFloats(w * h)};
+      float[][] ar = {buffers.getFloats(w * h), buffers.getFloats(w * h)};
+      int i;
 
+      for (int tileX = -iradius; tileX < width; tileX += tileWidth - 2 * iradius) {
         // Clip the tile to the image bounds
         int tx = tileX, ty = tileY, tw = tileWidth, th = tileHeight;
         int fx = 0, fy = 0;
@@ -223,7 +286,7 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
           int j;
           if (imageY < 0)
             j = fy;
-          else if (imageY > height)
+          else if (imageY >= height)
             j = fy + th - 1;
           else
             j = y;
@@ -233,7 +296,7 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
             int k;
             if (imageX < 0)
               k = fx;
-            else if (imageX > width)
+            else if (imageX >= width)
               k = fx + tw - 1;
             else
               k = x;
@@ -330,8 +393,19 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
           th = height - ty;
         dst.setRGB(tx, ty, tw, th, rgb, iradius * w + iradius, w);
       }
+
+      buffers.release(rgb);
+      for (int j = 0; j < 2; j++) {
+        buffers.release(gb[j]);
+        buffers.release(ar[j]);
+      }
     }
-    return dst;
+  }
+
+  public AbstractBufferedImageOp getScaledInstance(float scale) {
+    LensBlurFilter f = (LensBlurFilter) super.getScaledInstance(scale);
+    f.radius = radius * scale;
+    return f;
   }
 
   public String toString() {
@@ -64,13 +64,30 @@ public class LevelsFilter extends WholeImageFilter {
     return highOutputLevel;
   }
 
-  protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-    Histogram histogram = new Histogram(inPixels, width, height, 0, width);
+  /**
+   * Set the input levels to stretch the values in a histogram over the output range, leaving out a percentage of the
+   * samples at each end. The histogram might be one kept up to date as an image is edited, in which case this costs
+   * the same however large the image is.
+   *
+   * @param histogram the histogram
+   * @param clip      the percentage of samples to leave out at each end
+   */
+  public void setLevelsFromHistogram(Histogram histogram, float clip) {
+    if (histogram.getNumSamples() < 1)
+      return;
+    int low = 255, high = 0;
+    for (int i = Histogram.RED; i <= Histogram.BLUE; i++) {
+      low = Math.min(low, histogram.getPercentile(i, clip));
+      high = Math.max(high, histogram.getPercentile(i, 100 - clip));
+    }
+    lowLevel = low / 255f;
+    highLevel = high / 255f;
+  }
 
+  protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
     int i, j;
 
-    if (histogram.getNumSamples() > 0) {
-      float scale = 255.0f / histogram.getNumSamples();
+    if (width * height > 0) {
       lut = new int[3][256];
 
       float low = lowLevel * 255;
@@ -84,12 +101,18 @@ public class LevelsFilter extends WholeImageFilter {
     } else
       lut = null;
 
-    i = 0;
-    for (int y = 0; y < height; y++)
-      for (int x = 0; x < width; x++) {
-        inPixels[i] = filterRGB(x, y, inPixels[i]);
-        i++;
-      }
+    RowBands.Task task = (y0, y1) -> {
+      int index = y0 * width;
+      for (int y = y0; y < y1; y++)
+        for (int x = 0; x < width; x++) {
+          inPixels[index] = filterRGB(x, y, inPixels[index]);
+          index++;
+        }
+    };
+    if (parallel)
+      RowBands.process(forkJoinPool, width, height, task);
+    else
+      task.run(0, height);
     lut = null;
 
     return inPixels;
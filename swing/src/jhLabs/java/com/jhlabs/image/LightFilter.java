@@ -527,6 +527,36 @@ public class LightFilter extends WholeImageFilter {
     return 0;
   }
 
+  public AbstractBufferedImageOp getScaledInstance(float scale) {
+    LightFilter f = (LightFilter) super.getScaledInstance(scale);
+    // Bumps keep their slope when their height is scaled along with their width
+    f.bumpHeight = bumpHeight * scale;
+    f.bumpSoftness = bumpSoftness * scale;
+    f.viewDistance = viewDistance * scale;
+    for (int i = 0; i < f.lights.size(); i++) {
+      Light light = (Light) f.lights.elementAt(i);
+      light.distance *= scale;
+    }
+    return f;
+  }
+
+  public Object clone() {
+    LightFilter f = (LightFilter) super.clone();
+    // Lights are prepared for each image, and the shading works in scratch vectors, so neither can be shared
+    f.lights = new Vector();
+    for (int i = 0; i < lights.size(); i++)
+      f.lights.addElement(((Light) lights.elementAt(i)).clone());
+    f.l = new Vector3f();
+    f.v = new Vector3f();
+    f.n = new Vector3f();
+    f.shadedColor = new Color4f();
+    f.diffuse_color = new Color4f();
+    f.specular_color = new Color4f();
+    f.tmpv = new Vector3f();
+    f.tmpv2 = new Vector3f();
+    return f;
+  }
+
   public String toString() {
     return "Stylize/Light Effects...";
   }
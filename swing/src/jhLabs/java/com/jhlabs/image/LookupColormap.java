@@ -0,0 +1,96 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+/**
+ * A colormap which samples another colormap into a table, so that looking up a color costs the same however
+ * expensive the original colormap is. Values are rounded to the nearest entry, so with the default size of 4096
+ * entries the colors are those of values within 1/8190 of the ones asked for.
+ * <p>
+ * Wrap an expensive colormap in a LookupColormap before giving it to a filter which looks up a color for every
+ * pixel. Those filters use {@link #compile}, which does this for SpectrumColormap and leaves other colormaps alone.
+ */
+public class LookupColormap implements Colormap {
+
+  /**
+   * The default number of entries in the table.
+   */
+  public final static int DEFAULT_SIZE = 4096;
+
+  private final int[] table;
+
+  /**
+   * Construct a LookupColormap with the default size.
+   *
+   * @param colormap the colormap to sample
+   */
+  public LookupColormap(Colormap colormap) {
+    this(colormap, DEFAULT_SIZE);
+  }
+
+  /**
+   * Construct a LookupColormap.
+   *
+   * @param colormap the colormap to sample
+   * @param size     the number of entries in the table, at least 2
+   */
+  public LookupColormap(Colormap colormap, int size) {
+    if (size < 2)
+      throw new IllegalArgumentException("Size must be at least 2");
+    table = new int[size];
+    for (int i = 0; i < size; i++)
+      table[i] = colormap.getColor((float) i / (size - 1));
+  }
+
+  /**
+   * Get the number of entries in the table.
+   *
+   * @return the size
+   */
+  public int getSize() {
+    return table.length;
+  }
+
+  public int getColor(float v) {
+    int n = (int) (v * (table.length - 1) + 0.5f);
+    if (n < 0)
+      n = 0;
+    else if (n >= table.length)
+      n = table.length - 1;
+    return table[n];
+  }
+
+  /**
+   * Get a colormap which gives the same colors as the given one, or very nearly, and is quick to evaluate. A
+   * SpectrumColormap, whose colors are fixed and slow to work out, is replaced by a table which is sampled the first
+   * time it is needed and then shared. Any other colormap is returned as it is, so that its colors are exact.
+   *
+   * @param colormap the colormap, may be null
+   * @return the colormap to use
+   */
+  public static Colormap compile(Colormap colormap) {
+    if (colormap != null && colormap.getClass() == SpectrumColormap.class)
+      return SpectrumTable.colormap;
+    return colormap;
+  }
+
+  // Holds the sampled SpectrumColormap, which is built the first time compile is given one
+  private static class SpectrumTable {
+    final static LookupColormap colormap = new LookupColormap(new SpectrumColormap());
+  }
+
+}
@@ -39,6 +39,7 @@ public class MapColorsFilter extends PointFilter {
    * @param newColor the color to replace it with
    */
   public MapColorsFilter(int oldColor, int newColor) {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
     this.oldColor = oldColor;
     this.newColor = newColor;
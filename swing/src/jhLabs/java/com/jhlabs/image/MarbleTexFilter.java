@@ -26,6 +26,8 @@ public class MarbleTexFilter extends PointFilter {
   private float turbulence = 1;
   private float turbulenceFactor = 0.5f;
   private Colormap colormap;
+  // The colormap compiled for quick lookups, for the image being filtered
+  private Colormap lookupColormap;
   private float m00 = 1.0f;
   private float m01 = 0.0f;
   private float m10 = 0.0f;
@@ -82,12 +84,17 @@ public class MarbleTexFilter extends PointFilter {
 
   public void setColormap(Colormap colormap) {
     this.colormap = colormap;
+    lookupColormap = null;
   }
 
   public Colormap getColormap() {
     return colormap;
   }
 
+  public void setDimensions(int width, int height) {
+    lookupColormap = LookupColormap.compile(colormap);
+  }
+
   public int filterRGB(int x, int y, int rgb) {
     float nx = m00 * x + m01 * y;
     float ny = m10 * x + m11 * y;
@@ -95,6 +102,7 @@ public class MarbleTexFilter extends PointFilter {
     ny /= scale;
 
     int a = rgb & 0xff000000;
+    Colormap colormap = lookupColormap != null ? lookupColormap : this.colormap;
     if (colormap != null) {
 //			float f = Noise.turbulence2(nx, ny, turbulence);
 //			f = 3*turbulenceFactor*f+ny;
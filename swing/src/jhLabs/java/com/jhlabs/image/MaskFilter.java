@@ -28,6 +28,7 @@ public class MaskFilter extends PointFilter {
   }
 
   public MaskFilter(int mask) {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
     setMask(mask);
   }
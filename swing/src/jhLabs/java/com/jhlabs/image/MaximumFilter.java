@@ -19,37 +19,45 @@ package com.jhlabs.image;
 import java.awt.*;
 
 /**
- * A filter which replcaes each pixel by the maximum of itself and its eight neightbours.
+ * A filter which replaces each channel of each pixel by its maximum over a square around it. With the default radius
+ * of 1 this is the pixel itself and its eight neighbours. The time taken doesn't depend on the radius.
+ *
+ * @see RankFilter
  */
 public class MaximumFilter extends WholeImageFilter {
 
+  private int radius = 1;
+
   public MaximumFilter() {
   }
 
+  /**
+   * Set the radius of the square around each pixel.
+   *
+   * @param radius the radius
+   * @min-value 0
+   * @max-value 100+
+   * @see #getRadius
+   */
+  public void setRadius(int radius) {
+    this.radius = radius;
+  }
+
+  /**
+   * Get the radius of the square around each pixel.
+   *
+   * @return the radius
+   * @see #setRadius
+   */
+  public int getRadius() {
+    return radius;
+  }
+
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-    int index = 0;
-    int[] outPixels = new int[width * height];
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        int pixel = 0xff000000;
-        for (int dy = -1; dy <= 1; dy++) {
-          int iy = y + dy;
-          int ioffset;
-          if (0 <= iy && iy < height) {
-            ioffset = iy * width;
-            for (int dx = -1; dx <= 1; dx++) {
-              int ix = x + dx;
-              if (0 <= ix && ix < width) {
-                pixel = PixelUtils.combinePixels(pixel, inPixels[ioffset + ix], PixelUtils.MAX);
-              }
-            }
-          }
-        }
-        outPixels[index++] = pixel;
-      }
-    }
-    return outPixels;
+    RankFilter filter = new RankFilter(radius, 100);
+    filter.setParallel(parallel);
+    filter.setForkJoinPool(forkJoinPool);
+    return filter.filterPixels(width, height, inPixels, transformedSpace);
   }
 
   public String toString() {
@@ -19,7 +19,10 @@ package com.jhlabs.image;
 import java.awt.*;
 
 /**
- * A filter which performs a 3x3 median operation. Useful for removing dust and noise.
+ * A filter which performs a 3x3 median operation. Useful for removing dust and noise. Each pixel is replaced by
+ * whichever of its neighbours is closest to all the others, so no new colors are made.
+ *
+ * @see RankFilter for a per-channel median over any radius
  */
 public class MedianFilter extends WholeImageFilter {
 
@@ -72,7 +75,7 @@ public class MedianFilter extends WholeImageFilter {
     int[] r = new int[9];
     int[] g = new int[9];
     int[] b = new int[9];
-    int[] outPixels = new int[width * height];
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
 
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
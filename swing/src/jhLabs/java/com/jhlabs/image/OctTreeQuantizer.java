@@ -16,13 +16,16 @@ limitations under the License.
 
 package com.jhlabs.image;
 
-import java.io.PrintStream;
-import java.util.Vector;
+import java.util.Arrays;
 
 /**
  * An image Quantizer based on the Octree algorithm. This is a very basic implementation
  * at present and could be much improved by picking the nodes to reduce more carefully
  * (i.e. not completely at random) when I get the time.
+ * <p>
+ * The tree is kept in flat arrays indexed by node number rather than as node objects, so adding pixels doesn't
+ * allocate. Nodes merged into their parent are skipped in the per-level lists until enough have built up to be
+ * worth compacting the lists, and their numbers are then reused.
  */
 public class OctTreeQuantizer implements Quantizer {
 
@@ -32,49 +35,39 @@ public class OctTreeQuantizer implements Quantizer {
   final static int MAX_LEVEL = 5;
 
   /**
-   * An Octtree node.
+   * The number of merged nodes to collect before compacting the lists.
    */
-  class OctTreeNode {
-    int children;
-    int level;
-    OctTreeNode parent;
-    OctTreeNode leaf[] = new OctTreeNode[8];
-    boolean isLeaf;
-    int count;
-    int totalRed;
-    int totalGreen;
-    int totalBlue;
-    int index;
-
-    /**
-     * A debugging method which prints the tree out.
-     */
-    public void list(PrintStream s, int level) {
-      for (int i = 0; i < level; i++)
-        System.out.print(' ');
-      if (count == 0)
-        System.out.println(index + ": count=" + count);
-      else
-        System.out.println(index + ": count=" + count + " red=" + (totalRed / count) + " green=" + (totalGreen / count) + " blue=" + (totalBlue / count));
-      for (int i = 0; i < 8; i++)
-        if (leaf[i] != null)
-          leaf[i].list(s, level + 2);
-    }
-  }
+  private final static int COMPACT_THRESHOLD = 4096;
+
+  // The root is node 0, so 0 also means no child
+  private final static int ROOT = 0;
+
+  private int[] child = new int[64 * 8];
+  private int[] children = new int[64];
+  private boolean[] isLeaf = new boolean[64];
+  private boolean[] merged = new boolean[64];
+  private int[] count = new int[64];
+  private long[] totalRed = new long[64];
+  private long[] totalGreen = new long[64];
+  private long[] totalBlue = new long[64];
+  private int[] index = new int[64];
+  private int nodes = 1;
+
+  private int[] freeNodes = new int[16];
+  private int numFree = 0;
+  private int[] mergedNodes = new int[16];
+  private int numMerged = 0;
+
+  // The nodes at each level, in the order they were made
+  private int[][] colorList = new int[MAX_LEVEL + 1][16];
+  private int[] colorListSize = new int[MAX_LEVEL + 1];
 
-  private int nodes = 0;
-  private OctTreeNode root;
   private int reduceColors;
   private int maximumColors;
   private int colors = 0;
-  private Vector[] colorList;
 
   public OctTreeQuantizer() {
     setup(256);
-    colorList = new Vector[MAX_LEVEL + 1];
-    for (int i = 0; i < MAX_LEVEL + 1; i++)
-      colorList[i] = new Vector();
-    root = new OctTreeNode();
   }
 
   /**
@@ -113,122 +106,164 @@ public class OctTreeQuantizer implements Quantizer {
     int green = (rgb >> 8) & 0xff;
     int blue = rgb & 0xff;
 
-    OctTreeNode node = root;
+    int node = ROOT;
 
     for (int level = 0; level <= MAX_LEVEL; level++) {
-      OctTreeNode child;
-      int bit = 0x80 >> level;
-
-      int index = 0;
-      if ((red & bit) != 0)
-        index += 4;
-      if ((green & bit) != 0)
-        index += 2;
-      if ((blue & bit) != 0)
-        index += 1;
-
-      child = node.leaf[index];
-
-      if (child == null)
-        return node.index;
-      else if (child.isLeaf)
-        return child.index;
+      int c = child[node * 8 + octant(red, green, blue, level)];
+
+      if (c == ROOT)
+        return index[node];
+      else if (isLeaf[c])
+        return index[c];
       else
-        node = child;
+        node = c;
     }
     System.out.println("getIndexForColor failed");
     return 0;
   }
 
+  private static int octant(int red, int green, int blue, int level) {
+    int shift = 7 - level;
+    return ((red >> shift) & 1) << 2 | ((green >> shift) & 1) << 1 | ((blue >> shift) & 1);
+  }
+
   private void insertColor(int rgb) {
     int red = (rgb >> 16) & 0xff;
     int green = (rgb >> 8) & 0xff;
     int blue = rgb & 0xff;
 
-    OctTreeNode node = root;
+    int node = ROOT;
 
-//		System.out.println("insertColor="+Integer.toHexString(rgb));
     for (int level = 0; level <= MAX_LEVEL; level++) {
-      OctTreeNode child;
-      int bit = 0x80 >> level;
-
-      int index = 0;
-      if ((red & bit) != 0)
-        index += 4;
-      if ((green & bit) != 0)
-        index += 2;
-      if ((blue & bit) != 0)
-        index += 1;
+      int slot = node * 8 + octant(red, green, blue, level);
+      int c = child[slot];
 
-      child = node.leaf[index];
+      if (c == ROOT) {
+        children[node]++;
 
-      if (child == null) {
-        node.children++;
-
-        child = new OctTreeNode();
-        child.parent = node;
-        node.leaf[index] = child;
-        node.isLeaf = false;
-        nodes++;
-        colorList[level].addElement(child);
+        c = newNode();
+        child[slot] = c;
+        isLeaf[node] = false;
+        addToList(level, c);
 
         if (level == MAX_LEVEL) {
-          child.isLeaf = true;
-          child.count = 1;
-          child.totalRed = red;
-          child.totalGreen = green;
-          child.totalBlue = blue;
-          child.level = level;
+          isLeaf[c] = true;
+          count[c] = 1;
+          totalRed[c] = red;
+          totalGreen[c] = green;
+          totalBlue[c] = blue;
           colors++;
           return;
         }
 
-        node = child;
-      } else if (child.isLeaf) {
-        child.count++;
-        child.totalRed += red;
-        child.totalGreen += green;
-        child.totalBlue += blue;
+        node = c;
+      } else if (isLeaf[c]) {
+        count[c]++;
+        totalRed[c] += red;
+        totalGreen[c] += green;
+        totalBlue[c] += blue;
         return;
       } else
-        node = child;
+        node = c;
     }
     System.out.println("insertColor failed");
   }
 
+  private int newNode() {
+    int node;
+    if (numFree > 0) {
+      node = freeNodes[--numFree];
+      Arrays.fill(child, node * 8, node * 8 + 8, ROOT);
+    } else {
+      if (nodes == children.length)
+        grow(nodes * 2);
+      node = nodes++;
+    }
+    children[node] = 0;
+    isLeaf[node] = false;
+    merged[node] = false;
+    count[node] = 0;
+    totalRed[node] = totalGreen[node] = totalBlue[node] = 0;
+    index[node] = 0;
+    return node;
+  }
+
+  private void grow(int capacity) {
+    child = Arrays.copyOf(child, capacity * 8);
+    children = Arrays.copyOf(children, capacity);
+    isLeaf = Arrays.copyOf(isLeaf, capacity);
+    merged = Arrays.copyOf(merged, capacity);
+    count = Arrays.copyOf(count, capacity);
+    totalRed = Arrays.copyOf(totalRed, capacity);
+    totalGreen = Arrays.copyOf(totalGreen, capacity);
+    totalBlue = Arrays.copyOf(totalBlue, capacity);
+    index = Arrays.copyOf(index, capacity);
+  }
+
+  private void addToList(int level, int node) {
+    if (colorListSize[level] == colorList[level].length)
+      colorList[level] = Arrays.copyOf(colorList[level], colorListSize[level] * 2);
+    colorList[level][colorListSize[level]++] = node;
+  }
+
+  /**
+   * Take merged nodes out of the lists, after which their numbers can be reused.
+   */
+  private void compactLists() {
+    for (int level = 0; level <= MAX_LEVEL; level++) {
+      int[] list = colorList[level];
+      int size = 0;
+      for (int j = 0; j < colorListSize[level]; j++) {
+        if (!merged[list[j]])
+          list[size++] = list[j];
+      }
+      colorListSize[level] = size;
+    }
+    if (numFree + numMerged > freeNodes.length)
+      freeNodes = Arrays.copyOf(freeNodes, numFree + numMerged);
+    System.arraycopy(mergedNodes, 0, freeNodes, numFree, numMerged);
+    numFree += numMerged;
+    numMerged = 0;
+  }
+
   private void reduceTree(int numColors) {
-    for (int level = MAX_LEVEL - 1; level >= 0; level--) {
-      Vector v = colorList[level];
-      if (v != null && v.size() > 0) {
-        for (int j = 0; j < v.size(); j++) {
-          OctTreeNode node = (OctTreeNode) v.elementAt(j);
-          if (node.children > 0) {
-            for (int i = 0; i < 8; i++) {
-              OctTreeNode child = node.leaf[i];
-              if (child != null) {
-                if (!child.isLeaf)
-                  System.out.println("not a leaf!");
-                node.count += child.count;
-                node.totalRed += child.totalRed;
-                node.totalGreen += child.totalGreen;
-                node.totalBlue += child.totalBlue;
-                node.leaf[i] = null;
-                node.children--;
-                colors--;
-                nodes--;
-                colorList[level + 1].removeElement(child);
-              }
+    try {
+      for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+        int[] list = colorList[level];
+        for (int j = 0; j < colorListSize[level]; j++) {
+          int node = list[j];
+          if (merged[node] || children[node] == 0)
+            continue;
+          for (int i = 0; i < 8; i++) {
+            int c = child[node * 8 + i];
+            if (c != ROOT) {
+              if (!isLeaf[c])
+                System.out.println("not a leaf!");
+              count[node] += count[c];
+              totalRed[node] += totalRed[c];
+              totalGreen[node] += totalGreen[c];
+              totalBlue[node] += totalBlue[c];
+              child[node * 8 + i] = ROOT;
+              children[node]--;
+              colors--;
+              merged[c] = true;
+              if (numMerged == mergedNodes.length)
+                mergedNodes = Arrays.copyOf(mergedNodes, numMerged * 2);
+              mergedNodes[numMerged++] = c;
             }
-            node.isLeaf = true;
-            colors++;
-            if (colors <= numColors)
-              return;
           }
+          isLeaf[node] = true;
+          colors++;
+          if (colors <= numColors)
+            return;
         }
       }
-    }
 
-    System.out.println("Unable to reduce the OctTree");
+      System.out.println("Unable to reduce the OctTree");
+    } finally {
+      if (numMerged >= COMPACT_THRESHOLD)
+        compactLists();
+    }
   }
 
   /**
@@ -238,7 +273,7 @@ public class OctTreeQuantizer implements Quantizer {
    */
   public int[] buildColorTable() {
     int[] table = new int[colors];
-    buildColorTable(root, table, 0);
+    buildColorTable(ROOT, table, 0);
     return table;
   }
 
@@ -258,25 +293,26 @@ public class OctTreeQuantizer implements Quantizer {
     }
     if (colors > maximumColors)
       reduceTree(maximumColors);
-    buildColorTable(root, table, 0);
+    buildColorTable(ROOT, table, 0);
   }
 
-  private int buildColorTable(OctTreeNode node, int[] table, int index) {
+  private int buildColorTable(int node, int[] table, int index) {
     if (colors > maximumColors)
       reduceTree(maximumColors);
 
-    if (node.isLeaf) {
-      int count = node.count;
+    if (isLeaf[node]) {
+      int count = this.count[node];
       table[index] = 0xff000000 |
-                     ((node.totalRed / count) << 16) |
-                     ((node.totalGreen / count) << 8) |
-                     node.totalBlue / count;
-      node.index = index++;
+                     ((int) (totalRed[node] / count) << 16) |
+                     ((int) (totalGreen[node] / count) << 8) |
+                     (int) (totalBlue[node] / count);
+      this.index[node] = index++;
     } else {
       for (int i = 0; i < 8; i++) {
-        if (node.leaf[i] != null) {
-          node.index = index;
-          index = buildColorTable(node.leaf[i], table, index);
+        int c = child[node * 8 + i];
+        if (c != ROOT) {
+          this.index[node] = index;
+          index = buildColorTable(c, table, index);
         }
       }
     }
@@ -284,4 +320,3 @@ public class OctTreeQuantizer implements Quantizer {
   }
 
 }
-
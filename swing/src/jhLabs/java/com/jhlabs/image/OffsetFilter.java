@@ -33,6 +33,7 @@ public class OffsetFilter extends TransformFilter {
     this.yOffset = yOffset;
     this.wrap = wrap;
     setEdgeAction(ZERO);
+    canFilterInParallel = true;
   }
 
   public void setXOffset(int xOffset) {
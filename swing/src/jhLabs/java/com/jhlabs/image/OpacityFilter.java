@@ -37,6 +37,7 @@ public class OpacityFilter extends PointFilter {
    * @param opacity the opacity (alpha) in the range 0..255
    */
   public OpacityFilter(int opacity) {
+    canFilterInParallel = true;
     setOpacity(opacity);
   }
 
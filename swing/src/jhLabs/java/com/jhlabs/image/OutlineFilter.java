@@ -28,39 +28,16 @@ public class OutlineFilter extends BinaryFilter {
   }
 
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-    int index = 0;
-    int[] outPixels = new int[width * height];
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        int pixel = inPixels[y * width + x];
-        if (blackFunction.isBlack(pixel)) {
-          int neighbours = 0;
-
-          for (int dy = -1; dy <= 1; dy++) {
-            int iy = y + dy;
-            int ioffset;
-            if (0 <= iy && iy < height) {
-              ioffset = iy * width;
-              for (int dx = -1; dx <= 1; dx++) {
-                int ix = x + dx;
-                if (!(dy == 0 && dx == 0) && 0 <= ix && ix < width) {
-                  int rgb = inPixels[ioffset + ix];
-                  if (blackFunction.isBlack(rgb))
-                    neighbours++;
-                } else
-                  neighbours++;
-              }
-            }
-          }
-
-          if (neighbours == 9)
-            pixel = newColor;
-        }
-        outPixels[index++] = pixel;
-      }
-
-    }
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
+    System.arraycopy(inPixels, 0, outPixels, 0, width * height);
+
+    // A black pixel is interior if all its neighbours are black, counting pixels off the sides as black
+    // but pixels off the top and bottom as white
+    BitPlane black = BitPlane.fromPixels(inPixels, width, height, blackFunction);
+    BitPlane interior = black.copy();
+    for (BitPlane neighbour : black.neighbours(true, false))
+      interior.and(neighbour);
+    interior.fill(outPixels, newColor);
     return outPixels;
   }
 
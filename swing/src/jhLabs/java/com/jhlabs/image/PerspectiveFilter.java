@@ -56,6 +56,7 @@ public class PerspectiveFilter extends TransformFilter {
    */
   public PerspectiveFilter(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3) {
     unitSquareToQuad(x0, y0, x1, y1, x2, y2, x3, y3);
+    canFilterInParallel = true;
   }
 
   public void setClip(boolean clip) {
@@ -267,6 +268,20 @@ public class PerspectiveFilter extends TransformFilter {
     out[1] = originalSpace.height * (D * x + E * y + F) / (G * x + H * y + I);
   }
 
+  protected void transformInverse(int x, int y, int length, float[] outX, float[] outY) {
+    float width = originalSpace.width;
+    float height = originalSpace.height;
+    float by = B * y;
+    float ey = E * y;
+    float hy = H * y;
+    for (int i = 0; i < length; i++) {
+      float fx = x + i;
+      float w = G * fx + hy + I;
+      outX[i] = width * (A * fx + by + C) / w;
+      outY[i] = height * (D * fx + ey + F) / w;
+    }
+  }
+
   public String toString() {
     return "Distort/Perspective...";
   }
@@ -234,10 +234,14 @@ public class PlasmaFilter extends WholeImageFilter {
       depth++;
 
     if (useColormap && colormap != null) {
+      // There are only 256 levels, so look each one up once
+      int[] colors = new int[256];
+      for (int i = 0; i < 256; i++)
+        colors[i] = colormap.getColor(i / 255.0f);
       int index = 0;
       for (int y = 0; y < height; y++) {
         for (int x = 0; x < width; x++) {
-          outPixels[index] = colormap.getColor((outPixels[index] & 0xff) / 255.0f);
+          outPixels[index] = colors[outPixels[index] & 0xff];
           index++;
         }
       }
@@ -16,47 +16,122 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
+import java.awt.image.IndexColorModel;
 
 /**
  * An abstract superclass for point filters. The interface is the same as the old RGBImageFilter.
+ * <p>
+ * Subclasses whose filterRGB method doesn't modify any state may set canFilterInParallel, in which case
+ * the image is split into bands of rows which are filtered concurrently when parallel execution is
+ * enabled with {@link #setParallel}. Such filters can also filter just a region of the image, as each pixel depends
+ * only on the same pixel of the source.
  */
 public abstract class PointFilter extends AbstractBufferedImageOp {
 
   protected boolean canFilterIndexColorModel = false;
 
+  /**
+   * Whether filterRGB may be called concurrently from several threads.
+   */
+  protected boolean canFilterInParallel = false;
+
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     int width = src.getWidth();
     int height = src.getHeight();
-    int type = src.getType();
-    WritableRaster srcRaster = src.getRaster();
 
     if (dst == null)
       dst = createCompatibleDestImage(src, null);
-    WritableRaster dstRaster = dst.getRaster();
 
     setDimensions(width, height);
 
-    int[] inPixels = new int[width];
-    for (int y = 0; y < height; y++) {
-      // We try to avoid calling getRGB on images as it causes them to become unmanaged, causing horrible performance problems.
-      if (type == BufferedImage.TYPE_INT_ARGB) {
-        srcRaster.getDataElements(0, y, width, 1, inPixels);
-        for (int x = 0; x < width; x++)
-          inPixels[x] = filterRGB(x, y, inPixels[x]);
-        dstRaster.setDataElements(0, y, width, 1, inPixels);
-      } else {
-        src.getRGB(0, y, width, 1, inPixels, 0, width);
-        for (int x = 0; x < width; x++)
-          inPixels[x] = filterRGB(x, y, inPixels[x]);
-        dst.setRGB(0, y, width, 1, inPixels, 0, width);
-      }
+    Rectangle r = new Rectangle(0, 0, width, height);
+    if (region != null && canFilterInParallel)
+      r = r.intersection(region);
+    if (r.isEmpty())
+      return dst;
+    int x0 = r.x;
+    int x1 = r.x + r.width;
+    int top = r.y;
+
+    if (parallel && canFilterInParallel && !(dst.getColorModel() instanceof IndexColorModel)) {
+      final BufferedImage fdst = dst;
+      RowBands.process(forkJoinPool, r.width, r.height, (y0, y1) -> filterRows(src, fdst, x0, x1, top + y0, top + y1));
+      return dst;
     }
 
+    filterRows(src, dst, x0, x1, r.y, r.y + r.height);
     return dst;
   }
 
+  public Rectangle getSourceRegion(Rectangle region, BufferedImage src) {
+    if (!canFilterInParallel)
+      return super.getSourceRegion(region, src);
+    return region.intersection(new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+  }
+
+  public Rectangle getDirtyRegion(Rectangle region, BufferedImage src) {
+    if (!canFilterInParallel)
+      return super.getDirtyRegion(region, src);
+    return region.intersection(new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+  }
+
+  /**
+   * Filter a block of rows.
+   *
+   * @param src the source image
+   * @param dst the destination image
+   * @param x0  the first column, inclusive
+   * @param x1  the last column, exclusive
+   * @param y0  the first row, inclusive
+   * @param y1  the last row, exclusive
+   */
+  protected void filterRows(BufferedImage src, BufferedImage dst, int x0, int x1, int y0, int y1) {
+    int width = src.getWidth();
+    int w = x1 - x0;
+
+    int[] srcData = ImageUtils.getPixelData(src);
+    int[] dstData = srcData != null ? ImageUtils.getPixelData(dst) : null;
+    if (dstData != null) {
+      // Work straight on the image arrays, TYPE_INT_RGB pixels have an undefined alpha which we make opaque
+      int alphaMask = src.getType() == BufferedImage.TYPE_INT_RGB ? 0xff000000 : 0;
+      for (int y = y0; y < y1; y++) {
+        int index = y * width + x0;
+        if (dstData != srcData)
+          System.arraycopy(srcData, index, dstData, index, w);
+        if (alphaMask != 0) {
+          for (int x = 0; x < w; x++)
+            dstData[index + x] |= alphaMask;
+        }
+        filterRow(x0, y, dstData, index, w);
+      }
+      return;
+    }
+
+    int[] inPixels = new int[w];
+    for (int y = y0; y < y1; y++) {
+      getRGB(src, x0, y, w, 1, inPixels);
+      filterRow(x0, y, inPixels, 0, w);
+      setRGB(dst, x0, y, w, 1, inPixels);
+    }
+  }
+
+  /**
+   * Filter a row of pixels in place. This calls filterRGB for each pixel, subclasses which can do a whole row faster
+   * than a pixel at a time may override it.
+   *
+   * @param x      the x coordinate of the first pixel
+   * @param y      the y coordinate of the row
+   * @param pixels the pixels
+   * @param offset the index of the first pixel in the array
+   * @param width  the number of pixels
+   */
+  protected void filterRow(int x, int y, int[] pixels, int offset, int width) {
+    for (int i = 0; i < width; i++)
+      pixels[offset + i] = filterRGB(x + i, y, pixels[offset + i]);
+  }
+
   public void setDimensions(int width, int height) {
   }
 
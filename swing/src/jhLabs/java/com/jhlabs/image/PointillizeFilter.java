@@ -60,14 +60,14 @@ public class PointillizeFilter extends CellularFilter {
     return fuzziness;
   }
 
-  public int getPixel(int x, int y, int[] inPixels, int width, int height) {
+  protected int getPixel(int x, int y, int[] inPixels, int width, int height, Point[] results) {
     float nx = m00 * x + m01 * y;
     float ny = m10 * x + m11 * y;
     nx /= scale;
     ny /= scale * stretch;
     nx += 1000;
     ny += 1000;  // Reduce artifacts around 0,0
-    float f = evaluate(nx, ny);
+    float f = evaluate(nx, ny, results);
 
     float f1 = results[0].distance;
     int srcx = ImageMath.clamp((int) ((results[0].x - 1000) * scale), 0, width - 1);
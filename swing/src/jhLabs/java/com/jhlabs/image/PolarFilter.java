@@ -58,6 +58,7 @@ public class PolarFilter extends TransformFilter {
   public PolarFilter(int type) {
     this.type = type;
     setEdgeAction(CLAMP);
+    canFilterInParallel = true;
   }
 
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
@@ -23,6 +23,7 @@ package com.jhlabs.image;
 public class PremultiplyFilter extends PointFilter {
 
   public PremultiplyFilter() {
+    canFilterInParallel = true;
   }
 
   public int filterRGB(int x, int y, int rgb) {
@@ -0,0 +1,190 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders previews of slow filters progressively. The image is first filtered at a small scale, which is quick, and
+ * then at successively larger ones up to full size, each result being passed to a listener as soon as it's ready.
+ * Filters which extend AbstractBufferedImageOp are copied for each scale with
+ * {@link AbstractBufferedImageOp#getScaledInstance}, so that radii and other lengths in pixels are scaled to match.
+ * <p>
+ * Starting a new render, as when a slider moves, cancels the one before it. Levels which haven't been started yet
+ * are skipped, but a level which is already being filtered runs to completion, as filters can't be interrupted, and
+ * its result is thrown away. The scaled down copies of the source image are kept between renders of the same image,
+ * so call {@link #clearCache} if the source is changed in place.
+ * <p>
+ * The filters are copied when the render is started, so the original may be changed straight away. Filters which
+ * don't extend AbstractBufferedImageOp are used as they are, and must not be changed until the render finishes.
+ */
+public class ProgressivePreview {
+
+  /**
+   * Receives the levels of a progressive render.
+   */
+  public interface Listener {
+    /**
+     * Called with each level of the render as it's finished, on the thread which filtered it. Swing listeners
+     * should pass the image to the event dispatch thread to display it. A level may occasionally arrive just
+     * after its render has been cancelled.
+     *
+     * @param image the filtered image
+     * @param scale the scale of the image, 1 for the full sized result
+     */
+    void imageRendered(BufferedImage image, float scale);
+  }
+
+  private float[] scales = {0.125f, 0.25f, 0.5f, 1};
+  private Executor executor = ForkJoinPool.commonPool();
+  private CompletableFuture<BufferedImage> current;
+
+  private final Object sourceLock = new Object();
+  private BufferedImage source;
+  private BufferedImage[] sources;
+  private float[] sourceScales;
+
+  /**
+   * Set the scales to render at, smallest first.
+   *
+   * @param scales the scales, each greater than the one before, and between 0 and 1
+   * @see #getScales
+   */
+  public void setScales(float[] scales) {
+    if (scales.length == 0)
+      throw new IllegalArgumentException("No scales");
+    for (int i = 0; i < scales.length; i++) {
+      if (!(scales[i] > 0 && scales[i] <= 1) || (i > 0 && scales[i] <= scales[i - 1]))
+        throw new IllegalArgumentException("Scales must increase from above 0 to at most 1");
+    }
+    this.scales = scales.clone();
+  }
+
+  /**
+   * Get the scales to render at.
+   *
+   * @return the scales
+   * @see #setScales
+   */
+  public float[] getScales() {
+    return scales.clone();
+  }
+
+  /**
+   * Set the executor which renders run on.
+   *
+   * @param executor the executor
+   * @see #getExecutor
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Get the executor which renders run on.
+   *
+   * @return the executor
+   * @see #setExecutor
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Start rendering a filter progressively, cancelling any render already in progress.
+   *
+   * @param src      the source image
+   * @param filter   the filter
+   * @param listener the listener to pass each level to
+   * @return a future which completes with the full sized result, and is cancelled if the render is
+   */
+  public synchronized CompletableFuture<BufferedImage> render(BufferedImage src, BufferedImageOp filter, Listener listener) {
+    cancel();
+    float[] scales = this.scales;
+    BufferedImageOp[] filters = new BufferedImageOp[scales.length];
+    for (int i = 0; i < scales.length; i++)
+      filters[i] = filter instanceof AbstractBufferedImageOp ? ((AbstractBufferedImageOp) filter).getScaledInstance(scales[i]) : filter;
+
+    CompletableFuture<BufferedImage> future = new CompletableFuture<BufferedImage>();
+    current = future;
+    executor.execute(() -> {
+      try {
+        BufferedImage out = null;
+        for (int i = 0; i < scales.length; i++) {
+          if (future.isDone())
+            return;
+          out = filters[i].filter(getSource(src, scales, i), null);
+          if (future.isDone())
+            return;
+          listener.imageRendered(out, scales[i]);
+        }
+        future.complete(out);
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Cancel the render in progress, if any.
+   */
+  public synchronized void cancel() {
+    if (current != null) {
+      current.cancel(false);
+      current = null;
+    }
+  }
+
+  /**
+   * Forget the scaled down copies of the last source image.
+   */
+  public void clearCache() {
+    synchronized (sourceLock) {
+      source = null;
+      sources = null;
+      sourceScales = null;
+    }
+  }
+
+  /**
+   * Get a copy of the source scaled down for a level, making it the first time it's needed.
+   */
+  private BufferedImage getSource(BufferedImage src, float[] scales, int level) {
+    float scale = scales[level];
+    if (scale == 1)
+      return src;
+    synchronized (sourceLock) {
+      if (src != source || scales != sourceScales) {
+        source = src;
+        sourceScales = scales;
+        sources = new BufferedImage[scales.length];
+      }
+      if (sources[level] == null) {
+        int width = Math.max(1, Math.round(src.getWidth() * scale));
+        int height = Math.max(1, Math.round(src.getHeight() * scale));
+        sources[level] = new ScaleFilter(width, height).filter(src, null);
+      }
+      return sources[level];
+    }
+  }
+
+}
@@ -21,14 +21,25 @@ import java.awt.*;
 /**
  * A filter which quantizes an image to a set number of colors - useful for producing
  * images which are to be encoded using an index color model. The filter can perform
- * Floyd-Steinberg error-diffusion dithering if required. At present, the quantization
- * is done using an octtree algorithm but I eventually hope to add more quantization
- * methods such as median cut. Note: at present, the filter produces an image which
+ * Floyd-Steinberg error-diffusion dithering if required. The quantization is done using
+ * an octtree algorithm, or Wu's variance minimization algorithm, which gives a better
+ * palette and can count the image in parallel. By default the dithering spreads each pixel's error along its own row,
+ * as it always has, and {@link #setDiffuseDownwards} spreads it to the row below as well. Note: at present, the filter produces an image which
  * uses the RGB color model (because the application it was written for required it).
  * I hope to extend it to produce an IndexColorModel by request.
  */
 public class QuantizeFilter extends WholeImageFilter {
 
+  /**
+   * Quantize with an octtree.
+   */
+  public final static int OCTTREE = 0;
+
+  /**
+   * Quantize with Wu's algorithm.
+   */
+  public final static int WU = 1;
+
   /**
    * Floyd-Steinberg dithering matrix.
    */
@@ -42,6 +53,8 @@ public class QuantizeFilter extends WholeImageFilter {
   private boolean dither;
   private int numColors = 256;
   private boolean serpentine = true;
+  private boolean diffuseDownwards;
+  private int algorithm = OCTTREE;
 
   /**
    * Set the number of colors to quantize to.
@@ -97,76 +110,172 @@ public class QuantizeFilter extends WholeImageFilter {
     return serpentine;
   }
 
+  /**
+   * Set whether the error is spread to the row below, as in Floyd and Steinberg's algorithm. By default every row
+   * of the matrix is spread along the pixel's own row, as this filter always has, which is faster in parallel as
+   * the rows don't depend on each other.
+   *
+   * @param diffuseDownwards true to spread the error to the row below
+   * @see #getDiffuseDownwards
+   */
+  public void setDiffuseDownwards(boolean diffuseDownwards) {
+    this.diffuseDownwards = diffuseDownwards;
+  }
+
+  /**
+   * Get whether the error is spread to the row below.
+   *
+   * @return true if the error is spread to the row below
+   * @see #setDiffuseDownwards
+   */
+  public boolean getDiffuseDownwards() {
+    return diffuseDownwards;
+  }
+
+  /**
+   * Set the quantization algorithm.
+   *
+   * @param algorithm the algorithm, OCTTREE or WU
+   * @see #getAlgorithm
+   */
+  public void setAlgorithm(int algorithm) {
+    this.algorithm = algorithm;
+  }
+
+  /**
+   * Get the quantization algorithm.
+   *
+   * @return the algorithm
+   * @see #setAlgorithm
+   */
+  public int getAlgorithm() {
+    return algorithm;
+  }
+
   public void quantize(int[] inPixels, int[] outPixels, int width, int height, int numColors, boolean dither, boolean serpentine) {
     int count = width * height;
-    Quantizer quantizer = new OctTreeQuantizer();
-    quantizer.setup(numColors);
-    quantizer.addPixels(inPixels, 0, count);
+    Quantizer quantizer;
+    if (algorithm == WU) {
+      WuQuantizer wu = new WuQuantizer();
+      wu.setup(numColors);
+      if (parallel)
+        wu.addPixels(inPixels, 0, count, forkJoinPool);
+      else
+        wu.addPixels(inPixels, 0, count);
+      quantizer = wu;
+    } else {
+      quantizer = new OctTreeQuantizer();
+      quantizer.setup(numColors);
+      quantizer.addPixels(inPixels, 0, count);
+    }
     int[] table = quantizer.buildColorTable();
 
     if (!dither) {
-      for (int i = 0; i < count; i++)
-        outPixels[i] = table[quantizer.getIndexForColor(inPixels[i])];
+      RowBands.Task task = (y0, y1) -> {
+        for (int i = y0 * width; i < y1 * width; i++)
+          outPixels[i] = table[quantizer.getIndexForColor(inPixels[i])];
+      };
+      if (parallel)
+        RowBands.process(forkJoinPool, width, height, task);
+      else
+        task.run(0, height);
+    } else if (!diffuseDownwards) {
+      // The error only ever moves along the row, so rows can be dithered independently
+      RowBands.Task task = (y0, y1) -> {
+        for (int y = y0; y < y1; y++)
+          diffuse(quantizer, table, inPixels, outPixels, width, height, y, serpentine, null);
+      };
+      if (parallel)
+        RowBands.process(forkJoinPool, width, height, task);
+      else
+        task.run(0, height);
+    } else if (parallel && !serpentine) {
+      // Each row follows a matrix width behind the row above, so the error it receives has already arrived
+      RowBands.processWavefront(forkJoinPool, width, height, 3, (y, wavefront) -> diffuse(quantizer, table, inPixels, outPixels, width, height, y, false, wavefront));
     } else {
-      int index = 0;
-      for (int y = 0; y < height; y++) {
-        boolean reverse = serpentine && (y & 1) == 1;
-        int direction;
-        if (reverse) {
-          index = y * width + width - 1;
-          direction = -1;
-        } else {
-          index = y * width;
-          direction = 1;
-        }
-        for (int x = 0; x < width; x++) {
-          int rgb1 = inPixels[index];
-          int rgb2 = table[quantizer.getIndexForColor(rgb1)];
-
-          outPixels[index] = rgb2;
-
-          int r1 = (rgb1 >> 16) & 0xff;
-          int g1 = (rgb1 >> 8) & 0xff;
-          int b1 = rgb1 & 0xff;
-
-          int r2 = (rgb2 >> 16) & 0xff;
-          int g2 = (rgb2 >> 8) & 0xff;
-          int b2 = rgb2 & 0xff;
-
-          int er = r1 - r2;
-          int eg = g1 - g2;
-          int eb = b1 - b2;
-
-          for (int i = -1; i <= 1; i++) {
-            int iy = i + y;
-            if (0 <= iy && iy < height) {
-              for (int j = -1; j <= 1; j++) {
-                int jx = j + x;
-                if (0 <= jx && jx < width) {
-                  int w;
-                  if (reverse)
-                    w = matrix[(i + 1) * 3 - j + 1];
-                  else
-                    w = matrix[(i + 1) * 3 + j + 1];
-                  if (w != 0) {
-                    int k = reverse ? index - j : index + j;
-                    rgb1 = inPixels[k];
-                    r1 = (rgb1 >> 16) & 0xff;
-                    g1 = (rgb1 >> 8) & 0xff;
-                    b1 = rgb1 & 0xff;
-                    r1 += er * w / sum;
-                    g1 += eg * w / sum;
-                    b1 += eb * w / sum;
-                    inPixels[k] = (PixelUtils.clamp(r1) << 16) | (PixelUtils.clamp(g1) << 8) | PixelUtils.clamp(b1);
-                  }
-                }
+      for (int y = 0; y < height; y++)
+        diffuse(quantizer, table, inPixels, outPixels, width, height, y, serpentine, null);
+    }
+  }
+
+  /**
+   * Dither a row, spreading the error to the rest of the row, and the row below if diffuseDownwards is set.
+   *
+   * @param wavefront the wavefront the row is part of, or null if the rows are being done in order
+   */
+  private void diffuse(Quantizer quantizer, int[] table, int[] inPixels, int[] outPixels, int width, int height, int y, boolean serpentine, RowBands.Wavefront wavefront) {
+    boolean reverse = serpentine && (y & 1) == 1;
+    int index;
+    int direction;
+    if (reverse) {
+      index = y * width + width - 1;
+      direction = -1;
+    } else {
+      index = y * width;
+      direction = 1;
+    }
+    int ready = wavefront != null ? 0 : width;
+    for (int x = 0; x < width; x++) {
+      if (x >= ready)
+        ready = wavefront.await(y, x);
+      int rgb1 = inPixels[index];
+      int rgb2 = table[quantizer.getIndexForColor(rgb1)];
+
+      outPixels[index] = rgb2;
+
+      int r1 = (rgb1 >> 16) & 0xff;
+      int g1 = (rgb1 >> 8) & 0xff;
+      int b1 = rgb1 & 0xff;
+
+      int r2 = (rgb2 >> 16) & 0xff;
+      int g2 = (rgb2 >> 8) & 0xff;
+      int b2 = rgb2 & 0xff;
+
+      int er = r1 - r2;
+      int eg = g1 - g2;
+      int eb = b1 - b2;
+
+      // Spread downwards, error for the row above would land on pixels which have already been output, so it is dropped
+      for (int i = diffuseDownwards ? 0 : -1; i <= 1; i++) {
+        int iy = i + y;
+        if (0 <= iy && iy < height) {
+          for (int j = -1; j <= 1; j++) {
+            int jx = j + x;
+            if (0 <= jx && jx < width) {
+              int w;
+              int k;
+              if (diffuseDownwards) {
+                // The matrix is laid out in the direction of the scan, so it's mirrored on reversed rows
+                w = matrix[(i + 1) * 3 + j + 1];
+                k = index + i * width + j * direction;
+              } else {
+                // The original kernel, which spreads every row of the matrix along the pixel's own row
+                if (reverse)
+                  w = matrix[(i + 1) * 3 - j + 1];
+                else
+                  w = matrix[(i + 1) * 3 + j + 1];
+                k = reverse ? index - j : index + j;
+              }
+              if (w != 0) {
+                rgb1 = inPixels[k];
+                r1 = (rgb1 >> 16) & 0xff;
+                g1 = (rgb1 >> 8) & 0xff;
+                b1 = rgb1 & 0xff;
+                r1 += er * w / sum;
+                g1 += eg * w / sum;
+                b1 += eb * w / sum;
+                inPixels[k] = (PixelUtils.clamp(r1) << 16) | (PixelUtils.clamp(g1) << 8) | PixelUtils.clamp(b1);
               }
             }
           }
-          index += direction;
         }
       }
+      index += direction;
+      if (wavefront != null && (x & 31) == 31)
+        wavefront.advance(y, x + 1);
     }
+    if (wavefront != null)
+      wavefront.advance(y, width);
   }
 
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
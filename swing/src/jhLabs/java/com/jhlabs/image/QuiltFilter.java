@@ -174,10 +174,14 @@ public class QuiltFilter extends WholeImageFilter {
     }
 
     if (colormap != null) {
+      // The counts go up to one more than max, look each one up once
+      int[] colors = new int[max + 2];
+      for (int t = 0; t < colors.length; t++)
+        colors[t] = colormap.getColor(t / (float) max);
       int index = 0;
       for (y = 0; y < height; y++) {
         for (x = 0; x < width; x++) {
-          outPixels[index] = colormap.getColor(outPixels[index] / (float) max);
+          outPixels[index] = colors[outPixels[index]];
           index++;
         }
       }
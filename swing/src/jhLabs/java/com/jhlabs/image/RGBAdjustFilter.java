@@ -25,6 +25,7 @@ public class RGBAdjustFilter extends PointFilter {
   }
 
   public RGBAdjustFilter(float r, float g, float b) {
+    canFilterInParallel = true;
     rFactor = 1 + r;
     gFactor = 1 + g;
     bFactor = 1 + b;
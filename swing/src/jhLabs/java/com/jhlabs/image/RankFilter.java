@@ -0,0 +1,321 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.*;
+
+/**
+ * A filter which replaces each channel of each pixel by a percentile of the values in a square around it: the
+ * minimum at 0, the median at 50 and the maximum at 100. Pixels off the edge of the image are left out of the square.
+ * <p>
+ * The time taken per pixel doesn't depend on the radius. Percentiles are found with sliding column histograms
+ * (Perreault and H&eacute;bert), and the minimum and maximum with separable van Herk/Gil-Werman passes. When
+ * parallel execution is enabled with {@link #setParallel}, bands of rows are filtered concurrently.
+ */
+public class RankFilter extends WholeImageFilter {
+
+  /**
+   * The width of the strips the histogram filter works in, which keeps its column histograms in the cache.
+   */
+  private final static int STRIP_WIDTH = 256;
+
+  private int radius = 1;
+  private float rank = 50;
+
+  /**
+   * Construct a median filter with a radius of 1.
+   */
+  public RankFilter() {
+  }
+
+  /**
+   * Construct a RankFilter.
+   *
+   * @param radius the radius of the square
+   * @param rank   the percentile to take
+   */
+  public RankFilter(int radius, float rank) {
+    this.radius = radius;
+    this.rank = rank;
+  }
+
+  /**
+   * Set the radius of the square around each pixel. A radius of 1 gives a 3x3 square.
+   *
+   * @param radius the radius
+   * @min-value 0
+   * @max-value 100+
+   * @see #getRadius
+   */
+  public void setRadius(int radius) {
+    this.radius = radius;
+  }
+
+  /**
+   * Get the radius of the square around each pixel.
+   *
+   * @return the radius
+   * @see #setRadius
+   */
+  public int getRadius() {
+    return radius;
+  }
+
+  /**
+   * Set the percentile to take: 0 for the minimum, 50 for the median and 100 for the maximum.
+   *
+   * @param rank the percentile
+   * @min-value 0
+   * @max-value 100
+   * @see #getRank
+   */
+  public void setRank(float rank) {
+    this.rank = rank;
+  }
+
+  /**
+   * Get the percentile to take.
+   *
+   * @return the percentile
+   * @see #setRank
+   */
+  public float getRank() {
+    return rank;
+  }
+
+  protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
+    ScratchBuffers buffers = ScratchBuffers.getDefault();
+    int[] outPixels = buffers.getInts(width * height);
+
+    if (radius <= 0) {
+      System.arraycopy(inPixels, 0, outPixels, 0, width * height);
+    } else if (rank <= 0 || rank >= 100) {
+      boolean max = rank >= 100;
+      int[] tmpPixels = buffers.getInts(width * height);
+      filterBands(width, height, (y0, y1) -> minMaxAndTranspose(inPixels, tmpPixels, width, height, radius, max, y0, y1));
+      filterBands(height, width, (y0, y1) -> minMaxAndTranspose(tmpPixels, outPixels, height, width, radius, max, y0, y1));
+      buffers.release(tmpPixels);
+    } else {
+      filterBands(width, height, (y0, y1) -> rankRows(inPixels, outPixels, width, height, radius, rank, y0, y1));
+    }
+    return outPixels;
+  }
+
+  private void filterBands(int width, int height, RowBands.Task task) {
+    if (parallel)
+      RowBands.process(forkJoinPool, width, height, task);
+    else
+      task.run(0, height);
+  }
+
+  /**
+   * Take the minimum or maximum of each channel over a horizontal window, and transpose the result. Doing this
+   * twice gives the minimum or maximum over a square. The cost doesn't depend on the radius: each row is split into
+   * blocks as long as the window, and every window covers the end of one block and the start of the next, so its
+   * maximum is the larger of a suffix maximum and a prefix maximum.
+   *
+   * @param in     the input pixels
+   * @param out    the output pixels
+   * @param width  the width of the pixel array
+   * @param height the height of the pixel array
+   * @param radius the radius of the window
+   * @param max    true for the maximum, false for the minimum
+   * @param y0     the first row, inclusive
+   * @param y1     the last row, exclusive
+   */
+  public static void minMaxAndTranspose(int[] in, int[] out, int width, int height, int radius, boolean max, int y0, int y1) {
+    int k = 2 * radius + 1;
+    int length = width + 2 * radius;
+    int[] padded = new int[length];
+    int[] prefix = new int[length];
+    int[] suffix = new int[length];
+    int[] row = new int[width];
+    // The minimum is found as the maximum of inverted values, and off-image pixels are zero so they never win
+    int invert = max ? 0 : 0xff;
+
+    for (int y = y0; y < y1; y++) {
+      int offset = y * width;
+      for (int x = 0; x < width; x++)
+        row[x] = 0;
+      for (int shift = 0; shift < 32; shift += 8) {
+        for (int x = 0; x < width; x++)
+          padded[x + radius] = ((in[offset + x] >> shift) & 0xff) ^ invert;
+
+        for (int start = 0; start < length; start += k) {
+          int end = Math.min(start + k, length);
+          int m = prefix[start] = padded[start];
+          for (int i = start + 1; i < end; i++)
+            prefix[i] = m = Math.max(m, padded[i]);
+          m = suffix[end - 1] = padded[end - 1];
+          for (int i = end - 2; i >= start; i--)
+            suffix[i] = m = Math.max(m, padded[i]);
+        }
+
+        for (int x = 0; x < width; x++)
+          row[x] |= (Math.max(suffix[x], prefix[x + k - 1]) ^ invert) << shift;
+      }
+      int outIndex = y;
+      for (int x = 0; x < width; x++) {
+        out[outIndex] = row[x];
+        outIndex += height;
+      }
+    }
+  }
+
+  /**
+   * Find a percentile of each channel over a square, for a band of rows.
+   *
+   * @param in     the input pixels
+   * @param out    the output pixels
+   * @param width  the width of the pixel array
+   * @param height the height of the pixel array
+   * @param radius the radius of the square
+   * @param rank   the percentile, from 0 to 100
+   * @param y0     the first row, inclusive
+   * @param y1     the last row, exclusive
+   */
+  public static void rankRows(int[] in, int[] out, int width, int height, int radius, float rank, int y0, int y1) {
+    for (int x0 = 0; x0 < width; x0 += STRIP_WIDTH)
+      rankStrip(in, out, width, height, radius, rank, x0, Math.min(width, x0 + STRIP_WIDTH), y0, y1);
+  }
+
+  /**
+   * Filter a block of pixels. Each column in reach of the block has a 256 bin histogram per channel, and a coarse
+   * 16 bin one, covering the rows in the window, and these slide down a row at a time. Along each row a coarse
+   * window histogram slides with the pixel and finds which 16 values the percentile lies in. The fine histogram for
+   * those 16 values is then brought up to date from wherever it was last used, which costs little on average
+   * because neighbouring pixels tend to need the same ones.
+   */
+  private static void rankStrip(int[] in, int[] out, int width, int height, int radius, float rank, int x0, int x1, int y0, int y1) {
+    int cs = Math.max(0, x0 - radius);
+    int ce = Math.min(width, x1 + radius);
+    int columns = ce - cs;
+    char[][] fine = new char[4][columns * 256];
+    char[][] coarse = new char[4][columns * 16];
+    int[] kernelFine = new int[256];
+    int[] kernelCoarse = new int[16];
+    int[] last = new int[16];
+
+    for (int y = Math.max(0, y0 - radius); y <= Math.min(height - 1, y0 + radius); y++)
+      addRow(in, width, y, cs, ce, fine, coarse, 1);
+
+    for (int y = y0; y < y1; y++) {
+      if (y > y0) {
+        if (y - radius - 1 >= 0)
+          addRow(in, width, y - radius - 1, cs, ce, fine, coarse, -1);
+        if (y + radius < height)
+          addRow(in, width, y + radius, cs, ce, fine, coarse, 1);
+      }
+      int rowCount = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+      int outOffset = y * width;
+
+      for (int channel = 0; channel < 4; channel++) {
+        char[] cFine = fine[channel];
+        char[] cCoarse = coarse[channel];
+        int shift = channel * 8;
+
+        for (int x = x0; x < x1; x++) {
+          int wx0 = Math.max(0, x - radius);
+          int wx1 = Math.min(width - 1, x + radius);
+          int target = (int) (rank * (rowCount * (wx1 - wx0 + 1) - 1) / 100);
+
+          // Slide the coarse histogram
+          if (x == x0) {
+            for (int b = 0; b < 16; b++) {
+              kernelCoarse[b] = 0;
+              last[b] = -STRIP_WIDTH - 2 * radius - 2;
+            }
+            for (int c = wx0; c <= wx1; c++) {
+              int i = (c - cs) * 16;
+              for (int b = 0; b < 16; b++)
+                kernelCoarse[b] += cCoarse[i + b];
+            }
+          } else {
+            if (x + radius < width) {
+              int i = (x + radius - cs) * 16;
+              for (int b = 0; b < 16; b++)
+                kernelCoarse[b] += cCoarse[i + b];
+            }
+            if (x - radius - 1 >= 0) {
+              int i = (x - radius - 1 - cs) * 16;
+              for (int b = 0; b < 16; b++)
+                kernelCoarse[b] -= cCoarse[i + b];
+            }
+          }
+
+          int sum = 0;
+          int bin = 0;
+          while (sum + kernelCoarse[bin] <= target)
+            sum += kernelCoarse[bin++];
+
+          // Bring the fine histogram for this coarse bin up to date
+          int f = bin * 16;
+          if (x - last[bin] > 2 * radius + 1) {
+            for (int b = 0; b < 16; b++)
+              kernelFine[f + b] = 0;
+            for (int c = wx0; c <= wx1; c++) {
+              int i = (c - cs) * 256 + f;
+              for (int b = 0; b < 16; b++)
+                kernelFine[f + b] += cFine[i + b];
+            }
+          } else {
+            for (int s = last[bin] + 1; s <= x; s++) {
+              if (s + radius < width) {
+                int i = (s + radius - cs) * 256 + f;
+                for (int b = 0; b < 16; b++)
+                  kernelFine[f + b] += cFine[i + b];
+              }
+              if (s - radius - 1 >= 0) {
+                int i = (s - radius - 1 - cs) * 256 + f;
+                for (int b = 0; b < 16; b++)
+                  kernelFine[f + b] -= cFine[i + b];
+              }
+            }
+          }
+          last[bin] = x;
+
+          while (sum + kernelFine[f] <= target)
+            sum += kernelFine[f++];
+
+          if (channel == 0)
+            out[outOffset + x] = f;
+          else
+            out[outOffset + x] |= f << shift;
+        }
+      }
+    }
+  }
+
+  private static void addRow(int[] in, int width, int y, int cs, int ce, char[][] fine, char[][] coarse, int delta) {
+    int offset = y * width;
+    for (int c = cs; c < ce; c++) {
+      int rgb = in[offset + c];
+      int column = c - cs;
+      for (int channel = 0; channel < 4; channel++) {
+        int v = (rgb >> (channel * 8)) & 0xff;
+        // A count is at most the 2 * radius + 1 rows of the window, so it fits in a char for radii below 32768
+        fine[channel][column * 256 + v] = (char) (fine[channel][column * 256 + v] + delta);
+        coarse[channel][column * 16 + (v >> 4)] = (char) (coarse[channel][column * 16 + (v >> 4)] + delta);
+      }
+    }
+  }
+
+  public String toString() {
+    return "Blur/Rank...";
+  }
+
+}
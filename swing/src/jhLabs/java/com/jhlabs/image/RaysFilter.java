@@ -165,6 +165,14 @@ public class RaysFilter extends MotionBlurOp {
 
     rays = super.filter(rays, null);
 
+    // The brightness is one of 766 sums, so look each one up once
+    int[] colors = null;
+    if (colormap != null) {
+      colors = new int[3 * 255 + 1];
+      for (int l = 0; l < colors.length; l++)
+        colors[l] = colormap.getColor(l * strength * (1 / 3f));
+    }
+
     for (int y = 0; y < height; y++) {
       getRGB(rays, 0, y, width, 1, pixels);
       getRGB(src, 0, y, width, 1, srcPixels);
@@ -175,9 +183,8 @@ public class RaysFilter extends MotionBlurOp {
         int g = (rgb >> 8) & 0xff;
         int b = rgb & 0xff;
 
-        if (colormap != null) {
-          int l = r + g + b;
-          rgb = colormap.getColor(l * strength * (1 / 3f));
+        if (colors != null) {
+          rgb = colors[r + g + b];
         } else {
           r = PixelUtils.clamp((int) (r * strength));
           g = PixelUtils.clamp((int) (g * strength));
@@ -54,7 +54,7 @@ public class ReduceNoiseFilter extends WholeImageFilter {
     int[] r = new int[9];
     int[] g = new int[9];
     int[] b = new int[9];
-    int[] outPixels = new int[width * height];
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
 
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
@@ -0,0 +1,482 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A separable image resampler. An image is scaled horizontally and then vertically, each output pixel being a
+ * weighted sum of the input pixels under a filter kernel. The weights for each output column and row depend only on
+ * the kernel and the two sizes, so they are worked out once and shared between images of the same size.
+ * <p>
+ * Pixels are filtered premultiplied, so transparent pixels don't bleed their color into their neighbours. When an
+ * image is shrunk by more than four times it is first halved with a 2x2 box filter until it's no more than four times
+ * larger than the result, which is much cheaper than running a wide kernel over every input pixel, and looks the same.
+ */
+public class Resampler {
+
+  /**
+   * Average the input pixels under each output pixel, weighted by how much they overlap it.
+   */
+  public final static int BOX = 0;
+
+  /**
+   * The Catmull-Rom cubic, which is sharp and passes through the input pixels.
+   */
+  public final static int CATMULL_ROM = 1;
+
+  /**
+   * The Mitchell-Netravali cubic with B = C = 1/3, which is a good compromise between blurring and ringing.
+   */
+  public final static int MITCHELL = 2;
+
+  /**
+   * A three lobed Lanczos windowed sinc, which is the sharpest, but can ring near hard edges.
+   */
+  public final static int LANCZOS3 = 3;
+
+  private final static int CACHE_SIZE = 32;
+  private final static Map<Long, Weights> cache = new LinkedHashMap<Long, Weights>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<Long, Weights> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  private int filter;
+  private boolean usePyramid = true;
+  private boolean parallel = false;
+  private ForkJoinPool forkJoinPool;
+
+  /**
+   * Construct a Resampler which uses the Mitchell filter.
+   */
+  public Resampler() {
+    this(MITCHELL);
+  }
+
+  /**
+   * Construct a Resampler.
+   *
+   * @param filter the filter kernel
+   */
+  public Resampler(int filter) {
+    setFilter(filter);
+  }
+
+  /**
+   * Set the filter kernel.
+   *
+   * @param filter the filter, one of BOX, CATMULL_ROM, MITCHELL or LANCZOS3
+   * @see #getFilter
+   */
+  public void setFilter(int filter) {
+    if (filter < BOX || filter > LANCZOS3)
+      throw new IllegalArgumentException("Unknown filter " + filter);
+    this.filter = filter;
+  }
+
+  /**
+   * Get the filter kernel.
+   *
+   * @return the filter
+   * @see #setFilter
+   */
+  public int getFilter() {
+    return filter;
+  }
+
+  /**
+   * Set whether large reductions first halve the image with a box filter.
+   *
+   * @param usePyramid true to halve large images first
+   * @see #getUsePyramid
+   */
+  public void setUsePyramid(boolean usePyramid) {
+    this.usePyramid = usePyramid;
+  }
+
+  /**
+   * Get whether large reductions first halve the image with a box filter.
+   *
+   * @return true to halve large images first
+   * @see #setUsePyramid
+   */
+  public boolean getUsePyramid() {
+    return usePyramid;
+  }
+
+  /**
+   * Set whether to resample in parallel.
+   *
+   * @param parallel true to run in parallel
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  public boolean getParallel() {
+    return parallel;
+  }
+
+  /**
+   * Set the pool to use for parallel work.
+   *
+   * @param forkJoinPool the pool, or null to use the common pool
+   */
+  public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+    this.forkJoinPool = forkJoinPool;
+  }
+
+  public ForkJoinPool getForkJoinPool() {
+    return forkJoinPool;
+  }
+
+  /**
+   * Resample an image.
+   *
+   * @param inPixels  the ARGB pixels of the image
+   * @param width     the width of the image
+   * @param height    the height of the image
+   * @param dstWidth  the width to scale to
+   * @param dstHeight the height to scale to
+   * @return the ARGB pixels of the scaled image
+   */
+  public int[] resample(int[] inPixels, int width, int height, int dstWidth, int dstHeight) {
+    return resample(inPixels, width, height, new Dimension[]{new Dimension(dstWidth, dstHeight)})[0];
+  }
+
+  /**
+   * Resample an image to several sizes at once, such as a set of thumbnails. The halved images used for large
+   * reductions are made once and shared by all the sizes.
+   *
+   * @param inPixels the ARGB pixels of the image
+   * @param width    the width of the image
+   * @param height   the height of the image
+   * @param sizes    the sizes to scale to
+   * @return the ARGB pixels of each scaled image
+   */
+  public int[][] resample(int[] inPixels, int width, int height, Dimension[] sizes) {
+    List<Level> levels = new ArrayList<Level>();
+    levels.add(new Level(inPixels, width, height));
+    int[][] results = new int[sizes.length][];
+    for (int i = 0; i < sizes.length; i++) {
+      int dstWidth = sizes[i].width;
+      int dstHeight = sizes[i].height;
+      if (dstWidth <= 0 || dstHeight <= 0)
+        throw new IllegalArgumentException("Size must be positive: " + dstWidth + "x" + dstHeight);
+      results[i] = scale(getLevel(levels, dstWidth, dstHeight), dstWidth, dstHeight);
+    }
+    return results;
+  }
+
+  /**
+   * Find the smallest image in the pyramid which is still at least twice the size asked for, making it if need be.
+   */
+  private Level getLevel(List<Level> levels, int dstWidth, int dstHeight) {
+    Level level = levels.get(0);
+    if (!usePyramid)
+      return level;
+    for (Level l : levels) {
+      if (l.width >= 2 * dstWidth && l.height >= 2 * dstHeight)
+        level = l;
+    }
+    while (level.width / 2 >= 2 * dstWidth && level.height / 2 >= 2 * dstHeight) {
+      level = halve(level);
+      levels.add(level);
+    }
+    return level;
+  }
+
+  private void process(int width, int height, RowBands.Task task) {
+    if (parallel)
+      RowBands.process(forkJoinPool, width, height, task);
+    else
+      task.run(0, height);
+  }
+
+  /**
+   * Halve an image in both directions, averaging each 2x2 block. An odd last row or column is averaged with itself.
+   */
+  private Level halve(Level in) {
+    int width = (in.width + 1) / 2;
+    int height = (in.height + 1) / 2;
+    Level out = new Level(width, height);
+    process(width, height, (y0, y1) -> {
+      float[] row0 = new float[in.width * 4];
+      float[] row1 = new float[in.width * 4];
+      float[] pixels = out.floats;
+      int w1 = in.width - 1;
+      for (int y = y0; y < y1; y++) {
+        in.getRow(2 * y, row0);
+        in.getRow(Math.min(2 * y + 1, in.height - 1), row1);
+        int index = y * width * 4;
+        for (int x = 0; x < width; x++) {
+          int i0 = 2 * x * 4;
+          int i1 = Math.min(2 * x + 1, w1) * 4;
+          for (int c = 0; c < 4; c++)
+            pixels[index++] = (row0[i0 + c] + row0[i1 + c] + row1[i0 + c] + row1[i1 + c]) * 0.25f;
+        }
+      }
+    });
+    return out;
+  }
+
+  /**
+   * Scale an image, horizontally into an intermediate image of premultiplied floats, then vertically.
+   */
+  private int[] scale(Level in, int dstWidth, int dstHeight) {
+    Weights horizontal = getWeights(filter, in.width, dstWidth);
+    Weights vertical = getWeights(filter, in.height, dstHeight);
+    int srcWidth = in.width;
+    float[] tmp = new float[dstWidth * in.height * 4];
+    process(srcWidth, in.height, (y0, y1) -> {
+      float[] row = new float[srcWidth * 4];
+      for (int y = y0; y < y1; y++) {
+        in.getRow(y, row);
+        horizontal.apply(row, tmp, y * dstWidth * 4, dstWidth);
+      }
+    });
+
+    int[] outPixels = new int[dstWidth * dstHeight];
+    int stride = dstWidth * 4;
+    process(dstWidth, dstHeight, (y0, y1) -> {
+      float[] acc = new float[stride];
+      for (int y = y0; y < y1; y++) {
+        for (int i = 0; i < stride; i++)
+          acc[i] = 0;
+        int start = vertical.start[y];
+        int k = y * vertical.taps;
+        for (int j = 0; j < vertical.count[y]; j++) {
+          float w = vertical.weights[k + j];
+          int index = (start + j) * stride;
+          for (int i = 0; i < stride; i++)
+            acc[i] += w * tmp[index + i];
+        }
+        int index = y * dstWidth;
+        for (int i = 0; i < stride; i += 4)
+          outPixels[index++] = unpremultiply(acc[i], acc[i + 1], acc[i + 2], acc[i + 3]);
+      }
+    });
+    return outPixels;
+  }
+
+  private static int unpremultiply(float r, float g, float b, float a) {
+    if (a <= 0.5f / 255)
+      return 0;
+    float f = 1 / a;
+    int ia = clamp(a * 255);
+    int ir = clamp(r * f);
+    int ig = clamp(g * f);
+    int ib = clamp(b * f);
+    return (ia << 24) | (ir << 16) | (ig << 8) | ib;
+  }
+
+  private static int clamp(float v) {
+    int i = (int) (v + 0.5f);
+    return i < 0 ? 0 : i > 255 ? 255 : i;
+  }
+
+  /**
+   * Get the weights for scaling one dimension, from the cache if they've been worked out before.
+   */
+  static Weights getWeights(int filter, int srcSize, int dstSize) {
+    Long key = ((long) filter << 60) | ((long) srcSize << 30) | dstSize;
+    synchronized (cache) {
+      Weights weights = cache.get(key);
+      if (weights != null)
+        return weights;
+    }
+    Weights weights = new Weights(filter, srcSize, dstSize);
+    synchronized (cache) {
+      cache.put(key, weights);
+    }
+    return weights;
+  }
+
+  /**
+   * Forget all the cached weights.
+   */
+  public static void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  private static float kernel(int filter, float x) {
+    x = Math.abs(x);
+    switch (filter) {
+      case CATMULL_ROM:
+        if (x < 1)
+          return 1.5f * x * x * x - 2.5f * x * x + 1;
+        if (x < 2)
+          return -0.5f * x * x * x + 2.5f * x * x - 4 * x + 2;
+        return 0;
+      case MITCHELL: {
+        final float B = 1 / 3f, C = 1 / 3f;
+        if (x < 1)
+          return ((12 - 9 * B - 6 * C) * x * x * x + (-18 + 12 * B + 6 * C) * x * x + (6 - 2 * B)) / 6;
+        if (x < 2)
+          return ((-B - 6 * C) * x * x * x + (6 * B + 30 * C) * x * x + (-12 * B - 48 * C) * x + (8 * B + 24 * C)) / 6;
+        return 0;
+      }
+      case LANCZOS3:
+        if (x == 0)
+          return 1;
+        if (x < 3) {
+          double px = Math.PI * x;
+          return (float) (3 * Math.sin(px) * Math.sin(px / 3) / (px * px));
+        }
+        return 0;
+      default:
+        return 0;
+    }
+  }
+
+  private static float support(int filter) {
+    return filter == LANCZOS3 ? 3 : 2;
+  }
+
+  /**
+   * The weights for scaling one dimension. Output pixel i is the sum of count[i] input pixels from start[i], with
+   * the weights at i * taps. Kernels which fall off the edge of the image are folded back onto the edge pixels.
+   */
+  static class Weights {
+    final int[] start;
+    final int[] count;
+    final float[] weights;
+    final int taps;
+
+    Weights(int filter, int srcSize, int dstSize) {
+      start = new int[dstSize];
+      count = new int[dstSize];
+      float scale = (float) dstSize / srcSize;
+      // Shrinking widens the kernel to cover all the input pixels
+      float stretch = scale < 1 ? 1 / scale : 1;
+      int maxTaps = filter == BOX ? (int) Math.ceil(stretch) + 2 : (int) Math.ceil(2 * support(filter) * stretch) + 2;
+      taps = Math.min(maxTaps, srcSize);
+      weights = new float[dstSize * taps];
+      float[] w = new float[srcSize];
+      for (int i = 0; i < dstSize; i++) {
+        int lo, hi;
+        if (filter == BOX) {
+          // The overlap of each input pixel with the output pixel, in input pixels
+          double a = (double) i * srcSize / dstSize;
+          double b = (double) (i + 1) * srcSize / dstSize;
+          lo = (int) Math.floor(a);
+          hi = Math.min((int) Math.ceil(b) - 1, srcSize - 1);
+          for (int j = lo; j <= hi; j++)
+            w[j] = (float) (Math.min(b, j + 1) - Math.max(a, j));
+        } else {
+          float center = (i + 0.5f) / scale - 0.5f;
+          float radius = support(filter) * stretch;
+          int left = (int) Math.floor(center - radius);
+          int right = (int) Math.ceil(center + radius);
+          lo = Math.max(left, 0);
+          hi = Math.min(right, srcSize - 1);
+          for (int j = lo; j <= hi; j++)
+            w[j] = 0;
+          for (int j = left; j <= right; j++) {
+            float v = kernel(filter, (j - center) / stretch);
+            w[ImageMath.clamp(j, 0, srcSize - 1)] += v;
+          }
+        }
+        // Drop zero weights at the ends
+        while (lo < hi && w[lo] == 0)
+          lo++;
+        while (hi > lo && w[hi] == 0)
+          hi--;
+        float sum = 0;
+        for (int j = lo; j <= hi; j++)
+          sum += w[j];
+        start[i] = lo;
+        count[i] = hi - lo + 1;
+        for (int j = lo; j <= hi; j++)
+          weights[i * taps + j - lo] = sum != 0 ? w[j] / sum : 0;
+      }
+    }
+
+    /**
+     * Scale a row of premultiplied ARGB floats.
+     */
+    void apply(float[] in, float[] out, int offset, int dstSize) {
+      for (int i = 0; i < dstSize; i++) {
+        int k = i * taps;
+        int s = start[i] * 4;
+        float r = 0, g = 0, b = 0, a = 0;
+        for (int j = 0, n = count[i]; j < n; j++, s += 4) {
+          float w = weights[k + j];
+          r += w * in[s];
+          g += w * in[s + 1];
+          b += w * in[s + 2];
+          a += w * in[s + 3];
+        }
+        out[offset++] = r;
+        out[offset++] = g;
+        out[offset++] = b;
+        out[offset++] = a;
+      }
+    }
+  }
+
+  /**
+   * An image in the pyramid, either the original ARGB pixels or a halved image of premultiplied floats.
+   */
+  private static class Level {
+    final int width, height;
+    final int[] ints;
+    final float[] floats;
+
+    Level(int[] ints, int width, int height) {
+      this.width = width;
+      this.height = height;
+      this.ints = ints;
+      this.floats = null;
+    }
+
+    Level(int width, int height) {
+      this.width = width;
+      this.height = height;
+      this.ints = null;
+      this.floats = new float[width * height * 4];
+    }
+
+    /**
+     * Get a row as premultiplied floats, with alpha from 0 to 1 and the colors from 0 to 255 times alpha.
+     */
+    void getRow(int y, float[] row) {
+      if (floats != null) {
+        System.arraycopy(floats, y * width * 4, row, 0, width * 4);
+        return;
+      }
+      int index = y * width;
+      for (int x = 0, i = 0; x < width; x++) {
+        int rgb = ints[index + x];
+        float a = (rgb >>> 24) * (1 / 255f);
+        row[i++] = ((rgb >> 16) & 0xff) * a;
+        row[i++] = ((rgb >> 8) & 0xff) * a;
+        row[i++] = (rgb & 0xff) * a;
+        row[i++] = a;
+      }
+    }
+  }
+
+}
@@ -52,6 +52,7 @@ public class RotateFilter extends TransformFilter {
   public RotateFilter(float angle, boolean resize) {
     setAngle(angle);
     this.resize = resize;
+    canFilterInParallel = true;
   }
 
   /**
@@ -127,6 +128,16 @@ public class RotateFilter extends TransformFilter {
     out[1] = (y * cos) + (x * sin);
   }
 
+  protected void transformInverse(int x, int y, int length, float[] outX, float[] outY) {
+    float ySin = y * sin;
+    float yCos = y * cos;
+    for (int i = 0; i < length; i++) {
+      float fx = x + i;
+      outX[i] = (fx * cos) - ySin;
+      outY[i] = yCos + (fx * sin);
+    }
+  }
+
   public String toString() {
     return "Rotate " + (int) (angle * 180 / Math.PI);
   }
@@ -0,0 +1,232 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A utility class which splits the rows of an image into horizontal bands and processes them
+ * concurrently on a ForkJoinPool. Bands never overlap, so a band task may freely write to its
+ * own rows of a shared output array.
+ * <p>
+ * Rows which depend on the row above, as in error diffusion, can instead be processed as a wavefront with
+ * {@link #processWavefront}, each row following a set number of pixels behind the one above it.
+ */
+public abstract class RowBands {
+
+  /**
+   * The minimum number of pixels in a band. Below this the cost of scheduling outweighs the work.
+   */
+  public final static int MIN_BAND_PIXELS = 16 * 1024;
+
+  /**
+   * The work to do for a band of rows.
+   */
+  public interface Task {
+    /**
+     * Process a band of rows.
+     *
+     * @param y0 the first row of the band, inclusive
+     * @param y1 the last row of the band, exclusive
+     */
+    void run(int y0, int y1);
+  }
+
+  /**
+   * Get the pool to use, falling back to the common pool.
+   *
+   * @param pool the pool, may be null
+   * @return the pool to use
+   */
+  public static ForkJoinPool getPool(ForkJoinPool pool) {
+    return pool != null ? pool : ForkJoinPool.commonPool();
+  }
+
+  /**
+   * Work out how many bands an image should be split into.
+   *
+   * @param pool   the pool which will run the bands, may be null
+   * @param width  the image width
+   * @param height the image height
+   * @return the number of bands, at least one
+   */
+  public static int getBandCount(ForkJoinPool pool, int width, int height) {
+    int parallelism = getPool(pool).getParallelism();
+    if (parallelism <= 1 || width <= 0 || height <= 1)
+      return 1;
+    int minRows = Math.max(1, MIN_BAND_PIXELS / width);
+    int bands = Math.min(height / minRows, parallelism * 4);
+    return Math.max(1, bands);
+  }
+
+  /**
+   * Process all the rows of an image in bands. If the image is too small to be worth splitting,
+   * the task is run once on the calling thread.
+   *
+   * @param pool   the pool to use, or null for the common pool
+   * @param width  the image width
+   * @param height the image height
+   * @param task   the work to do for each band
+   */
+  public static void process(ForkJoinPool pool, int width, int height, Task task) {
+    int bands = getBandCount(pool, width, height);
+    if (bands <= 1)
+      task.run(0, height);
+    else
+      getPool(pool).invoke(new BandAction(task, height, bands, 0, bands));
+  }
+
+  /**
+   * The work to do for a row of a wavefront.
+   */
+  public interface RowTask {
+    /**
+     * Process a row. The task must call {@link Wavefront#await} before processing each pixel which the row above
+     * hasn't yet been seen to let it have, and {@link Wavefront#advance} as it goes to let the row below follow.
+     *
+     * @param y         the row
+     * @param wavefront the wavefront
+     */
+    void run(int y, Wavefront wavefront);
+  }
+
+  /**
+   * Keeps track of how far along each row a wavefront has got.
+   */
+  public static class Wavefront {
+    private final int width;
+    private final int lag;
+    private final AtomicIntegerArray progress;
+    private volatile boolean cancelled;
+
+    Wavefront(int width, int height, int lag) {
+      this.width = width;
+      this.lag = lag;
+      progress = new AtomicIntegerArray(height);
+    }
+
+    /**
+     * Wait until the row above is far enough ahead for a pixel to be processed, that is until it has finished the
+     * pixel lag places further along, or the whole row.
+     *
+     * @param y the row
+     * @param x the pixel, counted in the order the row is processed
+     * @return the number of pixels of the row which may now be processed
+     */
+    public int await(int y, int x) {
+      if (y == 0)
+        return width;
+      for (int spins = 1; ; spins++) {
+        int done = progress.get(y - 1);
+        int ready = done == width ? width : done - lag + 1;
+        if (x < ready)
+          return ready;
+        if (cancelled)
+          throw new CancellationException();
+        if ((spins & 0xff) == 0)
+          Thread.yield();
+        else
+          Thread.onSpinWait();
+      }
+    }
+
+    /**
+     * Record how many pixels of a row have been finished. The row must end with a call for the whole width.
+     *
+     * @param y     the row
+     * @param count the number of pixels finished
+     */
+    public void advance(int y, int count) {
+      progress.lazySet(y, count);
+    }
+  }
+
+  /**
+   * Process all the rows of an image as a wavefront. Rows are handed out in order to as many threads as the pool
+   * has, and each row runs lag pixels behind the one above, so a pixel may read pixels up to lag - 1 places ahead
+   * of it in the row above. A 3 pixel wide error diffusion matrix, which writes one place either side into its own
+   * row and the row below, needs a lag of 3 so that neighbouring rows never write the same pixel at once. Small
+   * images are processed in order on the calling thread.
+   *
+   * @param pool   the pool to use, or null for the common pool
+   * @param width  the image width
+   * @param height the image height
+   * @param lag    how many pixels each row runs behind the one above
+   * @param task   the work to do for each row
+   */
+  public static void processWavefront(ForkJoinPool pool, int width, int height, int lag, RowTask task) {
+    ForkJoinPool p = getPool(pool);
+    Wavefront wavefront = new Wavefront(width, height, lag);
+    int workers = Math.min(p.getParallelism(), height);
+    if (workers <= 1 || (long) width * height < MIN_BAND_PIXELS) {
+      for (int y = 0; y < height; y++)
+        task.run(y, wavefront);
+      return;
+    }
+
+    // Rows are taken in order by threads which are already running, so the row above is always being worked on
+    AtomicInteger next = new AtomicInteger();
+    Runnable worker = () -> {
+      try {
+        for (int y = next.getAndIncrement(); y < height; y = next.getAndIncrement())
+          task.run(y, wavefront);
+      } catch (RuntimeException | Error e) {
+        wavefront.cancelled = true;
+        throw e;
+      }
+    };
+    ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers - 1];
+    for (int i = 0; i < tasks.length; i++)
+      tasks[i] = p.submit(worker);
+    worker.run();
+    for (ForkJoinTask<?> t : tasks)
+      t.join();
+  }
+
+  private static class BandAction extends RecursiveAction {
+    private final static long serialVersionUID = 1L;
+
+    private final Task task;
+    private final int height;
+    private final int bands;
+    private final int lo, hi;
+
+    BandAction(Task task, int height, int bands, int lo, int hi) {
+      this.task = task;
+      this.height = height;
+      this.bands = bands;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    protected void compute() {
+      if (hi - lo == 1) {
+        int y0 = (int) ((long) lo * height / bands);
+        int y1 = (int) ((long) hi * height / bands);
+        task.run(y0, y1);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new BandAction(task, height, bands, lo, mid), new BandAction(task, height, bands, mid, hi));
+      }
+    }
+  }
+}
@@ -28,6 +28,7 @@ public class SaturationFilter extends PointFilter {
    * Construct a SaturationFilter.
    */
   public SaturationFilter() {
+    canFilterInParallel = true;
   }
 
   /**
@@ -35,6 +36,7 @@ public class SaturationFilter extends PointFilter {
    * The amount of saturation change.
    */
   public SaturationFilter(float amount) {
+    canFilterInParallel = true;
     this.amount = amount;
     canFilterIndexColorModel = true;
   }
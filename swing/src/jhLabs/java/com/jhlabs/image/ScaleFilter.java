@@ -21,12 +21,14 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 
 /**
- * Scales an image using the area-averaging algorithm, which can't be done with AffineTransformOp.
+ * Scales an image using the area-averaging algorithm, which can't be done with AffineTransformOp. The other filters
+ * of {@link Resampler} can be chosen with {@link #setFilter}.
  */
 public class ScaleFilter extends AbstractBufferedImageOp {
 
   private int width;
   private int height;
+  private int filterType = Resampler.BOX;
 
   /**
    * Construct a ScaleFilter.
@@ -46,18 +48,74 @@ public class ScaleFilter extends AbstractBufferedImageOp {
     this.height = height;
   }
 
+  /**
+   * Set the filter used to scale the image.
+   *
+   * @param filterType the filter, one of the filters in Resampler
+   * @see #getFilter
+   */
+  public void setFilter(int filterType) {
+    if (filterType < Resampler.BOX || filterType > Resampler.LANCZOS3)
+      throw new IllegalArgumentException("Unknown filter " + filterType);
+    this.filterType = filterType;
+  }
+
+  /**
+   * Get the filter used to scale the image.
+   *
+   * @return the filter
+   * @see #setFilter
+   */
+  public int getFilter() {
+    return filterType;
+  }
+
+  /**
+   * Scale an image. If a destination image is given, the scaled image is drawn into its top left corner.
+   *
+   * @param src the image to scale
+   * @param dst the image to draw the result into, or null to create one of the scaled size
+   * @return the destination image
+   */
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
-    if (dst == null) {
-      ColorModel dstCM = src.getColorModel();
-      dst = new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(width, height), dstCM.isAlphaPremultiplied(), null);
-    }
+    return scale(src, dst, new Dimension[]{new Dimension(width, height)})[0];
+  }
 
-    Image scaleImage = src.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING);
-    Graphics2D g = dst.createGraphics();
-    g.drawImage(scaleImage, 0, 0, width, height, null);
-    g.dispose();
+  /**
+   * Scale an image to several sizes at once, such as a set of thumbnails. This is quicker than scaling to each size
+   * in turn, as the work of shrinking large images is shared.
+   *
+   * @param src   the image to scale
+   * @param sizes the sizes to scale to
+   * @return the scaled images
+   */
+  public BufferedImage[] scale(BufferedImage src, Dimension[] sizes) {
+    return scale(src, null, sizes);
+  }
+
+  private BufferedImage[] scale(BufferedImage src, BufferedImage dst, Dimension[] sizes) {
+    int w = src.getWidth();
+    int h = src.getHeight();
+    Resampler resampler = new Resampler(filterType);
+    resampler.setParallel(parallel);
+    resampler.setForkJoinPool(forkJoinPool);
+    int[][] outPixels = resampler.resample(getRGB(src, 0, 0, w, h, null), w, h, sizes);
 
-    return dst;
+    BufferedImage[] images = new BufferedImage[sizes.length];
+    for (int i = 0; i < sizes.length; i++) {
+      ColorModel dstCM = src.getColorModel();
+      BufferedImage image = new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(sizes[i].width, sizes[i].height), dstCM.isAlphaPremultiplied(), null);
+      setRGB(image, 0, 0, sizes[i].width, sizes[i].height, outPixels[i]);
+      if (dst != null) {
+        // Draw the result into the given image, clipped and composited over what's already there
+        Graphics2D g = dst.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        image = dst;
+      }
+      images[i] = image;
+    }
+    return images;
   }
 
   public String toString() {
@@ -0,0 +1,265 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of temporary pixel arrays which filters use instead of allocating a fresh array on every call.
+ * Arrays are kept in buckets by their exact length, so an array handed out always has the length asked for,
+ * but its contents are whatever the last user left in it.
+ * <p>
+ * Only arrays which were handed out by a pool are taken back by it, so it is always safe to release an array
+ * which may or may not have come from the pool. The pool is thread safe. Filters use the pool returned by
+ * {@link #getDefault}, which can be replaced with {@link #setDefault}, for example with a pool of size
+ * zero to turn pooling off.
+ */
+public class ScratchBuffers {
+
+  private static volatile ScratchBuffers defaultBuffers = new ScratchBuffers(64L * 1024 * 1024);
+
+  private final long maxBytes;
+  private long pooledBytes;
+  private final Map<Integer, ArrayDeque<int[]>> intPool = new HashMap<>();
+  private final Map<Integer, ArrayDeque<float[]>> floatPool = new HashMap<>();
+  private final Map<Integer, ArrayDeque<byte[]>> bytePool = new HashMap<>();
+  // Arrays use identity for equals and hashCode, and arrays which are never released mustn't be kept alive
+  private final Map<Object, Boolean> leased = new WeakHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesReused = new LongAdder();
+
+  /**
+   * Construct a ScratchBuffers.
+   *
+   * @param maxBytes the maximum number of bytes to keep in the pool
+   */
+  public ScratchBuffers(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Get the pool used by the filters.
+   *
+   * @return the pool
+   * @see #setDefault
+   */
+  public static ScratchBuffers getDefault() {
+    return defaultBuffers;
+  }
+
+  /**
+   * Set the pool used by the filters.
+   *
+   * @param buffers the pool
+   * @see #getDefault
+   */
+  public static void setDefault(ScratchBuffers buffers) {
+    if (buffers == null)
+      throw new NullPointerException("buffers");
+    defaultBuffers = buffers;
+  }
+
+  /**
+   * Get the maximum number of bytes kept in the pool.
+   *
+   * @return the maximum number of bytes
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Get an int array from the pool. The contents of the array are undefined.
+   *
+   * @param length the length of the array
+   * @return the array
+   */
+  public int[] getInts(int length) {
+    int[] a;
+    synchronized (this) {
+      a = take(intPool, length, (long) length * 4);
+      if (a == null) {
+        a = new int[length];
+        misses.increment();
+      }
+      leased.put(a, Boolean.TRUE);
+    }
+    return a;
+  }
+
+  /**
+   * Get a float array from the pool. The contents of the array are undefined.
+   *
+   * @param length the length of the array
+   * @return the array
+   */
+  public float[] getFloats(int length) {
+    float[] a;
+    synchronized (this) {
+      a = take(floatPool, length, (long) length * 4);
+      if (a == null) {
+        a = new float[length];
+        misses.increment();
+      }
+      leased.put(a, Boolean.TRUE);
+    }
+    return a;
+  }
+
+  /**
+   * Get a byte array from the pool. The contents of the array are undefined.
+   *
+   * @param length the length of the array
+   * @return the array
+   */
+  public byte[] getBytes(int length) {
+    byte[] a;
+    synchronized (this) {
+      a = take(bytePool, length, length);
+      if (a == null) {
+        a = new byte[length];
+        misses.increment();
+      }
+      leased.put(a, Boolean.TRUE);
+    }
+    return a;
+  }
+
+  /**
+   * Give an int array back to the pool. Arrays which didn't come from the pool are ignored.
+   *
+   * @param a the array, may be null
+   */
+  public void release(int[] a) {
+    if (a != null) {
+      synchronized (this) {
+        if (leased.remove(a) != null)
+          give(intPool, a.length, (long) a.length * 4, a);
+      }
+    }
+  }
+
+  /**
+   * Give a float array back to the pool. Arrays which didn't come from the pool are ignored.
+   *
+   * @param a the array, may be null
+   */
+  public void release(float[] a) {
+    if (a != null) {
+      synchronized (this) {
+        if (leased.remove(a) != null)
+          give(floatPool, a.length, (long) a.length * 4, a);
+      }
+    }
+  }
+
+  /**
+   * Give a byte array back to the pool. Arrays which didn't come from the pool are ignored.
+   *
+   * @param a the array, may be null
+   */
+  public void release(byte[] a) {
+    if (a != null) {
+      synchronized (this) {
+        if (leased.remove(a) != null)
+          give(bytePool, a.length, a.length, a);
+      }
+    }
+  }
+
+  /**
+   * Empty the pool.
+   */
+  public synchronized void clear() {
+    intPool.clear();
+    floatPool.clear();
+    bytePool.clear();
+    pooledBytes = 0;
+  }
+
+  /**
+   * Get the number of requests which were satisfied from the pool.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of requests which needed a new array.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the total size of the arrays which were reused rather than allocated.
+   *
+   * @return the number of bytes
+   */
+  public long getBytesReused() {
+    return bytesReused.sum();
+  }
+
+  /**
+   * Get the total size of the arrays currently kept in the pool.
+   *
+   * @return the number of bytes
+   */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * Reset the hit, miss and reuse counters.
+   */
+  public void resetStatistics() {
+    hits.reset();
+    misses.reset();
+    bytesReused.reset();
+  }
+
+  private <T> T take(Map<Integer, ArrayDeque<T>> pool, int length, long bytes) {
+    ArrayDeque<T> bucket = pool.get(length);
+    if (bucket == null || bucket.isEmpty())
+      return null;
+    pooledBytes -= bytes;
+    hits.increment();
+    bytesReused.add(bytes);
+    return bucket.pop();
+  }
+
+  private <T> void give(Map<Integer, ArrayDeque<T>> pool, int length, long bytes, T a) {
+    if (pooledBytes + bytes > maxBytes)
+      return;
+    pool.computeIfAbsent(length, k -> new ArrayDeque<>()).push(a);
+    pooledBytes += bytes;
+  }
+
+  public String toString() {
+    return "ScratchBuffers[hits=" + getHits() + ", misses=" + getMisses() + ", bytesReused=" + getBytesReused() + "]";
+  }
+}
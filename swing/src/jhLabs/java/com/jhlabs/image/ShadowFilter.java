@@ -20,7 +20,6 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BandCombineOp;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 
@@ -241,20 +240,12 @@ public class ShadowFilter extends AbstractBufferedImageOp {
         dst = createCompatibleDestImage(src, null);
     }
 
-    float shadowR = ((shadowColor >> 16) & 0xff) / 255f;
-    float shadowG = ((shadowColor >> 8) & 0xff) / 255f;
-    float shadowB = (shadowColor & 0xff) / 255f;
-
-    // Make a black mask from the image's alpha channel
-    float[][] extractAlpha = {
-            {0, 0, 0, shadowR},
-            {0, 0, 0, shadowG},
-            {0, 0, 0, shadowB},
-            {0, 0, 0, opacity}
-    };
+    // The shadow only depends on the alpha channel, so blur that on its own and color it afterwards
+    byte[] alpha = ImageUtils.getAlpha(src, 0, 0, width, height, null, 0, width);
+    new GaussianFilter(radius).blurPlane(alpha, width, height);
     BufferedImage shadow = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-    new BandCombineOp(extractAlpha, null).filter(src.getRaster(), shadow.getRaster());
-    shadow = new GaussianFilter(radius).filter(shadow, null);
+    int color = (PixelUtils.clamp((int) (opacity * 255 + 0.5f)) << 24) | (shadowColor & 0xffffff);
+    ImageUtils.setAlpha(shadow, 0, 0, width, height, alpha, 0, width, color);
 
     Graphics2D g = dst.createGraphics();
     g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
@@ -29,6 +29,7 @@ public class ShearFilter extends TransformFilter {
   private boolean resize = true;
 
   public ShearFilter() {
+    canFilterInParallel = true;
   }
 
   public void setResize(boolean resize) {
@@ -130,6 +131,16 @@ catch (Exception e) {
     out[1] = y + yoffset + (x * shy);
   }
 
+  protected void transformInverse(int x, int y, int length, float[] outX, float[] outY) {
+    float yShear = y * shx;
+    float yShifted = y + yoffset;
+    for (int i = 0; i < length; i++) {
+      int xi = x + i;
+      outX[i] = xi + xoffset + yShear;
+      outY[i] = yShifted + (xi * shy);
+    }
+  }
+
   public String toString() {
     return "Distort/Shear...";
   }
@@ -49,70 +49,85 @@ public class SkeletonFilter extends BinaryFilter {
   }
 
   protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-    int[] outPixels = new int[width * height];
+    int[] outPixels = ScratchBuffers.getDefault().getInts(width * height);
+    System.arraycopy(inPixels, 0, outPixels, 0, width * height);
+    if (iterations <= 0)
+      return outPixels;
 
-    int count = 0;
     int black = 0xff000000;
-    int white = 0xffffffff;
+    BitPlane plane = BitPlane.fromPixels(inPixels, width, height, rgb -> rgb == black);
+    // Each iteration's first pass starts from the previous iteration's first pass rather than its second,
+    // so the second pass only shows in the result of the final iteration
     for (int i = 0; i < iterations; i++) {
-      count = 0;
-      for (int pass = 0; pass < 2; pass++) {
-        for (int y = 1; y < height - 1; y++) {
-          int offset = y * width + 1;
-          for (int x = 1; x < width - 1; x++) {
-            int pixel = inPixels[offset];
-            if (pixel == black) {
-              int tableIndex = 0;
-
-              if (inPixels[offset - width - 1] == black)
-                tableIndex |= 1;
-              if (inPixels[offset - width] == black)
-                tableIndex |= 2;
-              if (inPixels[offset - width + 1] == black)
-                tableIndex |= 4;
-              if (inPixels[offset + 1] == black)
-                tableIndex |= 8;
-              if (inPixels[offset + width + 1] == black)
-                tableIndex |= 16;
-              if (inPixels[offset + width] == black)
-                tableIndex |= 32;
-              if (inPixels[offset + width - 1] == black)
-                tableIndex |= 64;
-              if (inPixels[offset - 1] == black)
-                tableIndex |= 128;
-              int code = skeletonTable[tableIndex];
-              if (pass == 1) {
-                if (code == 2 || code == 3) {
-                  if (colormap != null)
-                    pixel = colormap.getColor((float) i / iterations);
-                  else
-                    pixel = newColor;
-                  count++;
-                }
-              } else {
-                if (code == 1 || code == 3) {
-                  if (colormap != null)
-                    pixel = colormap.getColor((float) i / iterations);
-                  else
-                    pixel = newColor;
-                  count++;
-                }
-              }
-            }
-            outPixels[offset++] = pixel;
-          }
-        }
-        if (pass == 0) {
-          inPixels = outPixels;
-          outPixels = new int[width * height];
-        }
-      }
-      if (count == 0)
+      int color = colormap != null ? colormap.getColor((float) i / iterations) : newColor;
+      BitPlane removed = thin(plane, 0);
+      removed.fill(outPixels, color);
+      if (color != black)
+        plane.andNot(removed);
+      // Only the inside of the image is ever written, so the border is clear from the first pass on
+      plane.clearBorder();
+      int count = removed.cardinality();
+
+      removed = thin(plane, 1);
+      count += removed.cardinality();
+      if (count == 0 || i == iterations - 1) {
+        removed.fill(outPixels, color);
         break;
+      }
+    }
+
+    for (int x = 0; x < width; x++) {
+      outPixels[x] = 0;
+      outPixels[(height - 1) * width + x] = 0;
+    }
+    for (int y = 0; y < height; y++) {
+      outPixels[y * width] = 0;
+      outPixels[y * width + width - 1] = 0;
     }
     return outPixels;
   }
 
+  /**
+   * Find the pixels removed by one pass of thinning. The neighbours of each black pixel make an index into the
+   * skeleton table, which says in which passes the pixel can be removed.
+   */
+  private BitPlane thin(BitPlane plane, int pass) {
+    int height = plane.getHeight();
+    int wordsPerRow = plane.getWordsPerRow();
+    BitPlane removed = new BitPlane(plane.getWidth(), height);
+    // The border can't be removed, and has no neighbours on one side
+    BitPlane inside = plane.copy();
+    inside.clearBorder();
+    long[] bits = inside.getBits();
+    long[] out = removed.getBits();
+    BitPlane[] neighbours = plane.neighbours(false);
+    long[][] nbits = new long[8][];
+    for (int n = 0; n < 8; n++)
+      nbits[n] = neighbours[n].getBits();
+    int mask = pass == 0 ? 1 : 2;
+
+    for (int i = wordsPerRow; i < (height - 1) * wordsPerRow; i++) {
+      long nw = nbits[0][i], n = nbits[1][i], ne = nbits[2][i], e = nbits[3][i];
+      long se = nbits[4][i], s = nbits[5][i], sw = nbits[6][i], w = nbits[7][i];
+      // Pixels with all or none of their neighbours set are never removed
+      long all = nw & n & ne & e & se & s & sw & w;
+      long any = nw | n | ne | e | se | s | sw | w;
+      long candidates = bits[i] & any & ~all;
+      long r = 0;
+      while (candidates != 0) {
+        int b = Long.numberOfTrailingZeros(candidates);
+        int tableIndex = (int) (nw >>> b & 1) | (int) (n >>> b & 1) << 1 | (int) (ne >>> b & 1) << 2 |
+                (int) (e >>> b & 1) << 3 | (int) (se >>> b & 1) << 4 | (int) (s >>> b & 1) << 5 |
+                (int) (sw >>> b & 1) << 6 | (int) (w >>> b & 1) << 7;
+        if ((skeletonTable[tableIndex] & mask) != 0)
+          r |= 1L << b;
+        candidates &= candidates - 1;
+      }
+      out[i] = r;
+    }
+    return removed;
+  }
+
   public String toString() {
     return "Binary/Skeletonize...";
   }
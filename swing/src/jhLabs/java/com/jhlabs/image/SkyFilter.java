@@ -449,6 +449,13 @@ if (y == 100)System.out.println(fg+" "+gf+gradient);
     return v;
   }
 
+  public AbstractBufferedImageOp getScaledInstance(float scale) {
+    SkyFilter f = (SkyFilter) super.getScaledInstance(scale);
+    // The clouds are laid out in proportion to the image, but the sun's glow falls off with the distance in pixels
+    f.glow = glow * (float) Math.pow(scale, -2 * glowFalloff);
+    return f;
+  }
+
   public String toString() {
     return "Texture/Sky...";
   }
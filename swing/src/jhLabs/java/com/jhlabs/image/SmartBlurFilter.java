@@ -21,12 +21,18 @@ import java.awt.image.Kernel;
 
 /**
  * A filter which performs a "smart blur". i.e. a blur which blurs smotth parts of the image while preserving edges.
+ * <p>
+ * Each pixel is averaged with those neighbours whose channels are within the threshold of its own. By default the
+ * average is weighted by a Gaussian, which costs time in proportion to the radius. With {@link #setUseBoxWindow} the
+ * neighbours are weighted equally instead, and wherever a whole window is within the threshold the average comes from
+ * running sums, so smooth areas cost the same whatever the radius and only pixels near edges look at every neighbour.
  */
 public class SmartBlurFilter extends AbstractBufferedImageOp {
 
   private int hRadius = 5;
   private int vRadius = 5;
   private int threshold = 10;
+  private boolean useBoxWindow = false;
 
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     int width = src.getWidth();
@@ -39,9 +45,14 @@ public class SmartBlurFilter extends AbstractBufferedImageOp {
     int[] outPixels = new int[width * height];
     getRGB(src, 0, 0, width, height, inPixels);
 
-    Kernel kernel = GaussianFilter.makeKernel(hRadius);
-    thresholdBlur(kernel, inPixels, outPixels, width, height, true);
-    thresholdBlur(kernel, outPixels, inPixels, height, width, true);
+    if (useBoxWindow) {
+      thresholdBoxBlur(inPixels, outPixels, width, height, hRadius);
+      thresholdBoxBlur(outPixels, inPixels, height, width, vRadius);
+    } else {
+      Kernel kernel = GaussianFilter.makeKernel(hRadius);
+      thresholdBlur(kernel, inPixels, outPixels, width, height, true);
+      thresholdBlur(kernel, outPixels, inPixels, height, width, true);
+    }
 
     setRGB(dst, 0, 0, width, height, inPixels);
     return dst;
@@ -119,6 +130,124 @@ public class SmartBlurFilter extends AbstractBufferedImageOp {
     }
   }
 
+  /**
+   * Blur along the rows with equal weights, and transpose the result. Pixels off the edge of the image count as
+   * copies of the centre pixel, as they do for the Gaussian.
+   */
+  private void thresholdBoxBlur(int[] inPixels, int[] outPixels, int width, int height, int radius) {
+    int[] maxPixels = new int[width * height];
+    int[] minPixels = new int[width * height];
+    int size = 2 * radius + 1;
+
+    RowBands.Task task = (y0, y1) -> {
+      // The range of each channel over each window, found in time independent of the radius
+      RankFilter.minMaxAndTranspose(inPixels, maxPixels, width, height, radius, true, y0, y1);
+      RankFilter.minMaxAndTranspose(inPixels, minPixels, width, height, radius, false, y0, y1);
+      int[][] sums = new int[4][width + 1];
+
+      for (int y = y0; y < y1; y++) {
+        int ioffset = y * width;
+        for (int x = 0; x < width; x++) {
+          int rgb = inPixels[ioffset + x];
+          for (int c = 0; c < 4; c++)
+            sums[c][x + 1] = sums[c][x] + ((rgb >> (c * 8)) & 0xff);
+        }
+
+        int outIndex = y;
+        for (int x = 0; x < width; x++) {
+          int lo = Math.max(0, x - radius);
+          int hi = Math.min(width - 1, x + radius);
+          int outside = size - (hi - lo + 1);
+          int rgb1 = inPixels[ioffset + x];
+          int max = maxPixels[x * height + y];
+          int min = minPixels[x * height + y];
+          int result = 0;
+
+          boolean smooth = true;
+          for (int shift = 0; shift < 32; shift += 8) {
+            int v1 = (rgb1 >> shift) & 0xff;
+            if (((max >> shift) & 0xff) - v1 > threshold || v1 - ((min >> shift) & 0xff) > threshold) {
+              smooth = false;
+              break;
+            }
+          }
+
+          if (smooth) {
+            for (int c = 0; c < 4; c++) {
+              int v1 = (rgb1 >> (c * 8)) & 0xff;
+              int sum = sums[c][hi + 1] - sums[c][lo] + outside * v1;
+              result |= ((2 * sum + size) / (2 * size)) << (c * 8);
+            }
+          } else {
+            int a1 = (rgb1 >> 24) & 0xff;
+            int r1 = (rgb1 >> 16) & 0xff;
+            int g1 = (rgb1 >> 8) & 0xff;
+            int b1 = rgb1 & 0xff;
+            int a = outside * a1, r = outside * r1, g = outside * g1, b = outside * b1;
+            int af = outside, rf = outside, gf = outside, bf = outside;
+            for (int ix = lo; ix <= hi; ix++) {
+              int rgb2 = inPixels[ioffset + ix];
+              int a2 = (rgb2 >> 24) & 0xff;
+              int r2 = (rgb2 >> 16) & 0xff;
+              int g2 = (rgb2 >> 8) & 0xff;
+              int b2 = rgb2 & 0xff;
+
+              int d;
+              d = a1 - a2;
+              if (d >= -threshold && d <= threshold) {
+                a += a2;
+                af++;
+              }
+              d = r1 - r2;
+              if (d >= -threshold && d <= threshold) {
+                r += r2;
+                rf++;
+              }
+              d = g1 - g2;
+              if (d >= -threshold && d <= threshold) {
+                g += g2;
+                gf++;
+              }
+              d = b1 - b2;
+              if (d >= -threshold && d <= threshold) {
+                b += b2;
+                bf++;
+              }
+            }
+            result = ((2 * a + af) / (2 * af)) << 24 | ((2 * r + rf) / (2 * rf)) << 16 |
+                    ((2 * g + gf) / (2 * gf)) << 8 | ((2 * b + bf) / (2 * bf));
+          }
+          outPixels[outIndex] = result;
+          outIndex += height;
+        }
+      }
+    };
+    if (parallel)
+      RowBands.process(forkJoinPool, width, height, task);
+    else
+      task.run(0, height);
+  }
+
+  /**
+   * Set whether to weight the neighbours equally over a box rather than by a Gaussian.
+   *
+   * @param useBoxWindow true to use a box
+   * @see #getUseBoxWindow
+   */
+  public void setUseBoxWindow(boolean useBoxWindow) {
+    this.useBoxWindow = useBoxWindow;
+  }
+
+  /**
+   * Get whether to weight the neighbours equally over a box.
+   *
+   * @return true to use a box
+   * @see #setUseBoxWindow
+   */
+  public boolean getUseBoxWindow() {
+    return useBoxWindow;
+  }
+
   /**
    * Set the horizontal size of the blur.
    *
@@ -38,6 +38,7 @@ public class SphereFilter extends TransformFilter {
   public SphereFilter() {
     setEdgeAction(CLAMP);
     setRadius(100.0f);
+    canFilterInParallel = true;
   }
 
   /**
@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
 
 /**
@@ -44,6 +45,7 @@ public class StampFilter extends PointFilter {
    * @param threshold the threshold value
    */
   public StampFilter(float threshold) {
+    canFilterInParallel = true;
     setThreshold(threshold);
   }
 
@@ -151,10 +153,18 @@ public class StampFilter extends PointFilter {
   }
 
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
-    dst = new GaussianFilter((int) radius).filter(src, null);
+    BufferedImage blurred = new GaussianFilter((int) radius).filter(src, null, region);
     lowerThreshold3 = 255 * 3 * (threshold - softness * 0.5f);
     upperThreshold3 = 255 * 3 * (threshold + softness * 0.5f);
-    return super.filter(dst, dst);
+    return super.filter(blurred, dst);
+  }
+
+  public Rectangle getSourceRegion(Rectangle region, BufferedImage src) {
+    return new GaussianFilter((int) radius).getSourceRegion(region, src);
+  }
+
+  public Rectangle getDirtyRegion(Rectangle region, BufferedImage src) {
+    return new GaussianFilter((int) radius).getDirtyRegion(region, src);
   }
 
   public int filterRGB(int x, int y, int rgb) {
@@ -0,0 +1,159 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+/**
+ * A summed-area table, or integral image, of an ARGB image. Each entry holds the sums of the four channels over the
+ * rectangle above and to the left of it, so the sum or mean over any box can be found with four lookups, however
+ * large the box is. The sums are 64 bit, so images of any size can be handled.
+ * <p>
+ * Channels are numbered by their position in the pixel, from 0 for blue to 3 for alpha.
+ */
+public class SummedAreaTable {
+
+  private final int width;
+  private final int height;
+  private final int stride;
+  // Four sums per entry, with an extra row and column of zeros at the top and left
+  private final long[] sums;
+
+  /**
+   * Construct a SummedAreaTable.
+   *
+   * @param pixels the ARGB pixels
+   * @param width  the width of the image
+   * @param height the height of the image
+   */
+  public SummedAreaTable(int[] pixels, int width, int height) {
+    this.width = width;
+    this.height = height;
+    stride = (width + 1) * 4;
+    sums = new long[stride * (height + 1)];
+
+    for (int y = 0; y < height; y++) {
+      int inIndex = y * width;
+      int above = (y * (width + 1) + 1) * 4;
+      int index = above + stride;
+      long b = 0, g = 0, r = 0, a = 0;
+      for (int x = 0; x < width; x++) {
+        int rgb = pixels[inIndex + x];
+        b += rgb & 0xff;
+        g += (rgb >> 8) & 0xff;
+        r += (rgb >> 16) & 0xff;
+        a += (rgb >>> 24);
+        sums[index] = sums[above] + b;
+        sums[index + 1] = sums[above + 1] + g;
+        sums[index + 2] = sums[above + 2] + r;
+        sums[index + 3] = sums[above + 3] + a;
+        index += 4;
+        above += 4;
+      }
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Get the sum of one channel over a box. The box is clipped to the image.
+   *
+   * @param channel the channel, from 0 for blue to 3 for alpha
+   * @param x0      the left of the box, inclusive
+   * @param y0      the top of the box, inclusive
+   * @param x1      the right of the box, inclusive
+   * @param y1      the bottom of the box, inclusive
+   * @return the sum
+   */
+  public long getSum(int channel, int x0, int y0, int x1, int y1) {
+    x0 = Math.max(x0, 0);
+    y0 = Math.max(y0, 0);
+    x1 = Math.min(x1, width - 1);
+    y1 = Math.min(y1, height - 1);
+    if (x0 > x1 || y0 > y1)
+      return 0;
+    int top = y0 * stride + channel;
+    int bottom = (y1 + 1) * stride + channel;
+    int left = x0 * 4;
+    int right = (x1 + 1) * 4;
+    return sums[bottom + right] - sums[bottom + left] - sums[top + right] + sums[top + left];
+  }
+
+  /**
+   * Get the mean of each channel over a box, rounded down. Pixels off the edge of the image take the value of the
+   * nearest edge pixel, as if the image were extended by clamping, which matches the edge handling of a separable
+   * box blur. The box must overlap the image.
+   *
+   * @param x0 the left of the box, inclusive
+   * @param y0 the top of the box, inclusive
+   * @param x1 the right of the box, inclusive
+   * @param y1 the bottom of the box, inclusive
+   * @return the mean as an ARGB pixel
+   */
+  public int getMean(int x0, int y0, int x1, int y1) {
+    long area = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+    int w1 = width - 1;
+    int h1 = height - 1;
+    if (x0 >= 0 && y0 >= 0 && x1 <= w1 && y1 <= h1) {
+      int top = y0 * stride;
+      int bottom = (y1 + 1) * stride;
+      int left = x0 * 4;
+      int right = (x1 + 1) * 4;
+      int mean = 0;
+      for (int c = 0; c < 4; c++) {
+        long sum = sums[bottom + right + c] - sums[bottom + left + c] - sums[top + right + c] + sums[top + left + c];
+        mean |= (int) (sum / area) << (c * 8);
+      }
+      return mean;
+    }
+
+    // Pixels off the edge are copies of the first or last row or column, so count those again
+    long[] total = new long[4];
+    int left = Math.max(0, -x0);
+    int right = Math.max(0, x1 - w1);
+    int above = Math.max(0, -y0);
+    int below = Math.max(0, y1 - h1);
+    int ix0 = Math.max(x0, 0), ix1 = Math.min(x1, w1);
+    int iy0 = Math.max(y0, 0), iy1 = Math.min(y1, h1);
+    addBox(total, 1, ix0, iy0, ix1, iy1);
+    addBox(total, left, 0, iy0, 0, iy1);
+    addBox(total, right, w1, iy0, w1, iy1);
+    addBox(total, above, ix0, 0, ix1, 0);
+    addBox(total, below, ix0, h1, ix1, h1);
+    addBox(total, (long) left * above, 0, 0, 0, 0);
+    addBox(total, (long) right * above, w1, 0, w1, 0);
+    addBox(total, (long) left * below, 0, h1, 0, h1);
+    addBox(total, (long) right * below, w1, h1, w1, h1);
+    return (int) (total[3] / area) << 24 | (int) (total[2] / area) << 16 | (int) (total[1] / area) << 8 | (int) (total[0] / area);
+  }
+
+  private void addBox(long[] total, long weight, int x0, int y0, int x1, int y1) {
+    if (weight == 0)
+      return;
+    int top = y0 * stride;
+    int bottom = (y1 + 1) * stride;
+    int left = x0 * 4;
+    int right = (x1 + 1) * 4;
+    for (int c = 0; c < 4; c++)
+      total[c] += weight * (sums[bottom + right + c] - sums[bottom + left + c] - sums[top + right + c] + sums[top + left + c]);
+  }
+
+}
@@ -30,6 +30,7 @@ public class SwizzleFilter extends PointFilter {
   };
 
   public SwizzleFilter() {
+    canFilterInParallel = true;
   }
 
   /**
@@ -34,6 +34,8 @@ public class TextureFilter extends PointFilter {
   private float m10 = 0.0f;
   private float m11 = 1.0f;
   private Colormap colormap = new Gradient();
+  // The colormap compiled for quick lookups, for the image being filtered
+  private Colormap lookupColormap;
   private Function2D function = new Noise();
 
   public TextureFilter() {
@@ -178,6 +180,7 @@ public class TextureFilter extends PointFilter {
    */
   public void setColormap(Colormap colormap) {
     this.colormap = colormap;
+    lookupColormap = null;
   }
 
   /**
@@ -190,18 +193,45 @@ public class TextureFilter extends PointFilter {
     return colormap;
   }
 
+  public void setDimensions(int width, int height) {
+    lookupColormap = LookupColormap.compile(colormap);
+  }
+
   public int filterRGB(int x, int y, int rgb) {
     float nx = m00 * x + m01 * y;
     float ny = m10 * x + m11 * y;
     nx /= scale;
     ny /= scale * stretch;
     float f = turbulence == 1.0 ? Noise.noise2(nx, ny) : Noise.turbulence2(nx, ny, turbulence);
+    return getColor(f, rgb);
+  }
+
+  protected void filterRow(int x0, int y, int[] pixels, int offset, int width) {
+    // Evaluate the noise for the whole row at once
+    float[] nx = new float[width];
+    float[] ny = new float[width];
+    float[] f = new float[width];
+    for (int i = 0; i < width; i++) {
+      int x = x0 + i;
+      nx[i] = (m00 * x + m01 * y) / scale;
+      ny[i] = (m10 * x + m11 * y) / (scale * stretch);
+    }
+    if (turbulence == 1.0)
+      Noise.noise2(nx, ny, f, width);
+    else
+      Noise.turbulence2(nx, ny, turbulence, f, width);
+    for (int x = 0; x < width; x++)
+      pixels[offset + x] = getColor(f[x], pixels[offset + x]);
+  }
+
+  private int getColor(float f, int rgb) {
     f = (f * 0.5f) + 0.5f;
     f = ImageMath.gain(f, gain);
     f = ImageMath.bias(f, bias);
     f *= amount;
     int a = rgb & 0xff000000;
     int v;
+    Colormap colormap = lookupColormap != null ? lookupColormap : this.colormap;
     if (colormap != null)
       v = colormap.getColor(f);
     else {
@@ -39,6 +39,7 @@ public class ThresholdFilter extends PointFilter {
    * @param t the threshold value
    */
   public ThresholdFilter(int t) {
+    canFilterInParallel = true;
     setLowerThreshold(t);
     setUpperThreshold(t);
   }
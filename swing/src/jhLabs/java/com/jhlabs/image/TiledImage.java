@@ -0,0 +1,434 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An ARGB image which is kept in square tiles in a scratch file, for images too big to fit in memory, or in a single
+ * array, as a BufferedImage must. Tiles are read in as they're needed and kept in a cache, the least recently used
+ * being written back to the file when the cache goes over its memory budget. Pixels which have never been set are
+ * transparent black.
+ * <p>
+ * Images are filtered a tile at a time with {@link #filter}, which handles point filters, convolutions and
+ * transforms. Each tile of the output is filtered from the block of the source it depends on, so a convolution reads
+ * a halo of pixels from the neighbouring tiles and a transform reads whatever part of the source the tile maps back
+ * to. As well as the caches of the two images, this needs memory for one block at a time, which must itself fit in
+ * the memory budget.
+ * <p>
+ * The scratch file is deleted when the image is closed.
+ */
+public class TiledImage implements Closeable {
+
+  /**
+   * The default width and height of a tile.
+   */
+  public final static int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * The default memory budget, in bytes.
+   */
+  public final static long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+  private final int width, height;
+  private final int tileSize;
+  private final int tilesAcross;
+  private final long tileBytes;
+  private long memoryBudget;
+  private int maxTiles;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final Map<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(16, 0.75f, true);
+
+  private static class Tile {
+    final int[] pixels;
+    boolean dirty;
+
+    Tile(int[] pixels) {
+      this.pixels = pixels;
+    }
+  }
+
+  /**
+   * Construct a TiledImage with the default tile size and memory budget, in a temporary file.
+   *
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @throws IOException if the file couldn't be created
+   */
+  public TiledImage(int width, int height) throws IOException {
+    this(width, height, DEFAULT_TILE_SIZE, DEFAULT_MEMORY_BUDGET, null);
+  }
+
+  /**
+   * Construct a TiledImage.
+   *
+   * @param width        the width of the image
+   * @param height       the height of the image
+   * @param tileSize     the width and height of a tile
+   * @param memoryBudget the most memory to use for cached tiles, in bytes. At least one tile is always cached.
+   * @param file         the scratch file to keep the tiles in, which is replaced if it exists and deleted when the
+   *                     image is closed, or null to use a temporary file
+   * @throws IOException if the file couldn't be created
+   */
+  public TiledImage(int width, int height, int tileSize, long memoryBudget, Path file) throws IOException {
+    if (width <= 0 || height <= 0)
+      throw new IllegalArgumentException("Width and height must be positive");
+    if (tileSize <= 0 || (long) tileSize * tileSize > Integer.MAX_VALUE / 4)
+      throw new IllegalArgumentException("Bad tile size " + tileSize);
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    tilesAcross = (width + tileSize - 1) / tileSize;
+    tileBytes = 4L * tileSize * tileSize;
+    setMemoryBudget(memoryBudget);
+    if (file == null)
+      file = Files.createTempFile("tiles", ".tmp");
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+      StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    buffer = ByteBuffer.allocateDirect((int) tileBytes).order(ByteOrder.nativeOrder());
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Set the most memory to use for cached tiles. Lowering it writes tiles back to the file straight away.
+   *
+   * @param memoryBudget the budget in bytes
+   * @see #getMemoryBudget
+   */
+  public synchronized void setMemoryBudget(long memoryBudget) {
+    if (memoryBudget <= 0)
+      throw new IllegalArgumentException("Memory budget must be positive");
+    this.memoryBudget = memoryBudget;
+    maxTiles = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / tileBytes));
+    evict();
+  }
+
+  /**
+   * Get the most memory to use for cached tiles.
+   *
+   * @return the budget in bytes
+   * @see #setMemoryBudget
+   */
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Get the pixels of a rectangle of the image.
+   *
+   * @param x      the left of the rectangle
+   * @param y      the top of the rectangle
+   * @param w      the width of the rectangle
+   * @param h      the height of the rectangle
+   * @param pixels the array to put the pixels in, or null to allocate one
+   * @return the pixels, a row at a time
+   */
+  public synchronized int[] getRGB(int x, int y, int w, int h, int[] pixels) {
+    checkBounds(x, y, w, h);
+    if (pixels == null)
+      pixels = new int[w * h];
+    for (int ty = y / tileSize; ty * tileSize < y + h; ty++) {
+      for (int tx = x / tileSize; tx * tileSize < x + w; tx++) {
+        Rectangle r = getTileBounds(tx, ty).intersection(new Rectangle(x, y, w, h));
+        int[] tilePixels = getTile(tx, ty, false).pixels;
+        for (int row = r.y; row < r.y + r.height; row++)
+          System.arraycopy(tilePixels, (row - ty * tileSize) * tileSize + r.x - tx * tileSize, pixels, (row - y) * w + r.x - x, r.width);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Set the pixels of a rectangle of the image.
+   *
+   * @param x      the left of the rectangle
+   * @param y      the top of the rectangle
+   * @param w      the width of the rectangle
+   * @param h      the height of the rectangle
+   * @param pixels the pixels, a row at a time
+   */
+  public synchronized void setRGB(int x, int y, int w, int h, int[] pixels) {
+    checkBounds(x, y, w, h);
+    for (int ty = y / tileSize; ty * tileSize < y + h; ty++) {
+      for (int tx = x / tileSize; tx * tileSize < x + w; tx++) {
+        Rectangle bounds = getTileBounds(tx, ty);
+        Rectangle r = bounds.intersection(new Rectangle(x, y, w, h));
+        Tile tile = getTile(tx, ty, r.equals(bounds));
+        for (int row = r.y; row < r.y + r.height; row++)
+          System.arraycopy(pixels, (row - y) * w + r.x - x, tile.pixels, (row - ty * tileSize) * tileSize + r.x - tx * tileSize, r.width);
+        tile.dirty = true;
+      }
+    }
+  }
+
+  /**
+   * Copy a rectangle of the image into a BufferedImage.
+   *
+   * @param x the left of the rectangle
+   * @param y the top of the rectangle
+   * @param w the width of the rectangle
+   * @param h the height of the rectangle
+   * @return a TYPE_INT_ARGB image of the rectangle
+   */
+  public BufferedImage getImage(int x, int y, int w, int h) {
+    BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = ImageUtils.getPixelData(image);
+    getRGB(x, y, w, h, pixels);
+    return image;
+  }
+
+  /**
+   * Copy a BufferedImage into the image.
+   *
+   * @param image the image to copy
+   * @param x     where to put the left of the image
+   * @param y     where to put the top of the image
+   */
+  public void setImage(BufferedImage image, int x, int y) {
+    int w = image.getWidth();
+    int h = image.getHeight();
+    checkBounds(x, y, w, h);
+    // A band of whole rows of tiles at a time, so that each tile is only written once, as many as fit in the budget
+    long budgetRows = Math.min(memoryBudget, Integer.MAX_VALUE) / 4 / Math.max(1, w);
+    int band = (int) Math.min(h, Math.max(tileSize, budgetRows / tileSize * tileSize));
+    int[] pixels = null;
+    for (int top = 0; top < h; top += band) {
+      int rows = Math.min(band, h - top);
+      pixels = image.getRGB(0, top, w, rows, pixels != null && pixels.length == w * rows ? pixels : null, 0, w);
+      setRGB(x, y + top, w, rows, pixels);
+    }
+  }
+
+  /**
+   * Filter the image a tile at a time. The filter must be a PointFilter whose filterRGB method can be run in
+   * parallel, a ConvolveFilter or GaussianFilter, or a TransformFilter whose transformInverse method can be run in
+   * parallel, and the class of the filter must not override filter(BufferedImage, BufferedImage), as the filter
+   * method isn't called on the whole image. Convolutions with edges which aren't clamped, and transforms which wrap
+   * at the edges, need the whole image for tiles at the edge, so they can only be used on images which fit in the
+   * memory budget.
+   *
+   * @param filter the filter
+   * @param dst    the image to put the result in, or null to create one. Point filters may filter an image in place.
+   * @return the filtered image
+   * @throws IOException if the destination couldn't be created
+   */
+  public TiledImage filter(BufferedImageOp filter, TiledImage dst) throws IOException {
+    if (filter instanceof PointFilter && FilterPipeline.overridesFilter(filter, PointFilter.class, TransferFilter.class)
+      && ((PointFilter) filter).canFilterInParallel) {
+      if (dst == null)
+        dst = new TiledImage(width, height, tileSize, memoryBudget, null);
+      checkSize(dst, width, height);
+      filterPoint((PointFilter) filter, dst);
+      return dst;
+    }
+    if (filter instanceof ConvolveFilter && FilterPipeline.overridesFilter(filter, ConvolveFilter.class, GaussianFilter.class)) {
+      if (dst == null)
+        dst = new TiledImage(width, height, tileSize, memoryBudget, null);
+      checkSize(dst, width, height);
+      if (dst == this)
+        throw new IllegalArgumentException("Can't convolve an image in place");
+      filterConvolve((ConvolveFilter) filter, dst);
+      return dst;
+    }
+    if (filter instanceof TransformFilter && FilterPipeline.overridesFilter(filter, TransformFilter.class)
+      && ((TransformFilter) filter).canFilterInParallel) {
+      TransformFilter transformFilter = (TransformFilter) filter;
+      transformFilter.setDimensions(width, height);
+      Rectangle space = transformFilter.transformedSpace;
+      if (dst == null)
+        dst = new TiledImage(space.width, space.height, tileSize, memoryBudget, null);
+      checkSize(dst, space.width, space.height);
+      if (dst == this)
+        throw new IllegalArgumentException("Can't transform an image in place");
+      filterTransform(transformFilter, dst);
+      return dst;
+    }
+    throw new IllegalArgumentException(filter.getClass().getSimpleName() + " can't be used on a tiled image");
+  }
+
+  private void filterPoint(PointFilter filter, TiledImage dst) {
+    if (filter instanceof TransferFilter) {
+      TransferFilter transferFilter = (TransferFilter) filter;
+      if (!transferFilter.initialized)
+        transferFilter.initialize();
+    }
+    filter.setDimensions(width, height);
+    int[] pixels = new int[dst.tileSize * dst.tileSize];
+    for (Rectangle tile : dst.getTiles()) {
+      getRGB(tile.x, tile.y, tile.width, tile.height, pixels);
+      for (int y = 0; y < tile.height; y++)
+        filter.filterRow(tile.x, tile.y + y, pixels, y * tile.width, tile.width);
+      dst.setRGB(tile.x, tile.y, tile.width, tile.height, pixels);
+    }
+  }
+
+  private void filterConvolve(ConvolveFilter filter, TiledImage dst) {
+    for (Rectangle tile : dst.getTiles()) {
+      Rectangle block = filter.getSourceRegion(tile, width, height);
+      checkBlock(block);
+      Rectangle region = new Rectangle(tile.x - block.x, tile.y - block.y, tile.width, tile.height);
+      BufferedImage out = filter.filter(getImage(block.x, block.y, block.width, block.height), null, region);
+      int[] pixels = ImageUtils.getPixelData(out);
+      if (pixels != null)
+        pixels = ConvolveFilter.crop(pixels, new Rectangle(0, 0, block.width, block.height), region);
+      else
+        pixels = out.getRGB(region.x, region.y, region.width, region.height, null, 0, region.width);
+      dst.setRGB(tile.x, tile.y, tile.width, tile.height, pixels);
+    }
+  }
+
+  private void filterTransform(TransformFilter filter, TiledImage dst) {
+    int[] outPixels = new int[dst.tileSize * dst.tileSize];
+    for (Rectangle tile : dst.getTiles()) {
+      Rectangle block = filter.getSourceBlock(tile, width, height, filter.transformedSpace);
+      checkBlock(block);
+      int[] inPixels = getRGB(block.x, block.y, block.width, block.height, null);
+      filter.filterRegion(width, height, inPixels, block, tile, outPixels);
+      dst.setRGB(tile.x, tile.y, tile.width, tile.height, outPixels);
+    }
+  }
+
+  /**
+   * Delete the scratch file and free the cache. The image can't be used afterwards.
+   */
+  public synchronized void close() throws IOException {
+    tiles.clear();
+    channel.close();
+  }
+
+  /**
+   * Get the bounds of every tile, in the order they're stored.
+   */
+  private Rectangle[] getTiles() {
+    int tilesDown = (height + tileSize - 1) / tileSize;
+    Rectangle[] bounds = new Rectangle[tilesAcross * tilesDown];
+    for (int ty = 0; ty < tilesDown; ty++) {
+      for (int tx = 0; tx < tilesAcross; tx++)
+        bounds[ty * tilesAcross + tx] = getTileBounds(tx, ty);
+    }
+    return bounds;
+  }
+
+  private Rectangle getTileBounds(int tx, int ty) {
+    int x = tx * tileSize;
+    int y = ty * tileSize;
+    return new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+  }
+
+  private void checkBounds(int x, int y, int w, int h) {
+    if (x < 0 || y < 0 || w < 0 || h < 0 || x > width - w || y > height - h)
+      throw new IllegalArgumentException("Rectangle " + x + "," + y + " " + w + "x" + h + " is outside the image");
+    if ((long) w * h > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Rectangle " + w + "x" + h + " is too big for an array");
+  }
+
+  private void checkBlock(Rectangle block) {
+    if (4L * block.width * block.height > memoryBudget)
+      throw new IllegalArgumentException("Filter needs a block of " + block.width + "x" + block.height + " pixels, which is over the memory budget");
+  }
+
+  private static void checkSize(TiledImage dst, int width, int height) {
+    if (dst.width != width || dst.height != height)
+      throw new IllegalArgumentException("Destination must be " + width + "x" + height);
+  }
+
+  /**
+   * Get a tile from the cache, reading it in if it isn't there.
+   *
+   * @param replace true if the whole tile is about to be overwritten, so it needn't be read
+   */
+  private Tile getTile(int tx, int ty, boolean replace) {
+    long index = (long) ty * tilesAcross + tx;
+    Tile tile = tiles.get(index);
+    if (tile == null) {
+      int[] pixels = new int[tileSize * tileSize];
+      if (!replace)
+        readTile(index, pixels);
+      tile = new Tile(pixels);
+      tiles.put(index, tile);
+      evict();
+    }
+    return tile;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Long, Tile>> iterator = tiles.entrySet().iterator();
+    while (tiles.size() > maxTiles) {
+      Map.Entry<Long, Tile> eldest = iterator.next();
+      iterator.remove();
+      if (eldest.getValue().dirty)
+        writeTile(eldest.getKey(), eldest.getValue().pixels);
+    }
+  }
+
+  private void readTile(long index, int[] pixels) {
+    try {
+      long offset = index * tileBytes;
+      buffer.clear();
+      while (buffer.hasRemaining()) {
+        // Tiles past the end of the file have never been written
+        if (channel.read(buffer, offset + buffer.position()) < 0)
+          break;
+      }
+      int count = buffer.position() / 4;
+      buffer.flip();
+      buffer.asIntBuffer().get(pixels, 0, count);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeTile(long index, int[] pixels) {
+    try {
+      long offset = index * tileBytes;
+      buffer.clear();
+      buffer.asIntBuffer().put(pixels);
+      while (buffer.hasRemaining())
+        channel.write(buffer, offset + buffer.position());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
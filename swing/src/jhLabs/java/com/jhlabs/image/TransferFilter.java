@@ -24,6 +24,7 @@ public abstract class TransferFilter extends PointFilter {
   protected boolean initialized = false;
 
   public TransferFilter() {
+    canFilterInParallel = true;
     canFilterIndexColorModel = true;
   }
 
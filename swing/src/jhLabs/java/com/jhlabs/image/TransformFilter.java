@@ -19,11 +19,16 @@ package com.jhlabs.image;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
+import java.awt.image.IndexColorModel;
 
 /**
  * An abstract superclass for filters which distort images in some way. The subclass only needs to override
  * two methods to provide the mapping between source and destination pixels.
+ * <p>
+ * Subclasses whose transformInverse method doesn't modify any state may set canFilterInParallel, in which
+ * case bands of output rows are filtered concurrently when parallel execution is enabled with
+ * {@link #setParallel}. Such filters can also filter just a region of the output, reading only the part of the
+ * source which the region maps back to. Filters which wrap at the edges read the whole source.
  */
 public abstract class TransformFilter extends AbstractBufferedImageOp {
 
@@ -77,6 +82,11 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
    */
   protected Rectangle originalSpace;
 
+  /**
+   * Whether transformInverse may be called concurrently from several threads.
+   */
+  protected boolean canFilterInParallel = false;
+
   /**
    * Set the action to perform for pixels off the edge of the image.
    *
@@ -126,6 +136,25 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
    */
   protected abstract void transformInverse(int x, int y, float[] out);
 
+  /**
+   * Inverse transform a row of points. The default implementation calls the single point version for each
+   * pixel, subclasses may override this with a version which steps along the row more cheaply.
+   *
+   * @param x      the X position of the first pixel in the output image
+   * @param y      the Y position of the row in the output image
+   * @param length the number of pixels in the row
+   * @param outX   the X positions of the pixels in the input image
+   * @param outY   the Y positions of the pixels in the input image
+   */
+  protected void transformInverse(int x, int y, int length, float[] outX, float[] outY) {
+    float[] out = new float[2];
+    for (int i = 0; i < length; i++) {
+      transformInverse(x + i, y, out);
+      outX[i] = out[0];
+      outY[i] = out[1];
+    }
+  }
+
   /**
    * Forward transform a rectangle. Used to determine the size of the output image.
    *
@@ -137,105 +166,250 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     int width = src.getWidth();
     int height = src.getHeight();
-    int type = src.getType();
-    WritableRaster srcRaster = src.getRaster();
 
-    originalSpace = new Rectangle(0, 0, width, height);
-    transformedSpace = new Rectangle(0, 0, width, height);
-    transformSpace(transformedSpace);
+    setDimensions(width, height);
 
     if (dst == null) {
       ColorModel dstCM = src.getColorModel();
       dst = new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(transformedSpace.width, transformedSpace.height), dstCM.isAlphaPremultiplied(), null);
     }
-    WritableRaster dstRaster = dst.getRaster();
 
-    int[] inPixels = getRGB(src, 0, 0, width, height, null);
+    Rectangle target = new Rectangle(0, 0, transformedSpace.width, transformedSpace.height);
+    Rectangle block = new Rectangle(0, 0, width, height);
+    if (region != null && canFilterInParallel) {
+      target = target.intersection(region);
+      if (target.isEmpty())
+        return dst;
+      block = getSourceBlock(target, width, height, transformedSpace);
+    }
+    int[] inPixels = getRGB(src, block.x, block.y, block.width, block.height, null);
 
+    if (interpolation == NEAREST_NEIGHBOUR) {
+      if (region == null || !canFilterInParallel)
+        return filterPixelsNN(dst, width, height, inPixels, transformedSpace);
+      return filterPixelsNN(dst, width, height, inPixels, block, transformedSpace, target);
+    }
+
+    RowSink sink = toImage(dst, target);
+    final Rectangle fblock = block, ftarget = target;
+    filterBands(dst, target, (y0, y1) -> filterRowsBilinear(sink, width, height, inPixels, fblock, transformedSpace, ftarget, y0, y1));
+    return dst;
+  }
+
+  /**
+   * Set up the input and output rectangles for an image of the given size.
+   */
+  void setDimensions(int width, int height) {
+    originalSpace = new Rectangle(0, 0, width, height);
+    transformedSpace = new Rectangle(0, 0, width, height);
+    transformSpace(transformedSpace);
+  }
+
+  /**
+   * Filter a region of the output into an array, for images which are filtered a tile at a time. The rectangles must
+   * have been set up for the whole image with setDimensions.
+   *
+   * @param width     the width of the source image
+   * @param height    the height of the source image
+   * @param inPixels  the pixels of the block of the source which the region reads
+   * @param block     the block, as given by getSourceBlock
+   * @param target    the region of the output
+   * @param outPixels the array to put the filtered pixels in
+   */
+  void filterRegion(int width, int height, int[] inPixels, Rectangle block, Rectangle target, int[] outPixels) {
+    RowSink sink = (y, pixels) -> System.arraycopy(pixels, 0, outPixels, (y - target.y) * target.width, target.width);
     if (interpolation == NEAREST_NEIGHBOUR)
-      return filterPixelsNN(dst, width, height, inPixels, transformedSpace);
+      filterRowsNN(sink, width, height, inPixels, block, transformedSpace, target, target.y, target.y + target.height);
+    else
+      filterRowsBilinear(sink, width, height, inPixels, block, transformedSpace, target, target.y, target.y + target.height);
+  }
+
+  /**
+   * Somewhere to put rows of output pixels.
+   */
+  private interface RowSink {
+    void setRow(int y, int[] pixels);
+  }
 
+  private RowSink toImage(BufferedImage dst, Rectangle target) {
+    return (y, pixels) -> setRGB(dst, target.x, y, target.width, 1, pixels);
+  }
+
+  /**
+   * Get the part of the source which a region of the output maps back to. This inverse transforms every pixel of
+   * the region, so it reflects whatever the transform was set up as by the last call to filter.
+   */
+  public Rectangle getSourceRegion(Rectangle region, BufferedImage src) {
+    if (!canFilterInParallel)
+      return super.getSourceRegion(region, src);
+    int width = src.getWidth();
+    int height = src.getHeight();
+    Rectangle space = new Rectangle(0, 0, width, height);
+    transformSpace(space);
+    Rectangle target = region.intersection(new Rectangle(0, 0, space.width, space.height));
+    if (target.isEmpty())
+      return target;
+    return getSourceBlock(target, width, height, space);
+  }
+
+  /**
+   * Find the block of source pixels which a region of the output reads, including the neighbours used by bilinear
+   * interpolation and the edge pixels which are used for points off the image.
+   */
+  Rectangle getSourceBlock(Rectangle target, int width, int height, Rectangle transformedSpace) {
+    if (edgeAction == WRAP)
+      return new Rectangle(0, 0, width, height);
+    float[] inX = new float[target.width];
+    float[] inY = new float[target.width];
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+    for (int y = target.y; y < target.y + target.height; y++) {
+      transformInverse(transformedSpace.x + target.x, transformedSpace.y + y, target.width, inX, inY);
+      for (int x = 0; x < target.width; x++) {
+        // The same rounding as the filtering, so that NaNs and infinities end up where they will be looked up. An
+        // infinite coordinate floors to Integer.MAX_VALUE, whose bilinear neighbour overflows to the far edge.
+        int srcX = (int) Math.floor(inX[x]);
+        int srcY = (int) Math.floor(inY[x]);
+        minX = Math.min(minX, Math.min(srcX, srcX + 1));
+        minY = Math.min(minY, Math.min(srcY, srcY + 1));
+        maxX = Math.max(maxX, Math.max(srcX, srcX + 1));
+        maxY = Math.max(maxY, Math.max(srcY, srcY + 1));
+      }
+    }
+    // Points off the image are looked up at the nearest edge, which clamping the bounds keeps in the block
+    minX = ImageMath.clamp(minX, 0, width - 1);
+    minY = ImageMath.clamp(minY, 0, height - 1);
+    maxX = ImageMath.clamp(maxX, 0, width - 1);
+    maxY = ImageMath.clamp(maxY, 0, height - 1);
+    return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+  }
+
+  /**
+   * Run a task over the rows of a region of the output image, in parallel if this filter allows it.
+   */
+  private void filterBands(BufferedImage dst, Rectangle target, RowBands.Task task) {
+    if (parallel && canFilterInParallel && !(dst.getColorModel() instanceof IndexColorModel))
+      RowBands.process(forkJoinPool, target.width, target.height, (y0, y1) -> task.run(target.y + y0, target.y + y1));
+    else
+      task.run(target.y, target.y + target.height);
+  }
+
+  /**
+   * Filter a band of output rows using bilinear interpolation. Each call has its own scratch buffers
+   * so that bands can be filtered concurrently.
+   *
+   * @param sink             where to put the rows
+   * @param width            the width of the source image
+   * @param height           the height of the source image
+   * @param inPixels         the pixels of a block of the source image
+   * @param block            the block, which must contain every pixel the rows look up
+   * @param transformedSpace the output rectangle
+   * @param target           the region of the output to filter
+   * @param y0               the first row, inclusive
+   * @param y1               the last row, exclusive
+   */
+  private void filterRowsBilinear(RowSink sink, int width, int height, int[] inPixels, Rectangle block, Rectangle transformedSpace, Rectangle target, int y0, int y1) {
     int srcWidth = width;
     int srcHeight = height;
     int srcWidth1 = width - 1;
     int srcHeight1 = height - 1;
-    int outWidth = transformedSpace.width;
-    int outHeight = transformedSpace.height;
+    int blockWidth = block.width;
+    int outWidth = target.width;
     int outX, outY;
-    int index = 0;
     int[] outPixels = new int[outWidth];
 
-    outX = transformedSpace.x;
+    outX = transformedSpace.x + target.x;
     outY = transformedSpace.y;
-    float[] out = new float[2];
+    float[] inX = new float[outWidth];
+    float[] inY = new float[outWidth];
 
-    for (int y = 0; y < outHeight; y++) {
+    for (int y = y0; y < y1; y++) {
+      transformInverse(outX, outY + y, outWidth, inX, inY);
       for (int x = 0; x < outWidth; x++) {
-        transformInverse(outX + x, outY + y, out);
-        int srcX = (int) Math.floor(out[0]);
-        int srcY = (int) Math.floor(out[1]);
-        float xWeight = out[0] - srcX;
-        float yWeight = out[1] - srcY;
+        int srcX = (int) Math.floor(inX[x]);
+        int srcY = (int) Math.floor(inY[x]);
+        float xWeight = inX[x] - srcX;
+        float yWeight = inY[x] - srcY;
         int nw, ne, sw, se;
 
         if (srcX >= 0 && srcX < srcWidth1 && srcY >= 0 && srcY < srcHeight1) {
           // Easy case, all corners are in the image
-          int i = srcWidth * srcY + srcX;
+          int i = blockWidth * (srcY - block.y) + srcX - block.x;
           nw = inPixels[i];
           ne = inPixels[i + 1];
-          sw = inPixels[i + srcWidth];
-          se = inPixels[i + srcWidth + 1];
+          sw = inPixels[i + blockWidth];
+          se = inPixels[i + blockWidth + 1];
         } else {
           // Some of the corners are off the image
-          nw = getPixel(inPixels, srcX, srcY, srcWidth, srcHeight);
-          ne = getPixel(inPixels, srcX + 1, srcY, srcWidth, srcHeight);
-          sw = getPixel(inPixels, srcX, srcY + 1, srcWidth, srcHeight);
-          se = getPixel(inPixels, srcX + 1, srcY + 1, srcWidth, srcHeight);
+          nw = getPixel(inPixels, block, srcX, srcY, srcWidth, srcHeight);
+          ne = getPixel(inPixels, block, srcX + 1, srcY, srcWidth, srcHeight);
+          sw = getPixel(inPixels, block, srcX, srcY + 1, srcWidth, srcHeight);
+          se = getPixel(inPixels, block, srcX + 1, srcY + 1, srcWidth, srcHeight);
         }
         outPixels[x] = ImageMath.bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
       }
-      setRGB(dst, 0, y, transformedSpace.width, 1, outPixels);
+      sink.setRow(y, outPixels);
     }
-    return dst;
   }
 
-  final private int getPixel(int[] pixels, int x, int y, int width, int height) {
+  /**
+   * Get a pixel of the source from a block of it, dealing with pixels off the image according to the edge action.
+   */
+  final private int getPixel(int[] pixels, Rectangle block, int x, int y, int width, int height) {
     if (x < 0 || x >= width || y < 0 || y >= height) {
       switch (edgeAction) {
         case ZERO:
         default:
           return 0;
         case WRAP:
-          return pixels[(ImageMath.mod(y, height) * width) + ImageMath.mod(x, width)];
+          x = ImageMath.mod(x, width);
+          y = ImageMath.mod(y, height);
+          break;
         case CLAMP:
-          return pixels[(ImageMath.clamp(y, 0, height - 1) * width) + ImageMath.clamp(x, 0, width - 1)];
+          x = ImageMath.clamp(x, 0, width - 1);
+          y = ImageMath.clamp(y, 0, height - 1);
+          break;
         case RGB_CLAMP:
-          return pixels[(ImageMath.clamp(y, 0, height - 1) * width) + ImageMath.clamp(x, 0, width - 1)] & 0x00ffffff;
+          x = ImageMath.clamp(x, 0, width - 1);
+          y = ImageMath.clamp(y, 0, height - 1);
+          return pixels[(y - block.y) * block.width + x - block.x] & 0x00ffffff;
       }
     }
-    return pixels[y * width + x];
+    return pixels[(y - block.y) * block.width + x - block.x];
   }
 
   protected BufferedImage filterPixelsNN(BufferedImage dst, int width, int height, int[] inPixels, Rectangle transformedSpace) {
+    return filterPixelsNN(dst, width, height, inPixels, new Rectangle(0, 0, width, height), transformedSpace, new Rectangle(0, 0, transformedSpace.width, transformedSpace.height));
+  }
+
+  private BufferedImage filterPixelsNN(BufferedImage dst, int width, int height, int[] inPixels, Rectangle block, Rectangle transformedSpace, Rectangle target) {
+    RowSink sink = toImage(dst, target);
+    filterBands(dst, target, (y0, y1) -> filterRowsNN(sink, width, height, inPixels, block, transformedSpace, target, y0, y1));
+    return dst;
+  }
+
+  /**
+   * Filter a band of output rows using nearest-neighbour interpolation. The arguments are as for filterRowsBilinear.
+   */
+  private void filterRowsNN(RowSink sink, int width, int height, int[] inPixels, Rectangle block, Rectangle transformedSpace, Rectangle target, int y0, int y1) {
     int srcWidth = width;
     int srcHeight = height;
-    int outWidth = transformedSpace.width;
-    int outHeight = transformedSpace.height;
+    int outWidth = target.width;
     int outX, outY, srcX, srcY;
     int[] outPixels = new int[outWidth];
 
-    outX = transformedSpace.x;
+    outX = transformedSpace.x + target.x;
     outY = transformedSpace.y;
-    int[] rgb = new int[4];
-    float[] out = new float[2];
+    float[] inX = new float[outWidth];
+    float[] inY = new float[outWidth];
 
-    for (int y = 0; y < outHeight; y++) {
+    for (int y = y0; y < y1; y++) {
+      transformInverse(outX, outY + y, outWidth, inX, inY);
       for (int x = 0; x < outWidth; x++) {
-        transformInverse(outX + x, outY + y, out);
-        srcX = (int) out[0];
-        srcY = (int) out[1];
-        // int casting rounds towards zero, so we check out[0] < 0, not srcX < 0
-        if (out[0] < 0 || srcX >= srcWidth || out[1] < 0 || srcY >= srcHeight) {
+        srcX = (int) inX[x];
+        srcY = (int) inY[x];
+        // int casting rounds towards zero, so we check inX[x] < 0, not srcX < 0
+        if (inX[x] < 0 || srcX >= srcWidth || inY[x] < 0 || srcY >= srcHeight) {
           int p;
           switch (edgeAction) {
             case ZERO:
@@ -243,25 +417,21 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
               p = 0;
               break;
             case WRAP:
-              p = inPixels[(ImageMath.mod(srcY, srcHeight) * srcWidth) + ImageMath.mod(srcX, srcWidth)];
+              p = getPixel(inPixels, block, ImageMath.mod(srcX, srcWidth), ImageMath.mod(srcY, srcHeight), srcWidth, srcHeight);
               break;
             case CLAMP:
-              p = inPixels[(ImageMath.clamp(srcY, 0, srcHeight - 1) * srcWidth) + ImageMath.clamp(srcX, 0, srcWidth - 1)];
+              p = getPixel(inPixels, block, ImageMath.clamp(srcX, 0, srcWidth - 1), ImageMath.clamp(srcY, 0, srcHeight - 1), srcWidth, srcHeight);
               break;
             case RGB_CLAMP:
-              p = inPixels[(ImageMath.clamp(srcY, 0, srcHeight - 1) * srcWidth) + ImageMath.clamp(srcX, 0, srcWidth - 1)] & 0x00ffffff;
+              p = getPixel(inPixels, block, ImageMath.clamp(srcX, 0, srcWidth - 1), ImageMath.clamp(srcY, 0, srcHeight - 1), srcWidth, srcHeight) & 0x00ffffff;
           }
           outPixels[x] = p;
         } else {
-          int i = srcWidth * srcY + srcX;
-          rgb[0] = inPixels[i];
-          outPixels[x] = inPixels[i];
+          outPixels[x] = inPixels[block.width * (srcY - block.y) + srcX - block.x];
         }
       }
-      setRGB(dst, 0, y, transformedSpace.width, 1, outPixels);
+      sink.setRow(y, outPixels);
     }
-    return dst;
   }
 
 }
-
@@ -29,6 +29,10 @@ public class TritoneFilter extends PointFilter {
   private int highColor = 0xffffffff;
   private int[] lut;
 
+  public TritoneFilter() {
+    canFilterInParallel = true;
+  }
+
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     lut = new int[256];
     for (int i = 0; i < 128; i++) {
@@ -40,6 +40,7 @@ public class TwirlFilter extends TransformFilter {
    */
   public TwirlFilter() {
     setEdgeAction(CLAMP);
+    canFilterInParallel = true;
   }
 
   /**
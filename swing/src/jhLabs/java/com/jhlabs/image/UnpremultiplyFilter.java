@@ -23,6 +23,7 @@ package com.jhlabs.image;
 public class UnpremultiplyFilter extends PointFilter {
 
   public UnpremultiplyFilter() {
+    canFilterInParallel = true;
   }
 
   public int filterRGB(int x, int y, int rgb) {
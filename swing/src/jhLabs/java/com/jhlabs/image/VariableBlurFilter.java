@@ -25,6 +25,10 @@ import java.awt.image.ColorModel;
 /**
  * A filter which performs a box blur with a different blur radius at each pixel. The radius can either be specified by
  * providing a blur mask image or by overriding the blurRadiusAt method.
+ * <p>
+ * By default the blur is done in two separable passes, so the vertical pass averages pixels which were blurred
+ * horizontally by their own radius. With {@link #setUseSummedAreaTable} each iteration instead builds a
+ * {@link SummedAreaTable} and takes the mean over a whole box at each pixel, which costs the same whatever the radius.
  */
 public class VariableBlurFilter extends AbstractBufferedImageOp {
 
@@ -33,6 +37,7 @@ public class VariableBlurFilter extends AbstractBufferedImageOp {
   private int iterations = 1;
   private BufferedImage blurMask;
   private boolean premultiplyAlpha = true;
+  private boolean useSummedAreaTable = false;
 
   /**
    * Set whether to premultiply the alpha channel.
@@ -54,6 +59,26 @@ public class VariableBlurFilter extends AbstractBufferedImageOp {
     return premultiplyAlpha;
   }
 
+  /**
+   * Set whether to blur using a summed-area table rather than two separable passes.
+   *
+   * @param useSummedAreaTable true to use a summed-area table
+   * @see #getUseSummedAreaTable
+   */
+  public void setUseSummedAreaTable(boolean useSummedAreaTable) {
+    this.useSummedAreaTable = useSummedAreaTable;
+  }
+
+  /**
+   * Get whether to blur using a summed-area table.
+   *
+   * @return true to use a summed-area table
+   * @see #setUseSummedAreaTable
+   */
+  public boolean getUseSummedAreaTable() {
+    return useSummedAreaTable;
+  }
+
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     int width = src.getWidth();
     int height = src.getHeight();
@@ -67,9 +92,23 @@ public class VariableBlurFilter extends AbstractBufferedImageOp {
 
     if (premultiplyAlpha)
       ImageMath.premultiply(inPixels, 0, inPixels.length);
-    for (int i = 0; i < iterations; i++) {
-      blur(inPixels, outPixels, width, height, hRadius, 1);
-      blur(outPixels, inPixels, height, width, vRadius, 2);
+    if (useSummedAreaTable) {
+      int[] mask = null;
+      if (blurMask != null) {
+        mask = new int[width * height];
+        getRGB(blurMask, 0, 0, width, height, mask);
+      }
+      for (int i = 0; i < iterations; i++) {
+        blurBoxes(inPixels, outPixels, mask, width, height);
+        int[] t = inPixels;
+        inPixels = outPixels;
+        outPixels = t;
+      }
+    } else {
+      for (int i = 0; i < iterations; i++) {
+        blur(inPixels, outPixels, width, height, hRadius, 1);
+        blur(outPixels, inPixels, height, width, vRadius, 2);
+      }
     }
     if (premultiplyAlpha)
       ImageMath.unpremultiply(inPixels, 0, inPixels.length);
@@ -181,6 +220,35 @@ public class VariableBlurFilter extends AbstractBufferedImageOp {
     }
   }
 
+  /**
+   * Blur with a summed-area table, taking the mean over a box whose size is given by the blur radius at each pixel.
+   */
+  private void blurBoxes(int[] in, int[] out, int[] mask, int width, int height) {
+    SummedAreaTable table = new SummedAreaTable(in, width, height);
+    RowBands.Task task = (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        int index = y * width;
+        for (int x = 0; x < width; x++, index++) {
+          int rh, rv;
+          if (mask != null) {
+            int m = mask[index] & 0xff;
+            rh = (int) (m * hRadius / 255f);
+            rv = (int) (m * vRadius / 255f);
+          } else {
+            float f = blurRadiusAt(x, y, width, height);
+            rh = (int) (f * hRadius);
+            rv = (int) (f * vRadius);
+          }
+          out[index] = table.getMean(x - rh, y - rv, x + rh, y + rv);
+        }
+      }
+    };
+    if (parallel)
+      RowBands.process(forkJoinPool, width, height, task);
+    else
+      task.run(0, height);
+  }
+
   /**
    * Override this to get a different blur radius at eahc point.
    *
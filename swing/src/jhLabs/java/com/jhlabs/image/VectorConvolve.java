@@ -0,0 +1,408 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.awt.image.Kernel;
+
+/**
+ * SIMD versions of the convolution loops in ConvolveFilter and GaussianFilter, using the Vector API.
+ * Each row is unpacked into planar float channels, the kernel taps are accumulated several pixels
+ * at a time, then the channels are packed back into ARGB. The taps are added in the same order as
+ * in the scalar code, so the results are the same.
+ * <p>
+ * This class must only be touched when {@link #isAvailable} is true, as the jdk.incubator.vector module
+ * may not be present at runtime.
+ */
+final class VectorConvolve {
+
+  private static final boolean AVAILABLE = checkAvailable();
+
+  private VectorConvolve() {
+  }
+
+  /**
+   * Whether the Vector API can be used. It is disabled when the jdk.incubator.vector module isn't
+   * resolved, when the platform doesn't have vectors of at least 4 floats, or when the
+   * com.jhlabs.image.vector system property is set to false.
+   *
+   * @return true if the SIMD convolutions can be used
+   */
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  private static boolean checkAvailable() {
+    if (!Boolean.parseBoolean(System.getProperty("com.jhlabs.image.vector", "true")))
+      return false;
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+      return false;
+    try {
+      return Kernels.SPECIES.length() >= 4;
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Vectorised GaussianFilter.convolveAndTranspose, for CLAMP_EDGES and a kernel of odd width.
+   */
+  static void convolveAndTranspose(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply) {
+    float[] matrix = kernel.getKernelData(null);
+    int cols2 = kernel.getWidth() / 2;
+    Planes in = new Planes(width + 2 * cols2);
+    Planes out = new Planes(width);
+
+    for (int y = 0; y < height; y++) {
+      in.unpack(inPixels, y * width, width, cols2, premultiply);
+      Kernels.convolveRow(matrix, in, out, width);
+      out.pack(outPixels, y, height, width, alpha, unpremultiply);
+    }
+  }
+
+  /**
+   * Vectorised ConvolveFilter.convolveH, for CLAMP_EDGES and a kernel of odd width.
+   */
+  static void convolveH(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha) {
+    float[] matrix = kernel.getKernelData(null);
+    int cols2 = kernel.getWidth() / 2;
+    Planes in = new Planes(width + 2 * cols2);
+    Planes out = new Planes(width);
+
+    for (int y = 0; y < height; y++) {
+      in.unpack(inPixels, y * width, width, cols2, false);
+      Kernels.convolveRow(matrix, in, out, width);
+      out.pack(outPixels, y * width, 1, width, alpha, false);
+    }
+  }
+
+  /**
+   * Vectorised ConvolveFilter.convolveV, for CLAMP_EDGES and a kernel of odd height.
+   */
+  static void convolveV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha) {
+    float[] matrix = kernel.getKernelData(null);
+    int rows2 = kernel.getHeight() / 2;
+    RowRing ring = new RowRing(inPixels, width, height, rows2);
+    Planes out = new Planes(width);
+    Planes[] taps = new Planes[matrix.length];
+
+    for (int y = 0; y < height; y++) {
+      ring.advanceTo(y);
+      for (int row = -rows2; row <= rows2; row++) {
+        int iy = y + row;
+        if (iy < 0)
+          iy = 0;
+        else if (iy >= height)
+          iy = height - 1;
+        taps[row + rows2] = ring.getRow(iy);
+      }
+      Kernels.convolveColumn(matrix, taps, out, width);
+      out.pack(outPixels, y * width, 1, width, alpha, false);
+    }
+  }
+
+  /**
+   * Vectorised ConvolveFilter.convolveHV, for CLAMP_EDGES or ZERO_EDGES and a kernel of odd width and height.
+   */
+  static void convolveHV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean clamp) {
+    float[] matrix = kernel.getKernelData(null);
+    int rows = kernel.getHeight();
+    int cols = kernel.getWidth();
+    int rows2 = rows / 2;
+    int cols2 = cols / 2;
+    RowRing ring = new RowRing(inPixels, width, height, rows2);
+    Planes out = new Planes(width);
+    Planes[] taps = new Planes[rows];
+
+    for (int y = 0; y < height; y++) {
+      ring.advanceTo(y);
+      for (int row = -rows2; row <= rows2; row++) {
+        int iy = y + row;
+        if (0 <= iy && iy < height)
+          taps[row + rows2] = ring.getRow(iy);
+        else
+          taps[row + rows2] = clamp ? ring.getRow(y) : null;
+      }
+      Kernels.convolve2D(matrix, cols, taps, out, width, clamp);
+      out.pack(outPixels, y * width, 1, width, alpha, false);
+    }
+  }
+
+  /**
+   * A row of pixels split into one float array per channel.
+   */
+  static class Planes {
+    final float[] a, r, g, b;
+
+    Planes(int length) {
+      a = new float[length];
+      r = new float[length];
+      g = new float[length];
+      b = new float[length];
+    }
+
+    /**
+     * Unpack a row, repeating the edge pixels pad times on each side.
+     */
+    void unpack(int[] pixels, int offset, int width, int pad, boolean premultiply) {
+      for (int i = -pad; i < width + pad; i++) {
+        int ix = i < 0 ? 0 : i >= width ? width - 1 : i;
+        int rgb = pixels[offset + ix];
+        int pa = (rgb >> 24) & 0xff;
+        int pr = (rgb >> 16) & 0xff;
+        int pg = (rgb >> 8) & 0xff;
+        int pb = rgb & 0xff;
+        if (premultiply) {
+          float a255 = pa * (1.0f / 255.0f);
+          pr *= a255;
+          pg *= a255;
+          pb *= a255;
+        }
+        a[i + pad] = pa;
+        r[i + pad] = pr;
+        g[i + pad] = pg;
+        b[i + pad] = pb;
+      }
+    }
+
+    /**
+     * Pack a row back into ARGB, rounding and clamping the same way as the scalar code.
+     */
+    void pack(int[] pixels, int index, int stride, int width, boolean alpha, boolean unpremultiply) {
+      for (int x = 0; x < width; x++) {
+        float fa = a[x], fr = r[x], fg = g[x], fb = b[x];
+        if (unpremultiply && fa != 0 && fa != 255) {
+          float f = 255.0f / fa;
+          fr *= f;
+          fg *= f;
+          fb *= f;
+        }
+        int ia = alpha ? PixelUtils.clamp((int) (fa + 0.5)) : 0xff;
+        int ir = PixelUtils.clamp((int) (fr + 0.5));
+        int ig = PixelUtils.clamp((int) (fg + 0.5));
+        int ib = PixelUtils.clamp((int) (fb + 0.5));
+        pixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+        index += stride;
+      }
+    }
+  }
+
+  /**
+   * The unpacked rows within the kernel radius of the current row.
+   */
+  private static class RowRing {
+    private final int[] pixels;
+    private final int width, height, radius;
+    private final Planes[] rows;
+    private int next = 0;
+
+    RowRing(int[] pixels, int width, int height, int radius) {
+      this.pixels = pixels;
+      this.width = width;
+      this.height = height;
+      this.radius = radius;
+      rows = new Planes[Math.min(2 * radius + 1, height)];
+      for (int i = 0; i < rows.length; i++)
+        rows[i] = new Planes(width);
+    }
+
+    void advanceTo(int y) {
+      int last = Math.min(height - 1, y + radius);
+      while (next <= last) {
+        rows[next % rows.length].unpack(pixels, next * width, width, 0, false);
+        next++;
+      }
+    }
+
+    Planes getRow(int y) {
+      return rows[y % rows.length];
+    }
+  }
+
+  /**
+   * The vector loops. These are kept apart so that nothing touches the Vector API classes before
+   * we've checked that the module is there.
+   */
+  private static class Kernels {
+    static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * out[x] = sum of matrix[k] * in[x + k], over the non-zero taps in order.
+     */
+    static void convolveRow(float[] matrix, Planes in, Planes out, int width) {
+      int taps = matrix.length;
+      int bound = SPECIES.loopBound(width);
+      int x = 0;
+      for (; x < bound; x += SPECIES.length()) {
+        FloatVector a = FloatVector.zero(SPECIES);
+        FloatVector r = FloatVector.zero(SPECIES);
+        FloatVector g = FloatVector.zero(SPECIES);
+        FloatVector b = FloatVector.zero(SPECIES);
+        for (int k = 0; k < taps; k++) {
+          float f = matrix[k];
+          if (f != 0) {
+            a = a.add(FloatVector.fromArray(SPECIES, in.a, x + k).mul(f));
+            r = r.add(FloatVector.fromArray(SPECIES, in.r, x + k).mul(f));
+            g = g.add(FloatVector.fromArray(SPECIES, in.g, x + k).mul(f));
+            b = b.add(FloatVector.fromArray(SPECIES, in.b, x + k).mul(f));
+          }
+        }
+        a.intoArray(out.a, x);
+        r.intoArray(out.r, x);
+        g.intoArray(out.g, x);
+        b.intoArray(out.b, x);
+      }
+      for (; x < width; x++) {
+        float a = 0, r = 0, g = 0, b = 0;
+        for (int k = 0; k < taps; k++) {
+          float f = matrix[k];
+          if (f != 0) {
+            a += f * in.a[x + k];
+            r += f * in.r[x + k];
+            g += f * in.g[x + k];
+            b += f * in.b[x + k];
+          }
+        }
+        out.a[x] = a;
+        out.r[x] = r;
+        out.g[x] = g;
+        out.b[x] = b;
+      }
+    }
+
+    /**
+     * out[x] = sum of matrix[k] * rows[k][x], over the non-zero taps in order.
+     */
+    static void convolveColumn(float[] matrix, Planes[] rows, Planes out, int width) {
+      int taps = matrix.length;
+      int bound = SPECIES.loopBound(width);
+      int x = 0;
+      for (; x < bound; x += SPECIES.length()) {
+        FloatVector a = FloatVector.zero(SPECIES);
+        FloatVector r = FloatVector.zero(SPECIES);
+        FloatVector g = FloatVector.zero(SPECIES);
+        FloatVector b = FloatVector.zero(SPECIES);
+        for (int k = 0; k < taps; k++) {
+          float f = matrix[k];
+          if (f != 0) {
+            Planes in = rows[k];
+            a = a.add(FloatVector.fromArray(SPECIES, in.a, x).mul(f));
+            r = r.add(FloatVector.fromArray(SPECIES, in.r, x).mul(f));
+            g = g.add(FloatVector.fromArray(SPECIES, in.g, x).mul(f));
+            b = b.add(FloatVector.fromArray(SPECIES, in.b, x).mul(f));
+          }
+        }
+        a.intoArray(out.a, x);
+        r.intoArray(out.r, x);
+        g.intoArray(out.g, x);
+        b.intoArray(out.b, x);
+      }
+      for (; x < width; x++) {
+        float a = 0, r = 0, g = 0, b = 0;
+        for (int k = 0; k < taps; k++) {
+          float f = matrix[k];
+          if (f != 0) {
+            Planes in = rows[k];
+            a += f * in.a[x];
+            r += f * in.r[x];
+            g += f * in.g[x];
+            b += f * in.b[x];
+          }
+        }
+        out.a[x] = a;
+        out.r[x] = r;
+        out.g[x] = g;
+        out.b[x] = b;
+      }
+    }
+
+    /**
+     * A 2D convolution of one row. A null row is skipped. Pixels off the left and right edges are
+     * replaced by the centre pixel when clamping, or skipped otherwise, as in ConvolveFilter.convolveHV.
+     */
+    static void convolve2D(float[] matrix, int cols, Planes[] rows, Planes out, int width, boolean clamp) {
+      int cols2 = cols / 2;
+      int start = Math.min(cols2, width);
+      int end = Math.max(start, width - cols2);
+      int bound = start + SPECIES.loopBound(end - start);
+      int x = start;
+      for (; x < bound; x += SPECIES.length()) {
+        FloatVector a = FloatVector.zero(SPECIES);
+        FloatVector r = FloatVector.zero(SPECIES);
+        FloatVector g = FloatVector.zero(SPECIES);
+        FloatVector b = FloatVector.zero(SPECIES);
+        for (int row = 0; row < rows.length; row++) {
+          Planes in = rows[row];
+          if (in == null)
+            continue;
+          int moffset = cols * row;
+          for (int col = 0; col < cols; col++) {
+            float f = matrix[moffset + col];
+            if (f != 0) {
+              int ix = x + col - cols2;
+              a = a.add(FloatVector.fromArray(SPECIES, in.a, ix).mul(f));
+              r = r.add(FloatVector.fromArray(SPECIES, in.r, ix).mul(f));
+              g = g.add(FloatVector.fromArray(SPECIES, in.g, ix).mul(f));
+              b = b.add(FloatVector.fromArray(SPECIES, in.b, ix).mul(f));
+            }
+          }
+        }
+        a.intoArray(out.a, x);
+        r.intoArray(out.r, x);
+        g.intoArray(out.g, x);
+        b.intoArray(out.b, x);
+      }
+      for (int i = 0; i < start; i++)
+        convolvePixel(matrix, cols, rows, out, width, clamp, i);
+      for (; x < width; x++)
+        convolvePixel(matrix, cols, rows, out, width, clamp, x);
+    }
+
+    private static void convolvePixel(float[] matrix, int cols, Planes[] rows, Planes out, int width, boolean clamp, int x) {
+      int cols2 = cols / 2;
+      float a = 0, r = 0, g = 0, b = 0;
+      for (int row = 0; row < rows.length; row++) {
+        Planes in = rows[row];
+        if (in == null)
+          continue;
+        int moffset = cols * row + cols2;
+        for (int col = -cols2; col <= cols2; col++) {
+          float f = matrix[moffset + col];
+          if (f != 0) {
+            int ix = x + col;
+            if (!(0 <= ix && ix < width)) {
+              if (clamp)
+                ix = x;
+              else
+                continue;
+            }
+            a += f * in.a[ix];
+            r += f * in.r[ix];
+            g += f * in.g[ix];
+            b += f * in.b[ix];
+          }
+        }
+      }
+      out.a[x] = a;
+      out.r[x] = r;
+      out.g[x] = g;
+      out.b[x] = b;
+    }
+  }
+}
@@ -37,6 +37,7 @@ public class WaterFilter extends TransformFilter {
 
   public WaterFilter() {
     setEdgeAction(CLAMP);
+    canFilterInParallel = true;
   }
 
   /**
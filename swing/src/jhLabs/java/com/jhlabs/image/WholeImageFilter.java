@@ -59,9 +59,13 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
     }
     WritableRaster dstRaster = dst.getRaster();
 
-    int[] inPixels = getRGB(src, 0, 0, width, height, null);
-    inPixels = filterPixels(width, height, inPixels, transformedSpace);
-    setRGB(dst, 0, 0, transformedSpace.width, transformedSpace.height, inPixels);
+    ScratchBuffers buffers = ScratchBuffers.getDefault();
+    int[] inPixels = getRGB(src, 0, 0, width, height, buffers.getInts(width * height));
+    int[] outPixels = filterPixels(width, height, inPixels, transformedSpace);
+    setRGB(dst, 0, 0, transformedSpace.width, transformedSpace.height, outPixels);
+    buffers.release(inPixels);
+    if (outPixels != inPixels)
+      buffers.release(outPixels);
 
     return dst;
   }
@@ -75,7 +79,9 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
   }
 
   /**
-   * Actually filter the pixels.
+   * Actually filter the pixels. The input array comes from the {@link ScratchBuffers} pool and is given back to it
+   * afterwards, so it mustn't be kept. Subclasses may take their output array from the pool too, in which case
+   * it is given back once it has been copied to the destination.
    *
    * @param width            the image width
    * @param height           the image height
@@ -35,6 +35,8 @@ public class WoodFilter extends PointFilter {
   private float m10 = 0.0f;
   private float m11 = 1.0f;
   private Colormap colormap = new LinearColormap(0xffe5c494, 0xff987b51);
+  // The colormap compiled for quick lookups, for the image being filtered
+  private Colormap lookupColormap;
 
   /**
    * Construct a WoodFilter.
@@ -209,6 +211,7 @@ public class WoodFilter extends PointFilter {
    */
   public void setColormap(Colormap colormap) {
     this.colormap = colormap;
+    lookupColormap = null;
   }
 
   /**
@@ -221,6 +224,10 @@ public class WoodFilter extends PointFilter {
     return colormap;
   }
 
+  public void setDimensions(int width, int height) {
+    lookupColormap = LookupColormap.compile(colormap);
+  }
+
   public int filterRGB(int x, int y, int rgb) {
     float nx = m00 * x + m01 * y;
     float ny = m10 * x + m11 * y;
@@ -238,6 +245,7 @@ public class WoodFilter extends PointFilter {
 
     int a = rgb & 0xff000000;
     int v;
+    Colormap colormap = lookupColormap != null ? lookupColormap : this.colormap;
     if (colormap != null)
       v = colormap.getColor(f);
     else {
@@ -0,0 +1,419 @@
+/*
+Copyright 2006 Jerry Huxtable
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jhlabs.image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An image Quantizer based on Xiaolin Wu's variance minimization algorithm (Graphics Gems II, 1991). Colors are
+ * counted in a cube with 32 levels per channel, and the cube is split into boxes, each time cutting the box with the
+ * largest variance at the point which leaves the least variance on either side. The palette is the mean color of
+ * each box.
+ * <p>
+ * Everything is kept in flat arrays the size of the cube, so the cost of building the palette doesn't depend on the
+ * size of the image. Each cell of the cube is tagged with the box it ended up in, so finding the palette entry for a
+ * color is a single lookup. Large images can be counted in parallel with
+ * {@link #addPixels(int[], int, int, ForkJoinPool)}.
+ */
+public class WuQuantizer implements Quantizer {
+
+  private final static int SIDE = 33;
+  private final static int CELLS = SIDE * SIDE * SIDE;
+
+  private final static int RED = 2;
+  private final static int GREEN = 1;
+  private final static int BLUE = 0;
+
+  private int numColors = 256;
+
+  // The count, channel sums and sum of squares for each cell, and then the same summed over the cube below each cell
+  private long[] weight = new long[CELLS];
+  private long[] momentRed = new long[CELLS];
+  private long[] momentGreen = new long[CELLS];
+  private long[] momentBlue = new long[CELLS];
+  private double[] moment2 = new double[CELLS];
+  private boolean summed = false;
+  private int[] tag;
+
+  /**
+   * A box in the cube. The lower bounds are exclusive and the upper bounds inclusive.
+   */
+  private static class Box {
+    int r0, r1, g0, g1, b0, b1;
+    int volume;
+  }
+
+  /**
+   * Initialize the quantizer. This should be called before adding any pixels.
+   *
+   * @param numColors the number of colors we're quantizing to.
+   */
+  public void setup(int numColors) {
+    this.numColors = numColors;
+  }
+
+  /**
+   * Add pixels to the quantizer. Pixels can't be added once the color table has been built.
+   *
+   * @param pixels the array of ARGB pixels
+   * @param offset the offset into the array
+   * @param count  the count of pixels
+   */
+  public void addPixels(int[] pixels, int offset, int count) {
+    count(pixels, offset, offset + count, weight, momentRed, momentGreen, momentBlue, moment2);
+  }
+
+  /**
+   * Add pixels to the quantizer, counting runs of pixels in parallel and adding the counts together.
+   *
+   * @param pixels the array of ARGB pixels
+   * @param offset the offset into the array
+   * @param count  the count of pixels
+   * @param pool   the pool to use, or null for the common pool
+   */
+  public void addPixels(int[] pixels, int offset, int count, ForkJoinPool pool) {
+    RowBands.process(pool, 1, count, (i0, i1) -> {
+      long[] w = new long[CELLS];
+      long[] mr = new long[CELLS];
+      long[] mg = new long[CELLS];
+      long[] mb = new long[CELLS];
+      double[] m2 = new double[CELLS];
+      count(pixels, offset + i0, offset + i1, w, mr, mg, mb, m2);
+      synchronized (this) {
+        for (int i = 0; i < CELLS; i++) {
+          if (w[i] != 0) {
+            weight[i] += w[i];
+            momentRed[i] += mr[i];
+            momentGreen[i] += mg[i];
+            momentBlue[i] += mb[i];
+            moment2[i] += m2[i];
+          }
+        }
+      }
+    });
+  }
+
+  private static void count(int[] pixels, int from, int to, long[] w, long[] mr, long[] mg, long[] mb, double[] m2) {
+    for (int i = from; i < to; i++) {
+      int rgb = pixels[i];
+      int r = (rgb >> 16) & 0xff;
+      int g = (rgb >> 8) & 0xff;
+      int b = rgb & 0xff;
+      int index = cell(r, g, b);
+      w[index]++;
+      mr[index] += r;
+      mg[index] += g;
+      mb[index] += b;
+      m2[index] += r * r + g * g + b * b;
+    }
+  }
+
+  private static int cell(int r, int g, int b) {
+    return ((r >> 3) + 1) * SIDE * SIDE + ((g >> 3) + 1) * SIDE + (b >> 3) + 1;
+  }
+
+  private static int index(int r, int g, int b) {
+    return r * SIDE * SIDE + g * SIDE + b;
+  }
+
+  /**
+   * Build a color table from the added pixels.
+   *
+   * @return an array of ARGB pixels representing a color table
+   */
+  public int[] buildColorTable() {
+    if (!summed) {
+      computeMoments();
+      summed = true;
+    }
+
+    Box[] boxes = new Box[numColors];
+    double[] variance = new double[numColors];
+    boxes[0] = new Box();
+    boxes[0].r1 = boxes[0].g1 = boxes[0].b1 = SIDE - 1;
+
+    int n = 1;
+    int next = 0;
+    while (n < numColors) {
+      Box box = new Box();
+      if (cut(boxes[next], box)) {
+        variance[next] = boxes[next].volume > 1 ? variance(boxes[next]) : 0;
+        variance[n] = box.volume > 1 ? variance(box) : 0;
+        boxes[n++] = box;
+      } else {
+        // This box can't be split
+        variance[next] = 0;
+      }
+
+      next = 0;
+      double max = variance[0];
+      for (int i = 1; i < n; i++) {
+        if (variance[i] > max) {
+          max = variance[i];
+          next = i;
+        }
+      }
+      if (max <= 0)
+        break;
+    }
+
+    tag = new int[CELLS];
+    int[] table = new int[n];
+    for (int i = 0; i < n; i++) {
+      Box box = boxes[i];
+      for (int r = box.r0 + 1; r <= box.r1; r++)
+        for (int g = box.g0 + 1; g <= box.g1; g++)
+          for (int b = box.b0 + 1; b <= box.b1; b++)
+            tag[index(r, g, b)] = i;
+
+      long w = volume(box, weight);
+      if (w > 0) {
+        table[i] = 0xff000000 |
+                   (int) (volume(box, momentRed) / w) << 16 |
+                   (int) (volume(box, momentGreen) / w) << 8 |
+                   (int) (volume(box, momentBlue) / w);
+      } else {
+        table[i] = 0xff000000;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Using the previously-built color table, return the index into that table for a pixel.
+   *
+   * @param rgb the pixel to find
+   * @return the pixel's index in the color table
+   */
+  public int getIndexForColor(int rgb) {
+    return tag[cell((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff)];
+  }
+
+  /**
+   * Turn the counts into sums over the cube below and to the left of each cell.
+   */
+  private void computeMoments() {
+    long[] area = new long[SIDE];
+    long[] areaRed = new long[SIDE];
+    long[] areaGreen = new long[SIDE];
+    long[] areaBlue = new long[SIDE];
+    double[] area2 = new double[SIDE];
+
+    for (int r = 1; r < SIDE; r++) {
+      for (int i = 0; i < SIDE; i++) {
+        area[i] = areaRed[i] = areaGreen[i] = areaBlue[i] = 0;
+        area2[i] = 0;
+      }
+      for (int g = 1; g < SIDE; g++) {
+        long line = 0, lineRed = 0, lineGreen = 0, lineBlue = 0;
+        double line2 = 0;
+        for (int b = 1; b < SIDE; b++) {
+          int index = index(r, g, b);
+          line += weight[index];
+          lineRed += momentRed[index];
+          lineGreen += momentGreen[index];
+          lineBlue += momentBlue[index];
+          line2 += moment2[index];
+
+          area[b] += line;
+          areaRed[b] += lineRed;
+          areaGreen[b] += lineGreen;
+          areaBlue[b] += lineBlue;
+          area2[b] += line2;
+
+          int below = index - SIDE * SIDE;
+          weight[index] = weight[below] + area[b];
+          momentRed[index] = momentRed[below] + areaRed[b];
+          momentGreen[index] = momentGreen[below] + areaGreen[b];
+          momentBlue[index] = momentBlue[below] + areaBlue[b];
+          moment2[index] = moment2[below] + area2[b];
+        }
+      }
+    }
+  }
+
+  private static long volume(Box box, long[] moment) {
+    return moment[index(box.r1, box.g1, box.b1)]
+           - moment[index(box.r1, box.g1, box.b0)]
+           - moment[index(box.r1, box.g0, box.b1)]
+           + moment[index(box.r1, box.g0, box.b0)]
+           - moment[index(box.r0, box.g1, box.b1)]
+           + moment[index(box.r0, box.g1, box.b0)]
+           + moment[index(box.r0, box.g0, box.b1)]
+           - moment[index(box.r0, box.g0, box.b0)];
+  }
+
+  private static double volume(Box box, double[] moment) {
+    return moment[index(box.r1, box.g1, box.b1)]
+           - moment[index(box.r1, box.g1, box.b0)]
+           - moment[index(box.r1, box.g0, box.b1)]
+           + moment[index(box.r1, box.g0, box.b0)]
+           - moment[index(box.r0, box.g1, box.b1)]
+           + moment[index(box.r0, box.g1, box.b0)]
+           + moment[index(box.r0, box.g0, box.b1)]
+           - moment[index(box.r0, box.g0, box.b0)];
+  }
+
+  /**
+   * The part of a box's sum which doesn't depend on where the box is cut along an axis.
+   */
+  private static long bottom(Box box, int direction, long[] moment) {
+    switch (direction) {
+      case RED:
+        return -moment[index(box.r0, box.g1, box.b1)]
+               + moment[index(box.r0, box.g1, box.b0)]
+               + moment[index(box.r0, box.g0, box.b1)]
+               - moment[index(box.r0, box.g0, box.b0)];
+      case GREEN:
+        return -moment[index(box.r1, box.g0, box.b1)]
+               + moment[index(box.r1, box.g0, box.b0)]
+               + moment[index(box.r0, box.g0, box.b1)]
+               - moment[index(box.r0, box.g0, box.b0)];
+      default:
+        return -moment[index(box.r1, box.g1, box.b0)]
+               + moment[index(box.r1, box.g0, box.b0)]
+               + moment[index(box.r0, box.g1, box.b0)]
+               - moment[index(box.r0, box.g0, box.b0)];
+    }
+  }
+
+  /**
+   * The rest of a box's sum when it is cut at a position along an axis.
+   */
+  private static long top(Box box, int direction, int position, long[] moment) {
+    switch (direction) {
+      case RED:
+        return moment[index(position, box.g1, box.b1)]
+               - moment[index(position, box.g1, box.b0)]
+               - moment[index(position, box.g0, box.b1)]
+               + moment[index(position, box.g0, box.b0)];
+      case GREEN:
+        return moment[index(box.r1, position, box.b1)]
+               - moment[index(box.r1, position, box.b0)]
+               - moment[index(box.r0, position, box.b1)]
+               + moment[index(box.r0, position, box.b0)];
+      default:
+        return moment[index(box.r1, box.g1, position)]
+               - moment[index(box.r1, box.g0, position)]
+               - moment[index(box.r0, box.g1, position)]
+               + moment[index(box.r0, box.g0, position)];
+    }
+  }
+
+  private double variance(Box box) {
+    double r = volume(box, momentRed);
+    double g = volume(box, momentGreen);
+    double b = volume(box, momentBlue);
+    double x2 = volume(box, moment2);
+    return x2 - (r * r + g * g + b * b) / volume(box, weight);
+  }
+
+  /**
+   * Find the best place to cut a box along an axis.
+   *
+   * @return the score of the best cut, which is largest when the variance is least, and the position in cut[0]
+   */
+  private double maximize(Box box, int direction, int first, int last, int[] cut, long wholeRed, long wholeGreen, long wholeBlue, long wholeWeight) {
+    long baseRed = bottom(box, direction, momentRed);
+    long baseGreen = bottom(box, direction, momentGreen);
+    long baseBlue = bottom(box, direction, momentBlue);
+    long baseWeight = bottom(box, direction, weight);
+    double max = 0;
+    cut[0] = -1;
+
+    for (int i = first; i < last; i++) {
+      long halfRed = baseRed + top(box, direction, i, momentRed);
+      long halfGreen = baseGreen + top(box, direction, i, momentGreen);
+      long halfBlue = baseBlue + top(box, direction, i, momentBlue);
+      long halfWeight = baseWeight + top(box, direction, i, weight);
+      // Both halves must have some pixels in them
+      if (halfWeight == 0)
+        continue;
+      double temp = ((double) halfRed * halfRed + (double) halfGreen * halfGreen + (double) halfBlue * halfBlue) / halfWeight;
+
+      halfRed = wholeRed - halfRed;
+      halfGreen = wholeGreen - halfGreen;
+      halfBlue = wholeBlue - halfBlue;
+      halfWeight = wholeWeight - halfWeight;
+      if (halfWeight == 0)
+        continue;
+      temp += ((double) halfRed * halfRed + (double) halfGreen * halfGreen + (double) halfBlue * halfBlue) / halfWeight;
+
+      if (temp > max) {
+        max = temp;
+        cut[0] = i;
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Cut a box in two along the axis where it does most good.
+   *
+   * @return false if the box can't be cut
+   */
+  private boolean cut(Box set1, Box set2) {
+    long wholeRed = volume(set1, momentRed);
+    long wholeGreen = volume(set1, momentGreen);
+    long wholeBlue = volume(set1, momentBlue);
+    long wholeWeight = volume(set1, weight);
+
+    int[] cutRed = new int[1];
+    int[] cutGreen = new int[1];
+    int[] cutBlue = new int[1];
+    double maxRed = maximize(set1, RED, set1.r0 + 1, set1.r1, cutRed, wholeRed, wholeGreen, wholeBlue, wholeWeight);
+    double maxGreen = maximize(set1, GREEN, set1.g0 + 1, set1.g1, cutGreen, wholeRed, wholeGreen, wholeBlue, wholeWeight);
+    double maxBlue = maximize(set1, BLUE, set1.b0 + 1, set1.b1, cutBlue, wholeRed, wholeGreen, wholeBlue, wholeWeight);
+
+    int direction;
+    if (maxRed >= maxGreen && maxRed >= maxBlue) {
+      direction = RED;
+      if (cutRed[0] < 0)
+        return false;
+    } else if (maxGreen >= maxRed && maxGreen >= maxBlue)
+      direction = GREEN;
+    else
+      direction = BLUE;
+
+    set2.r1 = set1.r1;
+    set2.g1 = set1.g1;
+    set2.b1 = set1.b1;
+
+    switch (direction) {
+      case RED:
+        set2.r0 = set1.r1 = cutRed[0];
+        set2.g0 = set1.g0;
+        set2.b0 = set1.b0;
+        break;
+      case GREEN:
+        set2.g0 = set1.g1 = cutGreen[0];
+        set2.r0 = set1.r0;
+        set2.b0 = set1.b0;
+        break;
+      default:
+        set2.b0 = set1.b1 = cutBlue[0];
+        set2.r0 = set1.r0;
+        set2.g0 = set1.g0;
+        break;
+    }
+
+    set1.volume = (set1.r1 - set1.r0) * (set1.g1 - set1.g0) * (set1.b1 - set1.b0);
+    set2.volume = (set2.r1 - set2.r0) * (set2.g1 - set2.g0) * (set2.b1 - set2.b0);
+    return true;
+  }
+
+}
@@ -72,4 +72,40 @@ public class FBM implements Function2D {
     return value;
   }
 
+  /**
+   * Evaluate the function at a block of points, one octave at a time so that the basis can evaluate each octave as a
+   * block too. The results are the same as from {@link #evaluate(float, float)}.
+   */
+  public void evaluate(float[] x, float[] y, float[] values, int count) {
+    float[] ox = new float[count];
+    float[] oy = new float[count];
+    float[] b = new float[count];
+    int i;
+
+    // to prevent "cascading" effects
+    for (int k = 0; k < count; k++) {
+      ox[k] = x[k] + 371;
+      oy[k] = y[k] + 529;
+      values[k] = 0.0f;
+    }
+
+    for (i = 0; i < (int) octaves; i++) {
+      basis.evaluate(ox, oy, b, count);
+      float exponent = exponents[i];
+      for (int k = 0; k < count; k++) {
+        values[k] += b[k] * exponent;
+        ox[k] *= lacunarity;
+        oy[k] *= lacunarity;
+      }
+    }
+
+    float remainder = octaves - (int) octaves;
+    if (remainder != 0) {
+      basis.evaluate(ox, oy, b, count);
+      float exponent = exponents[i];
+      for (int k = 0; k < count; k++)
+        values[k] += remainder * b[k] * exponent;
+    }
+  }
+
 }
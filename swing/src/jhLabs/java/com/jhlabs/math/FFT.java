@@ -16,40 +16,66 @@ limitations under the License.
 
 package com.jhlabs.math;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A radix-2 complex FFT. The twiddle factors for each size are computed once, in double precision, when the FFT is
+ * constructed, so an instance can be shared and used concurrently by several threads. Two dimensional transforms
+ * can be run on a ForkJoinPool, with each thread transforming its own rows and then its own columns.
+ * <p>
+ * To transform real data, pack two real signals into the real and imaginary parts of one complex signal, as
+ * LensBlurFilter does. Anything linear done to the spectrum, such as multiplying by the spectrum of a real kernel,
+ * keeps the two signals apart.
+ */
 public class FFT {
 
-  // Weighting factors
-  protected float[] w1;
-  protected float[] w2;
-  protected float[] w3;
+  /**
+   * The smallest number of rows or columns handed to a single task by the parallel 2D transform.
+   */
+  private final static int MIN_LINES = 8;
+
+  /**
+   * The number of columns transformed together by the column pass.
+   */
+  private final static int COLUMN_STRIP = 16;
+
+  // Twiddle factors. Entries [m, 2m) hold exp(-i*PI*k/m) for k in [0, m), the factors for the stage of length 2m
+  private final float[] cosTable;
+  private final float[] sinTable;
+  private final int maxLogN;
 
+  /**
+   * Construct an FFT for transforms of up to 2^logN points.
+   *
+   * @param logN the log to base two of the largest transform size
+   */
   public FFT(int logN) {
-    // Prepare the weighting factors
-    w1 = new float[logN];
-    w2 = new float[logN];
-    w3 = new float[logN];
-    int N = 1;
-    for (int k = 0; k < logN; k++) {
-      N <<= 1;
-      double angle = -2.0 * Math.PI / N;
-      w1[k] = (float) Math.sin(0.5 * angle);
-      w2[k] = -2.0f * w1[k] * w1[k];
-      w3[k] = (float) Math.sin(angle);
+    maxLogN = logN;
+    int n = 1 << logN;
+    cosTable = new float[Math.max(n, 1)];
+    sinTable = new float[Math.max(n, 1)];
+    for (int m = 1; m < n; m <<= 1) {
+      for (int k = 0; k < m; k++) {
+        double angle = -Math.PI * k / m;
+        cosTable[m + k] = (float) Math.cos(angle);
+        sinTable[m + k] = (float) Math.sin(angle);
+      }
     }
   }
 
-  private void scramble(int n, float[] real, float[] imag) {
+  private void scramble(int n, float[] real, float[] imag, int offset) {
     int j = 0;
 
     for (int i = 0; i < n; i++) {
       if (i > j) {
         float t;
-        t = real[j];
-        real[j] = real[i];
-        real[i] = t;
-        t = imag[j];
-        imag[j] = imag[i];
-        imag[i] = t;
+        t = real[offset + j];
+        real[offset + j] = real[offset + i];
+        real[offset + i] = t;
+        t = imag[offset + j];
+        imag[offset + j] = imag[offset + i];
+        imag[offset + i] = t;
       }
       int m = n >> 1;
       while (j >= m && m >= 2) {
@@ -60,93 +86,270 @@ public class FFT {
     }
   }
 
-  private void butterflies(int n, int logN, int direction, float[] real, float[] imag) {
-    int N = 1;
-
-    for (int k = 0; k < logN; k++) {
-      float w_re, w_im, wp_re, wp_im, temp_re, temp_im, wt;
-      int half_N = N;
-      N <<= 1;
-      wt = direction * w1[k];
-      wp_re = w2[k];
-      wp_im = direction * w3[k];
-      w_re = 1.0f;
-      w_im = 0.0f;
-      for (int offset = 0; offset < half_N; offset++) {
-        for (int i = offset; i < n; i += N) {
-          int j = i + half_N;
-          float re = real[j];
-          float im = imag[j];
-          temp_re = (w_re * re) - (w_im * im);
-          temp_im = (w_im * re) + (w_re * im);
-          real[j] = real[i] - temp_re;
-          real[i] += temp_re;
-          imag[j] = imag[i] - temp_im;
-          imag[i] += temp_im;
+  private void butterflies(int n, int direction, float[] real, float[] imag, int offset) {
+    float[] cosTable = this.cosTable;
+    float[] sinTable = this.sinTable;
+    int end = offset + n;
+    int half_N = 1;
+
+    // With an odd number of stages, do the first one on its own. It has no twiddles.
+    if ((Integer.numberOfTrailingZeros(n) & 1) != 0) {
+      for (int i = offset; i < end; i += 2) {
+        float re = real[i + 1];
+        float im = imag[i + 1];
+        real[i + 1] = real[i] - re;
+        real[i] += re;
+        imag[i + 1] = imag[i] - im;
+        imag[i] += im;
+      }
+      half_N = 2;
+    }
+
+    // Do the remaining stages two at a time, which halves the number of passes over the data
+    for (; half_N < n; half_N <<= 2) {
+      int h = half_N;
+      for (int block = offset; block < end; block += 4 * h) {
+        for (int k = 0; k < h; k++) {
+          float w1_re = cosTable[h + k];
+          float w1_im = direction * sinTable[h + k];
+          float w2_re = cosTable[2 * h + k];
+          float w2_im = direction * sinTable[2 * h + k];
+          float w3_re = cosTable[3 * h + k];
+          float w3_im = direction * sinTable[3 * h + k];
+          int ia = block + k;
+          int ib = ia + h;
+          int ic = ib + h;
+          int id = ic + h;
+
+          float t_re = w1_re * real[ib] - w1_im * imag[ib];
+          float t_im = w1_im * real[ib] + w1_re * imag[ib];
+          float a_re = real[ia] + t_re, a_im = imag[ia] + t_im;
+          float b_re = real[ia] - t_re, b_im = imag[ia] - t_im;
+          t_re = w1_re * real[id] - w1_im * imag[id];
+          t_im = w1_im * real[id] + w1_re * imag[id];
+          float c_re = real[ic] + t_re, c_im = imag[ic] + t_im;
+          float d_re = real[ic] - t_re, d_im = imag[ic] - t_im;
+
+          t_re = w2_re * c_re - w2_im * c_im;
+          t_im = w2_im * c_re + w2_re * c_im;
+          real[ia] = a_re + t_re;
+          imag[ia] = a_im + t_im;
+          real[ic] = a_re - t_re;
+          imag[ic] = a_im - t_im;
+          t_re = w3_re * d_re - w3_im * d_im;
+          t_im = w3_im * d_re + w3_re * d_im;
+          real[ib] = b_re + t_re;
+          imag[ib] = b_im + t_im;
+          real[id] = b_re - t_re;
+          imag[id] = b_im - t_im;
         }
-        wt = w_re;
-        w_re = wt * wp_re - w_im * wp_im + w_re;
-        w_im = w_im * wp_re + wt * wp_im + w_im;
       }
     }
     if (direction == -1) {
       float nr = 1.0f / n;
-      for (int i = 0; i < n; i++) {
+      for (int i = offset; i < end; i++) {
         real[i] *= nr;
         imag[i] *= nr;
       }
     }
   }
 
+  /**
+   * Transform a complex signal in place. The inverse transform is scaled by 1/n.
+   *
+   * @param real    the real parts
+   * @param imag    the imaginary parts
+   * @param logN    the log to base two of the number of points
+   * @param n       the number of points
+   * @param forward true for the forward transform, false for the inverse
+   */
   public void transform1D(float[] real, float[] imag, int logN, int n, boolean forward) {
-    scramble(n, real, imag);
-    butterflies(n, logN, forward ? 1 : -1, real, imag);
+    transformLine(real, imag, 0, n, forward);
+  }
+
+  private void transformLine(float[] real, float[] imag, int offset, int n, boolean forward) {
+    if (n > 1 << maxLogN)
+      throw new IllegalArgumentException("FFT size " + n + " is larger than " + (1 << maxLogN));
+    scramble(n, real, imag, offset);
+    butterflies(n, forward ? 1 : -1, real, imag, offset);
   }
 
+  /**
+   * Transform a two dimensional complex signal in place.
+   *
+   * @param real    the real parts
+   * @param imag    the imaginary parts
+   * @param cols    the number of columns, a power of two
+   * @param rows    the number of rows, a power of two
+   * @param forward true for the forward transform, false for the inverse
+   */
   public void transform2D(float[] real, float[] imag, int cols, int rows, boolean forward) {
-    int log2cols = log2(cols);
-    int log2rows = log2(rows);
-    int n = Math.max(rows, cols);
-    float[] rtemp = new float[n];
-    float[] itemp = new float[n];
-
-    // FFT the rows
-    for (int y = 0; y < rows; y++) {
-      int offset = y * cols;
-      System.arraycopy(real, offset, rtemp, 0, cols);
-      System.arraycopy(imag, offset, itemp, 0, cols);
-      transform1D(rtemp, itemp, log2cols, cols, forward);
-      System.arraycopy(rtemp, 0, real, offset, cols);
-      System.arraycopy(itemp, 0, imag, offset, cols);
+    transformRows(real, imag, cols, 0, rows, forward);
+    transformColumns(real, imag, cols, rows, 0, cols, forward);
+  }
+
+  /**
+   * Transform a two dimensional complex signal in place, transforming the rows and then the columns in parallel.
+   *
+   * @param real    the real parts
+   * @param imag    the imaginary parts
+   * @param cols    the number of columns, a power of two
+   * @param rows    the number of rows, a power of two
+   * @param forward true for the forward transform, false for the inverse
+   * @param pool    the pool to use, or null for the common pool
+   */
+  public void transform2D(float[] real, float[] imag, int cols, int rows, boolean forward, ForkJoinPool pool) {
+    if (pool == null)
+      pool = ForkJoinPool.commonPool();
+    if (pool.getParallelism() <= 1) {
+      transform2D(real, imag, cols, rows, forward);
+      return;
     }
+    pool.invoke(new LineAction(0, rows, (l0, l1) -> transformRows(real, imag, cols, l0, l1, forward)));
+    pool.invoke(new LineAction(0, cols, (l0, l1) -> transformColumns(real, imag, cols, rows, l0, l1, forward)));
+  }
 
-    // FFT the columns
-    for (int x = 0; x < cols; x++) {
-      int index = x;
-      for (int y = 0; y < rows; y++) {
-        rtemp[y] = real[index];
-        itemp[y] = imag[index];
-        index += cols;
+  private void transformRows(float[] real, float[] imag, int cols, int y0, int y1, boolean forward) {
+    for (int y = y0; y < y1; y++)
+      transformLine(real, imag, y * cols, cols, forward);
+  }
+
+  /**
+   * Transform a band of columns. Rather than copying each column out, whole row segments are swapped and combined,
+   * so the inner loops run along contiguous memory and each twiddle factor is used for a strip of columns.
+   * Strips are narrow enough for all the passes over them to stay in the cache.
+   */
+  private void transformColumns(float[] real, float[] imag, int cols, int rows, int x0, int x1, boolean forward) {
+    if (rows > 1 << maxLogN)
+      throw new IllegalArgumentException("FFT size " + rows + " is larger than " + (1 << maxLogN));
+    int direction = forward ? 1 : -1;
+    for (int x = x0; x < x1; x += COLUMN_STRIP)
+      transformStrip(real, imag, cols, rows, x, Math.min(x + COLUMN_STRIP, x1), direction);
+  }
+
+  private void transformStrip(float[] real, float[] imag, int cols, int rows, int x0, int x1, int direction) {
+    float[] cosTable = this.cosTable;
+    float[] sinTable = this.sinTable;
+    int stripWidth = x1 - x0;
+
+    // Scramble the rows
+    int j = 0;
+    for (int i = 0; i < rows; i++) {
+      if (i > j) {
+        int ii = i * cols + x0;
+        int jj = j * cols + x0;
+        for (int x = 0; x < stripWidth; x++, ii++, jj++) {
+          float t = real[jj];
+          real[jj] = real[ii];
+          real[ii] = t;
+          t = imag[jj];
+          imag[jj] = imag[ii];
+          imag[ii] = t;
+        }
       }
-      transform1D(rtemp, itemp, log2rows, rows, forward);
-      index = x;
+      int m = rows >> 1;
+      while (j >= m && m >= 2) {
+        j -= m;
+        m >>= 1;
+      }
+      j += m;
+    }
+
+    int half_N = 1;
+    if ((Integer.numberOfTrailingZeros(rows) & 1) != 0) {
+      for (int y = 0; y < rows; y += 2) {
+        int ii = y * cols + x0;
+        int jj = ii + cols;
+        for (int x = 0; x < stripWidth; x++, ii++, jj++) {
+          float re = real[jj];
+          float im = imag[jj];
+          real[jj] = real[ii] - re;
+          real[ii] += re;
+          imag[jj] = imag[ii] - im;
+          imag[ii] += im;
+        }
+      }
+      half_N = 2;
+    }
+
+    for (; half_N < rows; half_N <<= 2) {
+      int h = half_N;
+      int hc = h * cols;
+      for (int block = 0; block < rows; block += 4 * h) {
+        for (int k = 0; k < h; k++) {
+          float w1_re = cosTable[h + k];
+          float w1_im = direction * sinTable[h + k];
+          float w2_re = cosTable[2 * h + k];
+          float w2_im = direction * sinTable[2 * h + k];
+          float w3_re = cosTable[3 * h + k];
+          float w3_im = direction * sinTable[3 * h + k];
+          int ia = (block + k) * cols + x0;
+          for (int x = 0; x < stripWidth; x++, ia++) {
+            int ib = ia + hc;
+            int ic = ib + hc;
+            int id = ic + hc;
+
+            float t_re = w1_re * real[ib] - w1_im * imag[ib];
+            float t_im = w1_im * real[ib] + w1_re * imag[ib];
+            float a_re = real[ia] + t_re, a_im = imag[ia] + t_im;
+            float b_re = real[ia] - t_re, b_im = imag[ia] - t_im;
+            t_re = w1_re * real[id] - w1_im * imag[id];
+            t_im = w1_im * real[id] + w1_re * imag[id];
+            float c_re = real[ic] + t_re, c_im = imag[ic] + t_im;
+            float d_re = real[ic] - t_re, d_im = imag[ic] - t_im;
+
+            t_re = w2_re * c_re - w2_im * c_im;
+            t_im = w2_im * c_re + w2_re * c_im;
+            real[ia] = a_re + t_re;
+            imag[ia] = a_im + t_im;
+            real[ic] = a_re - t_re;
+            imag[ic] = a_im - t_im;
+            t_re = w3_re * d_re - w3_im * d_im;
+            t_im = w3_im * d_re + w3_re * d_im;
+            real[ib] = b_re + t_re;
+            imag[ib] = b_im + t_im;
+            real[id] = b_re - t_re;
+            imag[id] = b_im - t_im;
+          }
+        }
+      }
+    }
+    if (direction == -1) {
+      float nr = 1.0f / rows;
       for (int y = 0; y < rows; y++) {
-        real[index] = rtemp[y];
-        imag[index] = itemp[y];
-        index += cols;
+        int index = y * cols + x0;
+        for (int x = 0; x < stripWidth; x++, index++) {
+          real[index] *= nr;
+          imag[index] *= nr;
+        }
       }
     }
   }
 
-  private int log2(int n) {
-    int m = 1;
-    int log2n = 0;
+  private interface Lines {
+    void run(int l0, int l1);
+  }
+
+  private static class LineAction extends RecursiveAction {
+    private final static long serialVersionUID = 1L;
+
+    private final int l0, l1;
+    private final Lines lines;
 
-    while (m < n) {
-      m *= 2;
-      log2n++;
+    LineAction(int l0, int l1, Lines lines) {
+      this.l0 = l0;
+      this.l1 = l1;
+      this.lines = lines;
+    }
+
+    protected void compute() {
+      if (l1 - l0 <= MIN_LINES) {
+        lines.run(l0, l1);
+      } else {
+        int mid = (l0 + l1) >>> 1;
+        invokeAll(new LineAction(l0, mid, lines), new LineAction(mid, l1, lines));
+      }
     }
-    return m == n ? log2n : -1;
   }
 
 }
@@ -18,5 +18,19 @@ package com.jhlabs.math;
 
 public interface Function2D {
   public float evaluate(float x, float y);
+
+  /**
+   * Evaluate the function at a block of points, such as a row of pixels. Functions which can share work between
+   * points override this, the default evaluates each point in turn.
+   *
+   * @param x      the x coordinates
+   * @param y      the y coordinates
+   * @param values the array to store the values in
+   * @param count  the number of points
+   */
+  public default void evaluate(float[] x, float[] y, float[] values, int count) {
+    for (int i = 0; i < count; i++)
+      values[i] = evaluate(x[i], y[i]);
+  }
 }
 
@@ -33,6 +33,10 @@ public class Noise implements Function1D, Function2D, Function3D {
     return noise2(x, y);
   }
 
+  public void evaluate(float[] x, float[] y, float[] values, int count) {
+    noise2(x, y, values, count);
+  }
+
   public float evaluate(float x, float y, float z) {
     return noise3(x, y, z);
   }
@@ -53,6 +57,33 @@ public class Noise implements Function1D, Function2D, Function3D {
     return t;
   }
 
+  /**
+   * Compute turbulence using Perlin noise at a block of points. The results are the same as from
+   * {@link #turbulence2(float, float, float)}, but each octave is done for all the points at once.
+   *
+   * @param x       the x values
+   * @param y       the y values
+   * @param octaves number of octaves of turbulence
+   * @param values  the array to store the turbulence in
+   * @param count   the number of points
+   */
+  public static void turbulence2(float[] x, float[] y, float octaves, float[] values, int count) {
+    float[] fx = new float[count];
+    float[] fy = new float[count];
+    float[] n = new float[count];
+    for (int i = 0; i < count; i++)
+      values[i] = 0.0f;
+    for (float f = 1.0f; f <= octaves; f *= 2) {
+      for (int i = 0; i < count; i++) {
+        fx[i] = f * x[i];
+        fy[i] = f * y[i];
+      }
+      noise2(fx, fy, n, count);
+      for (int i = 0; i < count; i++)
+        values[i] += Math.abs(n[i]) / f;
+    }
+  }
+
   /**
    * Compute turbulence using Perlin noise.
    *
@@ -77,7 +108,13 @@ public class Noise implements Function1D, Function2D, Function3D {
   static float[][] g3 = new float[B + B + 2][3];
   static float[][] g2 = new float[B + B + 2][2];
   static float[] g1 = new float[B + B + 2];
-  static boolean start = true;
+  // The 2D gradients again, split into x and y for the block functions
+  static float[] g2x = new float[B + B + 2];
+  static float[] g2y = new float[B + B + 2];
+
+  static {
+    init();
+  }
 
   private static float sCurve(float t) {
     return t * t * (3.0f - 2.0f * t);
@@ -93,11 +130,6 @@ public class Noise implements Function1D, Function2D, Function3D {
     int bx0, bx1;
     float rx0, rx1, sx, t, u, v;
 
-    if (start) {
-      start = false;
-      init();
-    }
-
     t = x + N;
     bx0 = ((int) t) & BM;
     bx1 = (bx0 + 1) & BM;
@@ -123,11 +155,6 @@ public class Noise implements Function1D, Function2D, Function3D {
     float rx0, rx1, ry0, ry1, q[], sx, sy, a, b, t, u, v;
     int i, j;
 
-    if (start) {
-      start = false;
-      init();
-    }
-
     t = x + N;
     bx0 = ((int) t) & BM;
     bx1 = (bx0 + 1) & BM;
@@ -166,6 +193,55 @@ public class Noise implements Function1D, Function2D, Function3D {
     return 1.5f * lerp(sy, a, b);
   }
 
+  /**
+   * Compute 2-dimensional Perlin noise at a block of points. The results are the same as from
+   * {@link #noise2(float, float)}.
+   *
+   * @param x      the x coordinates
+   * @param y      the y coordinates
+   * @param values the array to store the noise in
+   * @param count  the number of points
+   */
+  public static void noise2(float[] x, float[] y, float[] values, int count) {
+    int[] p = Noise.p;
+    float[] g2x = Noise.g2x;
+    float[] g2y = Noise.g2y;
+    for (int k = 0; k < count; k++) {
+      float t = x[k] + N;
+      int bx0 = ((int) t) & BM;
+      int bx1 = (bx0 + 1) & BM;
+      float rx0 = t - (int) t;
+      float rx1 = rx0 - 1.0f;
+
+      t = y[k] + N;
+      int by0 = ((int) t) & BM;
+      int by1 = (by0 + 1) & BM;
+      float ry0 = t - (int) t;
+      float ry1 = ry0 - 1.0f;
+
+      int i = p[bx0];
+      int j = p[bx1];
+
+      int b00 = p[i + by0];
+      int b10 = p[j + by0];
+      int b01 = p[i + by1];
+      int b11 = p[j + by1];
+
+      float sx = sCurve(rx0);
+      float sy = sCurve(ry0);
+
+      float u = rx0 * g2x[b00] + ry0 * g2y[b00];
+      float v = rx1 * g2x[b10] + ry0 * g2y[b10];
+      float a = lerp(sx, u, v);
+
+      u = rx0 * g2x[b01] + ry1 * g2y[b01];
+      v = rx1 * g2x[b11] + ry1 * g2y[b11];
+      float b = lerp(sx, u, v);
+
+      values[k] = 1.5f * lerp(sy, a, b);
+    }
+  }
+
   /**
    * Compute 3-dimensional Perlin noise.
    *
@@ -179,11 +255,6 @@ public class Noise implements Function1D, Function2D, Function3D {
     float rx0, rx1, ry0, ry1, rz0, rz1, q[], sy, sz, a, b, c, d, t, u, v;
     int i, j;
 
-    if (start) {
-      start = false;
-      init();
-    }
-
     t = x + N;
     bx0 = ((int) t) & BM;
     bx1 = (bx0 + 1) & BM;
@@ -297,6 +368,11 @@ public class Noise implements Function1D, Function2D, Function3D {
       for (j = 0; j < 3; j++)
         g3[B + i][j] = g3[i][j];
     }
+
+    for (i = 0; i < B + B + 2; i++) {
+      g2x[i] = g2[i][0];
+      g2y[i] = g2[i][1];
+    }
   }
 
   /**
@@ -11,6 +11,7 @@
 package sandbox.swing;
 
 import com.jhlabs.image.GaussianFilter;
+import com.jhlabs.image.ImageUtils;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -43,21 +44,19 @@ public class ImageEffects {
         int imgWidth = imgSource.getWidth() + (size * 2);
         int imgHeight = imgSource.getHeight() + (size * 2);
 
-        BufferedImage imgMask = createCompatibleImage(imgWidth, imgHeight);
-        Graphics2D g2 = imgMask.createGraphics();
-
         int x = Math.round((imgWidth - imgSource.getWidth()) / 2f);
         int y = Math.round((imgHeight - imgSource.getHeight()) / 2f);
-        g2.drawImage(imgSource, x, y, null);
-        g2.dispose();
 
-        // ---- Blur here ---
-
-        BufferedImage imgGlow = generateBlur(imgMask, (size * 2), color, alpha);
+        // The shadow only depends on the source's alpha, so blur that a byte per pixel and color it at the end
+        byte[] mask = new byte[imgWidth * imgHeight];
+        ImageUtils.getAlpha(imgSource, 0, 0, imgSource.getWidth(), imgSource.getHeight(), mask, y * imgWidth + x, imgWidth);
+        new GaussianFilter(size * 2).blurPlane(mask, imgWidth, imgHeight);
 
-        // ---- Blur here ----
+        BufferedImage imgShadow = createCompatibleImage(imgWidth, imgHeight);
+        int shadowAlpha = Math.min(255, Math.max(0, Math.round(color.getAlpha() * alpha)));
+        ImageUtils.setAlpha(imgShadow, 0, 0, imgWidth, imgHeight, mask, 0, imgWidth, (shadowAlpha << 24) | (color.getRGB() & 0xffffff));
 
-        return imgGlow;
+        return imgShadow;
 
     }
 
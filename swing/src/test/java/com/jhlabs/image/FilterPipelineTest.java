@@ -0,0 +1,55 @@
+/*
+ * sandbox
+ *
+ * Copyright (c) 2021,today - Brice Dutheil <brice.dutheil@gmail.com>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class FilterPipelineTest {
+
+  private static BufferedImageOp[] createFilters() {
+    LevelsFilter levels = new LevelsFilter();
+    levels.setLowLevel(0.1f);
+    levels.setHighLevel(0.8f);
+    ContrastFilter contrast = new ContrastFilter();
+    contrast.setContrast(1.4f);
+    return new BufferedImageOp[]{levels, contrast, new GaussianFilter(2), new GrayscaleFilter(), new SharpenFilter()};
+  }
+
+  @Test
+  void pipeline_matches_filters_run_one_after_the_other() {
+    Random random = new Random(5);
+    int[] types = {
+      BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_INT_RGB,
+      BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_4BYTE_ABGR_PRE, BufferedImage.TYPE_3BYTE_BGR,
+      BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_565_RGB
+    };
+    for (int type : types) {
+      BufferedImage src = new BufferedImage(61, 43, type);
+      for (int y = 0; y < src.getHeight(); y++) {
+        for (int x = 0; x < src.getWidth(); x++)
+          src.setRGB(x, y, random.nextInt());
+      }
+      BufferedImage expected = src;
+      for (BufferedImageOp filter : createFilters())
+        expected = filter.filter(expected, null);
+      BufferedImage actual = new FilterPipeline(createFilters()).filter(src, null);
+      assertArrayEquals(
+        expected.getRGB(0, 0, src.getWidth(), src.getHeight(), null, 0, src.getWidth()),
+        actual.getRGB(0, 0, src.getWidth(), src.getHeight(), null, 0, src.getWidth()),
+        "image type " + type);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * sandbox
+ *
+ * Copyright (c) 2021,today - Brice Dutheil <brice.dutheil@gmail.com>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class TiledImageTest {
+
+  @Test
+  void tiled_transform_matches_whole_image_for_non_finite_coordinates() throws IOException {
+    BufferedImage src = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < 16; y++) {
+      for (int x = 0; x < 16; x++)
+        src.setRGB(x, y, 0xff000000 | x * 0x0f0000 | y * 0x000f00 | (x ^ y) * 0x0f);
+    }
+    TransformFilterTest.NonFiniteFilter filter = new TransformFilterTest.NonFiniteFilter();
+    filter.setEdgeAction(TransformFilter.CLAMP);
+    BufferedImage expected = filter.filter(src, null);
+
+    TiledImage tiled = new TiledImage(16, 16, 4, 1 << 16, null);
+    TiledImage dst = null;
+    try {
+      tiled.setImage(src, 0, 0);
+      dst = tiled.filter(filter, null);
+      BufferedImage actual = dst.getImage(0, 0, 16, 16);
+      assertArrayEquals(expected.getRGB(0, 0, 16, 16, null, 0, 16), actual.getRGB(0, 0, 16, 16, null, 0, 16));
+    } finally {
+      tiled.close();
+      if (dst != null)
+        dst.close();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * sandbox
+ *
+ * Copyright (c) 2021,today - Brice Dutheil <brice.dutheil@gmail.com>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class TransformFilterTest {
+
+  /**
+   * A transform which maps part of the output to infinite or undefined coordinates, like a perspective past the
+   * horizon.
+   */
+  static class NonFiniteFilter extends TransformFilter {
+    NonFiniteFilter() {
+      canFilterInParallel = true;
+    }
+
+    protected void transformInverse(int x, int y, float[] out) {
+      if (x < 5) {
+        out[0] = Float.POSITIVE_INFINITY;
+        out[1] = y;
+      } else if (x > 12) {
+        out[0] = Float.NEGATIVE_INFINITY;
+        out[1] = y < 4 ? Float.NaN : Float.POSITIVE_INFINITY;
+      } else {
+        out[0] = x * 0.9f + 0.3f;
+        out[1] = y * 0.8f + 1.7f;
+      }
+    }
+  }
+
+  @Test
+  void region_matches_full_image_for_non_finite_coordinates() {
+    BufferedImage src = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < 16; y++) {
+      for (int x = 0; x < 16; x++)
+        src.setRGB(x, y, 0xff000000 | x * 0x0f0000 | y * 0x000f00 | (x ^ y) * 0x0f);
+    }
+    Rectangle region = new Rectangle(0, 8, 16, 8);
+    for (int edgeAction : new int[]{TransformFilter.ZERO, TransformFilter.CLAMP, TransformFilter.RGB_CLAMP, TransformFilter.WRAP}) {
+      for (int interpolation : new int[]{TransformFilter.NEAREST_NEIGHBOUR, TransformFilter.BILINEAR}) {
+        NonFiniteFilter filter = new NonFiniteFilter();
+        filter.setEdgeAction(edgeAction);
+        filter.setInterpolation(interpolation);
+        BufferedImage full = filter.filter(src, null);
+        Rectangle block = filter.getSourceRegion(region, src);
+        assertFalse(block.isEmpty(), "source region " + block);
+        BufferedImage part = filter.filter(src, null, region);
+        assertArrayEquals(
+          full.getRGB(region.x, region.y, region.width, region.height, null, 0, region.width),
+          part.getRGB(region.x, region.y, region.width, region.height, null, 0, region.width),
+          "edge action " + edgeAction + ", interpolation " + interpolation);
+      }
+    }
+  }
+}